@@ -0,0 +1,94 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.form.ConferenceForm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for building a Conference from a form and for its defensive copies.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConferenceBenchmark {
+
+    private static final String USER_ID = "123456789";
+
+    // the profile key of a new conference needs the app id of the stub environment
+    private final LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+    private ConferenceForm form;
+
+    private ConferenceForm formWithoutDates;
+
+    private Conference conference;
+
+    @Setup
+    public void setUp() {
+        helper.setUp();
+        List<String> topics = Arrays.asList("Google", "Cloud", "Platform");
+        Date startDate = new Date(1395705600000L);
+        Date endDate = new Date(1395792000000L);
+        form = new ConferenceForm("GCP Live", "New announcements for Google Cloud Platform", topics,
+                "San Francisco", startDate, endDate, 500);
+        formWithoutDates = new ConferenceForm("GCP Live", "New announcements for Google Cloud Platform", topics,
+                "San Francisco", null, null, 500);
+        conference = new Conference(1L, USER_ID, form);
+    }
+
+    @TearDown
+    public void tearDown() {
+        helper.tearDown();
+    }
+
+    @Benchmark
+    public Conference construct() {
+        return new Conference(1L, USER_ID, form);
+    }
+
+    /**
+     * Without a start date, so the difference to {@link #updateWithConferenceForm()} is the Calendar lookup
+     * of the month.
+     */
+    @Benchmark
+    public Conference updateWithConferenceFormWithoutDates() {
+        conference.updateWithConferenceForm(formWithoutDates);
+        return conference;
+    }
+
+    @Benchmark
+    public Conference updateWithConferenceForm() {
+        conference.updateWithConferenceForm(form);
+        return conference;
+    }
+
+    @Benchmark
+    public List<String> getTopics() {
+        return conference.getTopics();
+    }
+
+    @Benchmark
+    public Date getStartDate() {
+        return conference.getStartDate();
+    }
+}
@@ -0,0 +1,125 @@
+package com.google.devrel.training.conference.spi;
+
+import com.google.api.server.spi.response.CollectionResponse;
+import com.google.appengine.api.users.User;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalSearchServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceSummary;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ProfileForm;
+import com.google.devrel.training.conference.form.QueryForm;
+import com.google.devrel.training.conference.service.ConferenceCache;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.util.Closeable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * Benchmarks for ConferenceApi endpoints against the local datastore and memcache stubs. The stubs do not
+ * have the latency of the real services, so these measure the CPU the endpoints spend, not their RPCs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+// one user creates all the conferences, so the per user rate limits are off
+@Fork(value = 1, jvmArgsAppend = "-DrateLimit.enabled=false")
+@State(Scope.Thread)
+public class ConferenceApiBenchmark {
+
+    private static final int CONFERENCES = 200;
+
+    // queries see all seeded conferences at once
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(0),
+                    new LocalMemcacheServiceTestConfig(),
+                    new LocalSearchServiceTestConfig(),
+                    new LocalTaskQueueTestConfig().setQueueXmlPath("src/main/webapp/WEB-INF/queue.xml"));
+
+    private Closeable session;
+
+    private ConferenceApi conferenceApi;
+
+    private User user;
+
+    private ConferenceForm conferenceForm;
+
+    private QueryForm byCity;
+
+    private QueryForm withResidualFilter;
+
+    @Setup
+    public void setUp() throws Exception {
+        session = ObjectifyService.begin();
+        helper.setUp();
+        conferenceApi = new ConferenceApi();
+        user = new User("example@gmail.com", "gmail.com", "123456789");
+        conferenceApi.saveProfile(user, new ProfileForm("Your Name Here", ProfileForm.TeeShirtSize.NOT_SPECIFIED));
+        conferenceForm = new ConferenceForm("GCP Live", "New announcements for Google Cloud Platform",
+                Arrays.asList("Google", "Cloud", "Platform"), "San Francisco", new Date(1395705600000L),
+                new Date(1395792000000L), 500);
+        String[] cities = {"San Francisco", "London", "Tokyo"};
+        for (int i = 0; i < CONFERENCES; i++) {
+            conferenceApi.createConference(user, new ConferenceForm("Conference " + i, null,
+                    Arrays.asList("Google", "Cloud"), cities[i % cities.length], null, null, 100 + i));
+        }
+        byCity = new QueryForm().filter(
+                new QueryForm.Filter(QueryForm.Field.CITY, QueryForm.Operator.EQ, "London"));
+        withResidualFilter = new QueryForm().filter(
+                new QueryForm.Filter(QueryForm.Field.CITY, QueryForm.Operator.NE, "London"));
+    }
+
+    /**
+     * Drops the session and in-process caches between iterations, so every iteration measures the same mix
+     * of cold and warm lookups.
+     */
+    @Setup(Level.Iteration)
+    public void clearCaches() {
+        ofy().clear();
+        ConferenceCache.clearLocal();
+    }
+
+    @TearDown
+    public void tearDown() {
+        ofy().clear();
+        helper.tearDown();
+        session.close();
+    }
+
+    @Benchmark
+    public CollectionResponse<ConferenceSummary> queryConferences() throws Exception {
+        return conferenceApi.queryConferences(byCity, null, null);
+    }
+
+    @Benchmark
+    public CollectionResponse<ConferenceSummary> queryConferencesWithResidualFilter() throws Exception {
+        return conferenceApi.queryConferences(withResidualFilter, null, null);
+    }
+
+    @Benchmark
+    public Conference createConference() throws Exception {
+        return conferenceApi.createConference(user, conferenceForm);
+    }
+}
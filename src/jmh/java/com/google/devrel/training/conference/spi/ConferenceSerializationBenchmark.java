@@ -0,0 +1,88 @@
+package com.google.devrel.training.conference.spi;
+
+import com.google.api.server.spi.ConfiguredObjectMapper;
+import com.google.api.server.spi.response.CollectionResponse;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceSummary;
+import com.google.devrel.training.conference.form.ConferenceForm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the Endpoints JSON serialization of a page of conferences, as full Conferences and as the
+ * ConferenceSummary the list endpoints return.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConferenceSerializationBenchmark {
+
+    @Param({"20", "100"})
+    private int pageSize;
+
+    // conference keys need the app id of the stub environment
+    private final LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+    private ConfiguredObjectMapper objectMapper;
+
+    private CollectionResponse<Conference> conferences;
+
+    private CollectionResponse<ConferenceSummary> summaries;
+
+    @Setup
+    public void setUp() {
+        helper.setUp();
+        objectMapper = ConfiguredObjectMapper.builder().build();
+        List<String> topics = Arrays.asList("Google", "Cloud", "Platform");
+        List<Conference> page = new ArrayList<>(pageSize);
+        List<ConferenceSummary> summaryPage = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            Conference conference = new Conference(i + 1, "organizer" + (i % 10), new ConferenceForm(
+                    "Conference " + i, "New announcements for Google Cloud Platform", topics, "San Francisco",
+                    new Date(1395705600000L), new Date(1395792000000L), 500));
+            page.add(conference);
+            summaryPage.add(new ConferenceSummary(conference));
+        }
+        conferences = CollectionResponse.<Conference>builder().setItems(page).setNextPageToken("next").build();
+        summaries = CollectionResponse.<ConferenceSummary>builder().setItems(summaryPage)
+                .setNextPageToken("next").build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        helper.tearDown();
+    }
+
+    @Benchmark
+    public String serializeConferences() throws IOException {
+        return objectMapper.writer().writeValueAsString(conferences);
+    }
+
+    @Benchmark
+    public String serializeSummaries() throws IOException {
+        return objectMapper.writer().writeValueAsString(summaries);
+    }
+}
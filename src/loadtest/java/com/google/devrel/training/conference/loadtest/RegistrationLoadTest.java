@@ -0,0 +1,455 @@
+package com.google.devrel.training.conference.loadtest;
+
+import com.google.api.server.spi.response.ConflictException;
+import com.google.api.server.spi.response.ServiceUnavailableException;
+import com.google.appengine.api.users.User;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalSearchServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.apphosting.api.ApiProxy;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.SeatShard;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ProfileForm;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.form.QueryForm;
+import com.google.devrel.training.conference.service.TransactionService;
+import com.google.devrel.training.conference.spi.ConferenceApi;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.util.Closeable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * Runs a mix of ConferenceApi calls from many simulated users on concurrent threads against the local
+ * datastore and memcache stubs, and reports throughput, latency percentiles, transaction retries and whether
+ * any conference was overbooked.
+ *
+ * Every thread runs a fixed number of operations picked with its own seeded Random, so two runs with the same
+ * settings issue the same calls; only their interleaving differs. Settings are read from system properties,
+ * see the constants below, and printed with the report. The process exits with status 1 when a conference was
+ * overbooked or its booked seats do not match the registrations in the profiles.
+ */
+public class RegistrationLoadTest {
+
+    private static final int THREADS = Integer.getInteger("loadtest.threads", 16);
+
+    private static final int OPERATIONS = Integer.getInteger("loadtest.operations", 20000);
+
+    /**
+     * Operations run before the measured ones, to warm up the JIT and the caches.
+     */
+    private static final int WARMUP_OPERATIONS = Integer.getInteger("loadtest.warmupOperations", 2000);
+
+    private static final int USERS = Integer.getInteger("loadtest.users", 5000);
+
+    /**
+     * Conferences that registrations go to, picked uniformly. One means a single popular conference.
+     */
+    private static final int POPULAR_CONFERENCES = Integer.getInteger("loadtest.popularConferences", 1);
+
+    private static final int SEATS = Integer.getInteger("loadtest.seats", 2000);
+
+    /**
+     * Conferences created up front for queryConferences to find.
+     */
+    private static final int BACKGROUND_CONFERENCES = Integer.getInteger("loadtest.backgroundConferences", 200);
+
+    private static final String MIX = System.getProperty("loadtest.mix",
+            "createConference=5,queryConferences=30,saveProfile=15,registerForConference=50");
+
+    /**
+     * The HRD unapplied job percentage of the datastore stub, how eventually consistent global queries are. It
+     * has to be above 0, the stub does not run as High Replication at 0 and rejects cross-group transactions.
+     */
+    private static final float UNAPPLIED_JOB_PERCENTAGE =
+            Float.parseFloat(System.getProperty("loadtest.unappliedJobPercentage", "10"));
+
+    private static final boolean SIMULATE_PROD_LATENCIES = Boolean.getBoolean("loadtest.simulateProdLatencies");
+
+    private static final long SEED = Long.getLong("loadtest.seed", 42);
+
+    private static final String[] CITIES = {"San Francisco", "London", "Tokyo", "Berlin", "Sydney"};
+
+    private static final TeeShirtSize[] TEE_SHIRT_SIZES = TeeShirtSize.values();
+
+    private enum Operation {
+        createConference, queryConferences, saveProfile, registerForConference
+    }
+
+    private enum Outcome {
+        ok, conflict, unavailable, failed
+    }
+
+    /**
+     * Exposes the environment of the stubs to the worker threads, the API proxy environment is per thread.
+     */
+    private static class Helper extends LocalServiceTestHelper {
+        Helper(LocalServiceTestConfig... configs) {
+            super(configs);
+        }
+
+        ApiProxy.Environment newWorkerEnvironment() {
+            return newEnvironment();
+        }
+    }
+
+    /**
+     * Latencies and outcomes of one operation on one thread, merged after the run.
+     */
+    private static class OperationStats {
+        private long[] latencyMicros = new long[256];
+        private int count;
+        private final Map<Outcome, Integer> outcomes = new EnumMap<>(Outcome.class);
+        private String firstFailure;
+
+        void record(final long micros, final Outcome outcome, final Exception failure) {
+            if (count == latencyMicros.length) {
+                latencyMicros = Arrays.copyOf(latencyMicros, count * 2);
+            }
+            latencyMicros[count++] = micros;
+            outcomes.put(outcome, outcome(outcome) + 1);
+            if (failure != null && firstFailure == null) {
+                firstFailure = failure.toString();
+            }
+        }
+
+        void merge(final OperationStats other) {
+            latencyMicros = Arrays.copyOf(latencyMicros, count + other.count);
+            System.arraycopy(other.latencyMicros, 0, latencyMicros, count, other.count);
+            count += other.count;
+            for (Map.Entry<Outcome, Integer> entry : other.outcomes.entrySet()) {
+                outcomes.put(entry.getKey(), outcome(entry.getKey()) + entry.getValue());
+            }
+            if (firstFailure == null) {
+                firstFailure = other.firstFailure;
+            }
+        }
+
+        int outcome(final Outcome outcome) {
+            Integer value = outcomes.get(outcome);
+            return value == null ? 0 : value;
+        }
+
+        double percentileMillis(final long[] sorted, final double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            return sorted[Math.max(0, index)] / 1000.0;
+        }
+    }
+
+    private final Helper helper = new Helper(
+            new LocalDatastoreServiceTestConfig().setDefaultHighRepJobPolicyUnappliedJobPercentage(
+                    UNAPPLIED_JOB_PERCENTAGE),
+            new LocalMemcacheServiceTestConfig(),
+            new LocalSearchServiceTestConfig(),
+            new LocalTaskQueueTestConfig().setQueueXmlPath("src/main/webapp/WEB-INF/queue.xml"));
+
+    private final ConferenceApi conferenceApi = new ConferenceApi();
+
+    private final Map<Operation, Integer> weights = parseMix(MIX);
+
+    private final List<String> popularConferenceKeys = new ArrayList<>();
+
+    private static Map<Operation, Integer> parseMix(final String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid loadtest.mix entry: " + entry);
+            }
+            int weight = Integer.parseInt(parts[1].trim());
+            if (weight > 0) {
+                weights.put(Operation.valueOf(parts[0].trim()), weight);
+            }
+        }
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("loadtest.mix has no operation with a positive weight: " + mix);
+        }
+        return weights;
+    }
+
+    private static User user(final int index) {
+        return new User("user" + index + "@example.com", "example.com", "user" + index);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (UNAPPLIED_JOB_PERCENTAGE <= 0) {
+            throw new IllegalArgumentException("loadtest.unappliedJobPercentage has to be above 0, was "
+                    + UNAPPLIED_JOB_PERCENTAGE);
+        }
+        RegistrationLoadTest loadTest = new RegistrationLoadTest();
+        boolean inconsistent;
+        loadTest.helper.setSimulateProdLatencies(SIMULATE_PROD_LATENCIES).setUp();
+        try {
+            inconsistent = loadTest.run();
+        } finally {
+            loadTest.helper.tearDown();
+        }
+        System.exit(inconsistent ? 1 : 0);
+    }
+
+    /**
+     * @return true when the seats of a conference are inconsistent, see {@link #printSeats()}.
+     */
+    private boolean run() throws Exception {
+        seed();
+        printSettings();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            runPhase(executor, WARMUP_OPERATIONS, SEED - 1);
+            TransactionService.resetStats();
+            long start = System.nanoTime();
+            Map<Operation, OperationStats> stats = runPhase(executor, OPERATIONS, SEED);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            printOperations(stats, seconds);
+        } finally {
+            executor.shutdown();
+        }
+        printTransactions();
+        return printSeats();
+    }
+
+    private void seed() throws Exception {
+        Closeable session = ObjectifyService.begin();
+        try {
+            User organizer = new User("organizer@example.com", "example.com", "organizer");
+            for (int i = 0; i < POPULAR_CONFERENCES; i++) {
+                Conference conference = conferenceApi.createConference(organizer, new ConferenceForm(
+                        "Popular " + i, null, null, CITIES[0], null, null, SEATS));
+                popularConferenceKeys.add(conference.getWebsafeKey());
+            }
+            for (int i = 0; i < BACKGROUND_CONFERENCES; i++) {
+                conferenceApi.createConference(organizer, new ConferenceForm(
+                        "Conference " + i, null, null, CITIES[i % CITIES.length], null, null, 100));
+            }
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Runs the operations spread evenly over the threads, all threads starting at once.
+     */
+    private Map<Operation, OperationStats> runPhase(final ExecutorService executor, final int operations,
+                                                    final long seed) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Map<Operation, OperationStats>>> workers = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            final int perThread = operations / THREADS + (i < operations % THREADS ? 1 : 0);
+            final Random random = new Random(seed * 31 + i);
+            final ApiProxy.Environment environment = helper.newWorkerEnvironment();
+            workers.add(executor.submit(new Callable<Map<Operation, OperationStats>>() {
+                @Override
+                public Map<Operation, OperationStats> call() throws Exception {
+                    ApiProxy.setEnvironmentForCurrentThread(environment);
+                    try {
+                        start.await();
+                        Map<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+                        for (int n = 0; n < perThread; n++) {
+                            runOne(random, stats);
+                        }
+                        return stats;
+                    } finally {
+                        ApiProxy.clearEnvironmentForCurrentThread();
+                    }
+                }
+            }));
+        }
+        start.countDown();
+        Map<Operation, OperationStats> merged = new EnumMap<>(Operation.class);
+        for (Future<Map<Operation, OperationStats>> worker : workers) {
+            for (Map.Entry<Operation, OperationStats> entry : worker.get().entrySet()) {
+                if (!merged.containsKey(entry.getKey())) {
+                    merged.put(entry.getKey(), new OperationStats());
+                }
+                merged.get(entry.getKey()).merge(entry.getValue());
+            }
+        }
+        return merged;
+    }
+
+    private Operation pick(final Random random) {
+        int total = 0;
+        for (int weight : weights.values()) {
+            total += weight;
+        }
+        int value = random.nextInt(total);
+        for (Map.Entry<Operation, Integer> entry : weights.entrySet()) {
+            value -= entry.getValue();
+            if (value < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new AssertionError();
+    }
+
+    /**
+     * Runs one operation as one request would, with an Objectify session of its own.
+     */
+    private void runOne(final Random random, final Map<Operation, OperationStats> stats) {
+        Operation operation = pick(random);
+        User user = user(random.nextInt(USERS));
+        Outcome outcome = Outcome.ok;
+        Exception failure = null;
+        long start = System.nanoTime();
+        Closeable session = ObjectifyService.begin();
+        try {
+            switch (operation) {
+                case createConference:
+                    conferenceApi.createConference(user, new ConferenceForm("Conference by " + user.getUserId(),
+                            null, null, CITIES[random.nextInt(CITIES.length)], null, null, 100));
+                    break;
+                case queryConferences:
+                    conferenceApi.queryConferences(new QueryForm().filter(new QueryForm.Filter(
+                            QueryForm.Field.CITY, QueryForm.Operator.EQ, CITIES[random.nextInt(CITIES.length)])),
+                            null, null);
+                    break;
+                case saveProfile:
+                    conferenceApi.saveProfile(user, new ProfileForm(null,
+                            TEE_SHIRT_SIZES[random.nextInt(TEE_SHIRT_SIZES.length)]));
+                    break;
+                case registerForConference:
+                    conferenceApi.registerForConference(user,
+                            popularConferenceKeys.get(random.nextInt(popularConferenceKeys.size())));
+                    break;
+                default:
+                    throw new AssertionError(operation);
+            }
+        } catch (ConflictException e) {
+            // already registered or sold out
+            outcome = Outcome.conflict;
+        } catch (ServiceUnavailableException e) {
+            // gave up on contention
+            outcome = Outcome.unavailable;
+        } catch (Exception e) {
+            outcome = Outcome.failed;
+            failure = e;
+        } finally {
+            session.close();
+        }
+        long micros = (System.nanoTime() - start) / 1000;
+        OperationStats operationStats = stats.get(operation);
+        if (operationStats == null) {
+            operationStats = new OperationStats();
+            stats.put(operation, operationStats);
+        }
+        operationStats.record(micros, outcome, failure);
+    }
+
+    private void printSettings() {
+        System.out.println("Settings");
+        System.out.println("  threads=" + THREADS + " operations=" + OPERATIONS + " warmupOperations="
+                + WARMUP_OPERATIONS + " users=" + USERS + " seed=" + SEED);
+        System.out.println("  popularConferences=" + POPULAR_CONFERENCES + " seats=" + SEATS
+                + " backgroundConferences=" + BACKGROUND_CONFERENCES);
+        System.out.println("  unappliedJobPercentage=" + UNAPPLIED_JOB_PERCENTAGE + " simulateProdLatencies="
+                + SIMULATE_PROD_LATENCIES);
+        System.out.println("  mix=" + weights);
+        System.out.println();
+    }
+
+    private void printOperations(final Map<Operation, OperationStats> stats, final double seconds) {
+        int total = 0;
+        System.out.println("Operations");
+        System.out.println(String.format(Locale.ROOT, "  %-22s %7s %7s %8s %11s %6s %9s %8s %8s %8s %8s",
+                "operation", "count", "ok", "conflict", "unavailable", "failed", "ops/s",
+                "p50 ms", "p90 ms", "p99 ms", "max ms"));
+        for (Map.Entry<Operation, OperationStats> entry : stats.entrySet()) {
+            OperationStats operation = entry.getValue();
+            long[] sorted = Arrays.copyOf(operation.latencyMicros, operation.count);
+            Arrays.sort(sorted);
+            total += operation.count;
+            System.out.println(String.format(Locale.ROOT,
+                    "  %-22s %7d %7d %8d %11d %6d %9.1f %8.2f %8.2f %8.2f %8.2f",
+                    entry.getKey(), operation.count, operation.outcome(Outcome.ok),
+                    operation.outcome(Outcome.conflict), operation.outcome(Outcome.unavailable),
+                    operation.outcome(Outcome.failed), operation.count / seconds,
+                    operation.percentileMillis(sorted, 50), operation.percentileMillis(sorted, 90),
+                    operation.percentileMillis(sorted, 99), operation.percentileMillis(sorted, 100)));
+            if (operation.firstFailure != null) {
+                System.out.println("    first failure: " + operation.firstFailure);
+            }
+        }
+        System.out.println(String.format(Locale.ROOT, "  total %d operations in %.2f s, %.1f ops/s",
+                total, seconds, total / seconds));
+        System.out.println();
+    }
+
+    private void printTransactions() {
+        System.out.println("Transactions");
+        for (Map.Entry<String, TransactionService.TransactionStats> entry
+                : TransactionService.getStats().entrySet()) {
+            System.out.println("  " + entry.getKey() + ": " + entry.getValue());
+        }
+        System.out.println();
+    }
+
+    /**
+     * Compares the registrations in the user profiles with the capacity and the seat shards of every popular
+     * conference. Only reads by key, so the result does not depend on the unapplied job percentage.
+     *
+     * @return true when a conference has more registrations than seats, or when its booked seats differ from
+     * its registrations.
+     */
+    private boolean printSeats() {
+        boolean inconsistent = false;
+        Closeable session = ObjectifyService.begin();
+        try {
+            List<Key<Profile>> profileKeys = new ArrayList<>(USERS);
+            for (int i = 0; i < USERS; i++) {
+                profileKeys.add(Key.create(Profile.class, user(i).getUserId()));
+            }
+            Map<Key<Profile>, Profile> profiles = ofy().load().keys(profileKeys);
+            System.out.println("Seats");
+            for (String websafeConferenceKey : popularConferenceKeys) {
+                Conference conference = ofy().load().key(Key.<Conference>create(websafeConferenceKey)).now();
+                int registered = 0;
+                for (Profile profile : profiles.values()) {
+                    if (profile.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
+                        registered++;
+                    }
+                }
+                int seatsAvailable = conference.getSeatsAvailable();
+                if (conference.getSeatShardCount() > 0) {
+                    seatsAvailable = 0;
+                    for (SeatShard shard : ofy().load().keys(
+                            SeatShard.keys(conference.getKey(), conference.getSeatShardCount())).values()) {
+                        seatsAvailable += shard.getSeatsAvailable();
+                    }
+                }
+                int booked = conference.getMaxAttendees() - seatsAvailable;
+                boolean over = registered > conference.getMaxAttendees();
+                inconsistent |= over || booked != registered;
+                System.out.println("  " + conference.getName() + ": maxAttendees=" + conference.getMaxAttendees()
+                        + " registered=" + registered + " booked=" + booked
+                        + (over ? " OVERBOOKED" : "")
+                        + (booked != registered ? " SEAT COUNT DRIFT" : ""));
+            }
+        } finally {
+            session.close();
+        }
+        return inconsistent;
+    }
+}
@@ -16,8 +16,6 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 
-import static com.google.devrel.training.conference.service.OfyService.ofy;
-
 /**
  * Created by dheninger on 2015-11-19.
  */
@@ -48,9 +46,23 @@ public class Conference {
     @Index
     private int maxAttendees;
 
+    /**
+     * Snapshot of the seats left in the SeatShards, kept indexed for queries. Zero shards means no seat
+     * has been booked yet and this field is still the authoritative count.
+     */
     @Index
     private int seatsAvailable;
 
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private int seatShardCount;
+
+    /**
+     * Copy of the organizer's display name, so listings do not load the organizer's profile. Set when the
+     * conference is created and rewritten by OrganizerNameService when the organizer renames the profile.
+     * Null for conferences saved before the name was stored.
+     */
+    private String organizerDisplayName;
+
     private Conference(){
         //stop empty objects from being created.
     }
@@ -83,6 +95,11 @@ public class Conference {
         return organizerUserId;
     }
 
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Key<Conference> getKey(){
+        return Key.create(profileKey, Conference.class, id);
+    }
+
     public String getWebsafeKey(){
         return Key.create(profileKey,Conference.class, id).getString();
     }
@@ -115,15 +132,53 @@ public class Conference {
         return seatsAvailable;
     }
 
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public int getSeatShardCount() {
+        return seatShardCount;
+    }
+
+    /**
+     * Records that the seats are now counted by the given number of SeatShards.
+     */
+    public void shardSeats(final int seatShardCount){
+        this.seatShardCount = seatShardCount;
+    }
+
+    /**
+     * Refreshes the seats available snapshot with the sum of the SeatShards.
+     */
+    public void syncSeatsAvailable(final int seatsAvailable){
+        this.seatsAvailable = seatsAvailable;
+    }
+
+    /**
+     * Returns the organizer's display name stored with the conference, falling back to the organizer's user id
+     * when no name is stored or the profile does not exist.
+     */
     public String getOrganizerDisplayName(){
-        //TODO:  Refactor this out, should not be using the datastore from within the entity!
-        Profile organizer = ofy().load().key(getProfileKey()).now();
-        if(organizer == null){
-            return organizerUserId;
-        }else{
-            return organizer.getDisplayName();
-        }
+        return organizerDisplayName == null ? organizerUserId : organizerDisplayName;
+    }
 
+    /**
+     * @return true when the organizer's display name is stored with the conference.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public boolean isOrganizerResolved(){
+        return organizerDisplayName != null;
+    }
+
+    /**
+     * Stores the display name of the organizer's profile with the conference.
+     * @param organizer the organizer's Profile, may be null when no profile has been saved yet.
+     * @return true when the stored name changed and the conference has to be saved.
+     */
+    public boolean resolveOrganizer(final Profile organizer){
+        String displayName = organizer == null ? null : organizer.getDisplayName();
+        if (displayName == null ? organizerDisplayName == null : displayName.equals(organizerDisplayName)) {
+            return false;
+        }
+        this.organizerDisplayName = displayName;
+        return true;
     }
 
     public void updateWithConferenceForm(ConferenceForm conferenceForm) {
@@ -153,22 +208,6 @@ public class Conference {
         this.seatsAvailable = this.maxAttendees - seatsAllocated;
     }
 
-    public void bookSeats(final int number){
-        if(seatsAvailable < number){
-            throw new IllegalArgumentException("There ar noe seats available.");
-
-        }
-        seatsAvailable = seatsAvailable - number;
-    }
-
-    public void giveBackSeats(final int number){
-        if(seatsAvailable + number > maxAttendees){
-            throw new IllegalArgumentException("The number of seats will exceed the capacity.");
-
-        }
-        seatsAvailable = seatsAvailable + number;
-    }
-
 
     @Override
     public String toString() {
@@ -185,6 +224,8 @@ public class Conference {
                 ", month=" + month +
                 ", maxAttendees=" + maxAttendees +
                 ", seatsAvailable=" + seatsAvailable +
+                ", seatShardCount=" + seatShardCount +
+                ", organizerDisplayName='" + organizerDisplayName + '\'' +
                 '}';
     }
 }
@@ -0,0 +1,267 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Serialize;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The number of conferences per city, month and topic, kept up to date by FacetService so the filter UI does
+ * not have to load every conference. There is a single instance.
+ *
+ * The counts are keyed by facet value, like "city:London", "month:3" or "topic:Cloud", and serialized
+ * because city and topic names may contain the dots Objectify uses for embedded maps. The entity also holds
+ * the counts of a reconciliation that is in progress, and when the batches of the reconciliations were
+ * scanned, so changes they saw already are not counted twice.
+ */
+@Entity
+@Cache
+public class ConferenceFacets {
+    public static final String CITY = "city";
+    public static final String MONTH = "month";
+    public static final String TOPIC = "topic";
+
+    private static final String ID = "all";
+
+    private static final Comparator<FacetCount> MOST_FIRST = new Comparator<FacetCount>() {
+        @Override
+        public int compare(FacetCount a, FacetCount b) {
+            return a.getCount() != b.getCount() ? Integer.compare(b.getCount(), a.getCount())
+                    : a.getValue().compareTo(b.getValue());
+        }
+    };
+
+    @Id
+    private String id = ID;
+
+    @Serialize
+    private Map<String, Integer> counts = new HashMap<>();
+
+    /**
+     * The key of the last conference of each batch of the reconciliation the counts come from, null when they
+     * were not reconciled yet.
+     */
+    private List<Key<Conference>> countsBatchEnds;
+
+    /**
+     * When each batch of countsBatchEnds was scanned, in milliseconds.
+     */
+    private List<Long> countsBatchTimes;
+
+    /**
+     * Counts of the conferences scanned so far by the reconciliation, null when none is running.
+     */
+    @Serialize
+    private Map<String, Integer> rebuildCounts;
+
+    /**
+     * The websafe cursor the next batch of the reconciliation has to start at.
+     */
+    private String rebuildCursor;
+
+    /**
+     * The key of the last conference of each batch the reconciliation has scanned so far.
+     */
+    private List<Key<Conference>> rebuildBatchEnds;
+
+    /**
+     * When each batch of rebuildBatchEnds was scanned, in milliseconds.
+     */
+    private List<Long> rebuildBatchTimes;
+
+    public ConferenceFacets() {
+    }
+
+    public static Key<ConferenceFacets> key() {
+        return Key.create(ConferenceFacets.class, ID);
+    }
+
+    /**
+     * @return the facet values of the conference: its city, its month when it has a start date and each of
+     * its topics once.
+     */
+    public static Set<String> valuesOf(final Conference conference) {
+        Set<String> values = new LinkedHashSet<>();
+        values.add(CITY + ":" + conference.getCity());
+        if (conference.getMonth() > 0) {
+            values.add(MONTH + ":" + conference.getMonth());
+        }
+        if (conference.getTopics() != null) {
+            for (String topic : conference.getTopics()) {
+                values.add(TOPIC + ":" + topic);
+            }
+        }
+        return values;
+    }
+
+    private static void add(final Map<String, Integer> counts, final Collection<String> values, final int delta) {
+        for (String value : values) {
+            Integer count = counts.get(value);
+            int updated = (count == null ? 0 : count) + delta;
+            if (updated > 0) {
+                counts.put(value, updated);
+            } else {
+                counts.remove(value);
+            }
+        }
+    }
+
+    /**
+     * @return the index of the batch whose scan covered the conference, -1 when the scan has not come to it.
+     * The scan runs in key order, so it is the first batch that ends at or after the conference.
+     */
+    private static int batchOf(final List<Key<Conference>> batchEnds, final Key<Conference> conferenceKey) {
+        if (batchEnds != null && conferenceKey != null) {
+            for (int i = 0; i < batchEnds.size(); i++) {
+                if (conferenceKey.compareTo(batchEnds.get(i)) <= 0) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return true when a change written at the given time is in the counts of the scan already, because the
+     * batch that covered the conference was scanned after the change was written.
+     */
+    private static boolean scannedAfter(final List<Key<Conference>> batchEnds, final List<Long> batchTimes,
+                                        final Key<Conference> conferenceKey, final Long writtenAt) {
+        int batch = batchOf(batchEnds, conferenceKey);
+        return batch >= 0 && writtenAt != null && writtenAt < batchTimes.get(batch);
+    }
+
+    /**
+     * Counts a change of a conference: the values of the conference before the change are taken off and the
+     * values after the change are added. While a reconciliation runs, the change is also counted into the
+     * rebuilt counts when the scan has passed the conference already. A change that a reconciliation scanned
+     * before its task ran is not counted again into the counts that reconciliation rebuilt.
+     *
+     * The times are taken from the clocks of different instances, and a change is written a little before
+     * its transaction commits, so a change that commits right as its batch is scanned can still be counted
+     * once too often or too rarely. The next reconciliation corrects it.
+     *
+     * @param conferenceKey the key of the changed conference, null when it is not known.
+     * @param writtenAt     when the change was written, in milliseconds, null when it is not known.
+     * @param removed       the facet values to count one less time.
+     * @param added         the facet values to count one more time.
+     */
+    public void change(final Key<Conference> conferenceKey, final Long writtenAt, final Collection<String> removed,
+                       final Collection<String> added) {
+        if (!scannedAfter(countsBatchEnds, countsBatchTimes, conferenceKey, writtenAt)) {
+            add(counts, removed, -1);
+            add(counts, added, 1);
+        }
+        if (rebuildCounts != null && batchOf(rebuildBatchEnds, conferenceKey) >= 0
+                && !scannedAfter(rebuildBatchEnds, rebuildBatchTimes, conferenceKey, writtenAt)) {
+            add(rebuildCounts, removed, -1);
+            add(rebuildCounts, added, 1);
+        }
+    }
+
+    /**
+     * Starts a reconciliation from empty counts, dropping the one in progress.
+     */
+    public void startRebuild() {
+        rebuildCounts = new HashMap<>();
+        rebuildCursor = null;
+        rebuildBatchEnds = new ArrayList<>();
+        rebuildBatchTimes = new ArrayList<>();
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public boolean isRebuilding() {
+        return rebuildCounts != null;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public String getRebuildCursor() {
+        return rebuildCursor;
+    }
+
+    /**
+     * Adds the facet values of one batch of scanned conferences to the reconciliation.
+     *
+     * @param values     the facet values of every conference in the batch.
+     * @param scannedTo  the key of the last conference in the batch, null when the batch was empty.
+     * @param scannedAt  when the batch was scanned, in milliseconds.
+     * @param nextCursor the websafe cursor of the next batch, null when this was the last one, which replaces
+     *                   the counts with the rebuilt ones.
+     */
+    public void rebuild(final Collection<String> values, final Key<Conference> scannedTo, final long scannedAt,
+                        final String nextCursor) {
+        add(rebuildCounts, values, 1);
+        if (scannedTo != null) {
+            if (rebuildBatchEnds == null) {
+                // started before the batches were recorded
+                rebuildBatchEnds = new ArrayList<>();
+                rebuildBatchTimes = new ArrayList<>();
+            }
+            rebuildBatchEnds.add(scannedTo);
+            rebuildBatchTimes.add(scannedAt);
+        }
+        if (nextCursor == null) {
+            counts = rebuildCounts;
+            countsBatchEnds = rebuildBatchEnds;
+            countsBatchTimes = rebuildBatchTimes;
+            rebuildCounts = null;
+            rebuildBatchEnds = null;
+            rebuildBatchTimes = null;
+        }
+        rebuildCursor = nextCursor;
+    }
+
+    private List<FacetCount> facet(final String facet) {
+        String prefix = facet + ":";
+        List<FacetCount> facetCounts = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                facetCounts.add(new FacetCount(entry.getKey().substring(prefix.length()), entry.getValue()));
+            }
+        }
+        Collections.sort(facetCounts, MOST_FIRST);
+        return facetCounts;
+    }
+
+    /**
+     * @return the number of conferences per city, most conferences first.
+     */
+    public List<FacetCount> getCities() {
+        return facet(CITY);
+    }
+
+    /**
+     * @return the number of conferences per month of the start date, most conferences first.
+     */
+    public List<FacetCount> getMonths() {
+        return facet(MONTH);
+    }
+
+    /**
+     * @return the number of conferences per topic, most conferences first.
+     */
+    public List<FacetCount> getTopics() {
+        return facet(TOPIC);
+    }
+
+    @Override
+    public String toString() {
+        return "ConferenceFacets{" +
+                "counts=" + counts +
+                ", rebuilding=" + isRebuilding() +
+                '}';
+    }
+}
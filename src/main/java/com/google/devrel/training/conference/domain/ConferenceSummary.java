@@ -0,0 +1,68 @@
+package com.google.devrel.training.conference.domain;
+
+import java.util.Date;
+
+/**
+ * The columns of a conference shown in conference lists. The full Conference is only returned by the
+ * getConference endpoint.
+ */
+public class ConferenceSummary {
+
+    private String websafeKey;
+
+    private String name;
+
+    private String city;
+
+    private Date startDate;
+
+    private String organizerDisplayName;
+
+    private int maxAttendees;
+
+    private int seatsAvailable;
+
+    private ConferenceSummary() {
+    }
+
+    /**
+     * @param conference a conference resolved for serialization, with its organizer and seats available.
+     */
+    public ConferenceSummary(final Conference conference) {
+        this.websafeKey = conference.getWebsafeKey();
+        this.name = conference.getName();
+        this.city = conference.getCity();
+        this.startDate = conference.getStartDate();
+        this.organizerDisplayName = conference.getOrganizerDisplayName();
+        this.maxAttendees = conference.getMaxAttendees();
+        this.seatsAvailable = conference.getSeatsAvailable();
+    }
+
+    public String getWebsafeKey() {
+        return websafeKey;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getCity() {
+        return city;
+    }
+
+    public Date getStartDate() {
+        return startDate;
+    }
+
+    public String getOrganizerDisplayName() {
+        return organizerDisplayName;
+    }
+
+    public int getMaxAttendees() {
+        return maxAttendees;
+    }
+
+    public int getSeatsAvailable() {
+        return seatsAvailable;
+    }
+}
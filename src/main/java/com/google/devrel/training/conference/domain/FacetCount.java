@@ -0,0 +1,27 @@
+package com.google.devrel.training.conference.domain;
+
+/**
+ * The number of conferences with one value of a facet, like the conferences in one city.
+ */
+public class FacetCount {
+
+    private String value;
+
+    private int count;
+
+    private FacetCount() {
+    }
+
+    public FacetCount(String value, int count) {
+        this.value = value;
+        this.count = count;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public int getCount() {
+        return count;
+    }
+}
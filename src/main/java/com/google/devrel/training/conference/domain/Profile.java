@@ -1,16 +1,28 @@
 package com.google.devrel.training.conference.domain;
 
+import com.google.common.collect.ImmutableList;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.googlecode.objectify.annotation.Cache;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 
+import java.util.ArrayList;
+import java.util.List;
 
+
+/**
+ * Profiles are read for every conference organizer that is displayed, so Objectify keeps them in memcache.
+ */
 @Entity
+@Cache
 public class Profile {
 	String displayName;
 	String mainEmail;
 	TeeShirtSize teeShirtSize;
-
+	/**
+	 * Websafe keys of the conferences the user has registered for.
+	 */
+	List<String> conferenceKeysToAttend = new ArrayList<>();
 
 	@Id String userId;
     
@@ -45,19 +57,50 @@ public class Profile {
 		return userId;
 	}
 
+	public List<String> getConferenceKeysToAttend() {
+		return conferenceKeysToAttend == null ? ImmutableList.<String>of() : ImmutableList.copyOf(conferenceKeysToAttend);
+	}
+
+	public void addToConferenceKeysToAttend(String conferenceKey) {
+		if (conferenceKeysToAttend == null) {
+			conferenceKeysToAttend = new ArrayList<>();
+		}
+		conferenceKeysToAttend.add(conferenceKey);
+	}
+
+	/**
+	 * Removes the conference from the ones the user has registered for.
+	 * @param conferenceKey websafe key of the conference.
+	 * @throws IllegalArgumentException when the user is not registered for the conference.
+	 */
+	public void unregisterFromConference(String conferenceKey) {
+		if (conferenceKeysToAttend == null || !conferenceKeysToAttend.remove(conferenceKey)) {
+			throw new IllegalArgumentException("Invalid conferenceKey: " + conferenceKey);
+		}
+	}
+
 	/**
      * Just making the default constructor private.
      */
     private Profile() {}
 
-	public void update(String displayName, TeeShirtSize teeShirtSize){
-        if(displayName!=null){
+	/**
+	 * Applies the given values, null values are left unchanged.
+	 *
+	 * @return true when a value changed and the profile has to be saved.
+	 */
+	public boolean update(String displayName, TeeShirtSize teeShirtSize){
+        boolean changed = false;
+        if(displayName!=null && !displayName.equals(this.displayName)){
             this.displayName = displayName;
+            changed = true;
         }
 
-        if(teeShirtSize!=null){
+        if(teeShirtSize!=null && teeShirtSize != this.teeShirtSize){
             this.teeShirtSize = teeShirtSize;
+            changed = true;
         }
+        return changed;
     }
 
 }
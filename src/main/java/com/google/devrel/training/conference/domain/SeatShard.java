@@ -0,0 +1,108 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One slice of the seat capacity of a Conference.
+ *
+ * The shards belong to a conference through their id, but they are root entities on purpose: a Conference
+ * lives in its organizer's entity group, so shards parented to it would share that group's write limit.
+ */
+@Entity
+public class SeatShard {
+    @Id
+    private String id;
+    private Key<Conference> conferenceKey;
+    private int maxSeats;
+    private int seatsAvailable;
+
+    private SeatShard() {
+        //stop empty objects from being created.
+    }
+
+    private SeatShard(final Key<Conference> conferenceKey, final int index, final int maxSeats,
+                      final int seatsAvailable) {
+        this.id = shardId(conferenceKey, index);
+        this.conferenceKey = conferenceKey;
+        this.maxSeats = maxSeats;
+        this.seatsAvailable = seatsAvailable;
+    }
+
+    private static String shardId(final Key<Conference> conferenceKey, final int index) {
+        return conferenceKey.getString() + ":" + index;
+    }
+
+    /**
+     * @return the keys of the shards of the conference.
+     */
+    public static List<Key<SeatShard>> keys(final Key<Conference> conferenceKey, final int shardCount) {
+        List<Key<SeatShard>> keys = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            keys.add(Key.create(SeatShard.class, shardId(conferenceKey, i)));
+        }
+        return keys;
+    }
+
+    /**
+     * Splits the capacity of a conference evenly over the shards, the allocated seats are taken from the first
+     * shards.
+     *
+     * @param conferenceKey  the conference the seats belong to.
+     * @param shardCount     the number of shards to create.
+     * @param maxAttendees   the capacity of the conference.
+     * @param seatsAvailable the seats that are still available.
+     * @return the new shards, not saved yet.
+     */
+    public static List<SeatShard> split(final Key<Conference> conferenceKey, final int shardCount,
+                                        final int maxAttendees, final int seatsAvailable) {
+        List<SeatShard> shards = new ArrayList<>(shardCount);
+        int allocated = maxAttendees - seatsAvailable;
+        for (int i = 0; i < shardCount; i++) {
+            int maxSeats = maxAttendees / shardCount + (i < maxAttendees % shardCount ? 1 : 0);
+            int shardAllocated = Math.min(allocated, maxSeats);
+            allocated -= shardAllocated;
+            shards.add(new SeatShard(conferenceKey, i, maxSeats, maxSeats - shardAllocated));
+        }
+        return shards;
+    }
+
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    public int getMaxSeats() {
+        return maxSeats;
+    }
+
+    public int getSeatsAvailable() {
+        return seatsAvailable;
+    }
+
+    public void bookSeats(final int number) {
+        if (seatsAvailable < number) {
+            throw new IllegalArgumentException("There are no seats available.");
+        }
+        seatsAvailable = seatsAvailable - number;
+    }
+
+    public void giveBackSeats(final int number) {
+        if (seatsAvailable + number > maxSeats) {
+            throw new IllegalArgumentException("The number of seats will exceed the capacity.");
+        }
+        seatsAvailable = seatsAvailable + number;
+    }
+
+    @Override
+    public String toString() {
+        return "SeatShard{" +
+                "id='" + id + '\'' +
+                ", maxSeats=" + maxSeats +
+                ", seatsAvailable=" + seatsAvailable +
+                '}';
+    }
+}
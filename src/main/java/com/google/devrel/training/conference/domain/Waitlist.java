@@ -0,0 +1,99 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+/**
+ * The waitlist of a sold out Conference: hands out tickets in the order users join and remembers up to which
+ * ticket the waiting users have been promoted. The users themselves are WaitlistEntry children, so the
+ * waiting order is the order of the tickets. A user who leaves and joins again gets a new ticket in place of
+ * the old one, which leaves a gap in the tickets that the promotion steps over.
+ *
+ * Like the SeatShards the waitlist is a root entity, so joining it does not write the organizer's entity
+ * group. Every join writes the waitlist itself though, so joins to one conference's waitlist are limited
+ * to the write rate of a single entity group.
+ */
+@Entity
+public class Waitlist {
+    @Id
+    private String id;
+    private Key<Conference> conferenceKey;
+
+    /**
+     * The number of tickets handed out, the last ticket.
+     */
+    private long size;
+
+    /**
+     * The last ticket that has left the waitlist, by getting a seat or by being skipped.
+     */
+    private long promoted;
+
+    private Waitlist() {
+        //stop empty objects from being created.
+    }
+
+    public Waitlist(final Key<Conference> conferenceKey) {
+        this.id = conferenceKey.getString();
+        this.conferenceKey = conferenceKey;
+    }
+
+    /**
+     * @return the key of the waitlist of the conference.
+     */
+    public static Key<Waitlist> key(final Key<Conference> conferenceKey) {
+        return Key.create(Waitlist.class, conferenceKey.getString());
+    }
+
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getPromoted() {
+        return promoted;
+    }
+
+    /**
+     * @return the number of users still waiting.
+     */
+    public long getWaiting() {
+        return size - promoted;
+    }
+
+    /**
+     * Hands out the next ticket.
+     *
+     * @return the ticket of the user who joins.
+     */
+    public long append() {
+        return ++size;
+    }
+
+    /**
+     * Records that the users up to the given ticket have left the waitlist. Tickets in between belong to
+     * users who have joined again with a later ticket.
+     *
+     * @throws IllegalArgumentException when the ticket has already been promoted.
+     */
+    public void promote(final long ticket) {
+        if (ticket <= promoted) {
+            throw new IllegalArgumentException("Ticket " + ticket + " has already been promoted, " + promoted
+                    + " promoted.");
+        }
+        promoted = ticket;
+    }
+
+    @Override
+    public String toString() {
+        return "Waitlist{" +
+                "id='" + id + '\'' +
+                ", size=" + size +
+                ", promoted=" + promoted +
+                '}';
+    }
+}
@@ -0,0 +1,70 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+/**
+ * A user's place on the Waitlist of a conference. Objectify keeps the entries in memcache, so reading a user's
+ * ticket does not cost a datastore read. An entry is consumed when its user registers for or unregisters from
+ * the conference directly, or leaves the waitlist, and the promotion passes over it.
+ */
+@Entity
+@Cache
+public class WaitlistEntry {
+    @Parent
+    private Key<Waitlist> waitlistKey;
+    @Id
+    private String userId;
+    @Index
+    private long ticket;
+    private boolean consumed;
+
+    private WaitlistEntry() {
+        //stop empty objects from being created.
+    }
+
+    public WaitlistEntry(final Key<Waitlist> waitlistKey, final String userId, final long ticket) {
+        this.waitlistKey = waitlistKey;
+        this.userId = userId;
+        this.ticket = ticket;
+    }
+
+    /**
+     * @return the key of the user's entry on the waitlist.
+     */
+    public static Key<WaitlistEntry> key(final Key<Waitlist> waitlistKey, final String userId) {
+        return Key.create(waitlistKey, WaitlistEntry.class, userId);
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public long getTicket() {
+        return ticket;
+    }
+
+    public boolean isConsumed() {
+        return consumed;
+    }
+
+    /**
+     * Takes the entry's user off the waitlist without a promotion.
+     */
+    public void consume() {
+        this.consumed = true;
+    }
+
+    @Override
+    public String toString() {
+        return "WaitlistEntry{" +
+                "userId='" + userId + '\'' +
+                ", ticket=" + ticket +
+                ", consumed=" + consumed +
+                '}';
+    }
+}
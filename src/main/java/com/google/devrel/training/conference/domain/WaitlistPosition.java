@@ -0,0 +1,40 @@
+package com.google.devrel.training.conference.domain;
+
+/**
+ * Where a user is on the waitlist of a conference.
+ */
+public class WaitlistPosition {
+
+    private long ticket;
+
+    private long position;
+
+    private long waiting;
+
+    private WaitlistPosition() {
+    }
+
+    public WaitlistPosition(long ticket, long position, long waiting) {
+        this.ticket = ticket;
+        this.position = position;
+        this.waiting = waiting;
+    }
+
+    public long getTicket() {
+        return ticket;
+    }
+
+    /**
+     * @return 1 for the next user to get a seat, 0 when the user has left the waitlist.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the number of users waiting.
+     */
+    public long getWaiting() {
+        return waiting;
+    }
+}
@@ -0,0 +1,318 @@
+package com.google.devrel.training.conference.form;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.devrel.training.conference.domain.Conference;
+import com.googlecode.objectify.cmd.Query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * Pojo representing the filters the client sends with queryConferences.
+ *
+ * The datastore allows inequality filters on a single property only, and that property has to be the first
+ * sort order. {@link #buildQuery()} therefore pushes at most one equality filter and the range filters of one
+ * inequality property into the datastore query, so every query it builds is served by an index listed in
+ * datastore-indexes.xml. Everything else is evaluated by {@link #buildResidualFilter()} over the streamed
+ * results.
+ */
+public class QueryForm {
+
+    public static enum FieldType {
+        STRING, INTEGER
+    }
+
+    /**
+     * The filterable fields, these are the indexed properties of Conference. The declaration order is the
+     * order in which the fields are preferred when choosing the filters the datastore applies.
+     */
+    public static enum Field {
+        CITY("city", FieldType.STRING),
+        TOPIC("topics", FieldType.STRING),
+        MONTH("month", FieldType.INTEGER),
+        MAX_ATTENDEES("maxAttendees", FieldType.INTEGER),
+        SEATS_AVAILABLE("seatsAvailable", FieldType.INTEGER);
+
+        private final String fieldName;
+        private final FieldType fieldType;
+
+        private Field(String fieldName, FieldType fieldType) {
+            this.fieldName = fieldName;
+            this.fieldType = fieldType;
+        }
+
+        public String getFieldName() {
+            return fieldName;
+        }
+
+        public FieldType getFieldType() {
+            return fieldType;
+        }
+
+        /**
+         * @return the values the datastore would index for this field of the conference.
+         */
+        private List<?> indexedValues(Conference conference) {
+            switch (this) {
+                case CITY:
+                    return Collections.singletonList(conference.getCity());
+                case TOPIC:
+                    return conference.getTopics() == null
+                            ? Collections.emptyList() : conference.getTopics();
+                case MONTH:
+                    return Collections.singletonList(conference.getMonth());
+                case MAX_ATTENDEES:
+                    return Collections.singletonList(conference.getMaxAttendees());
+                default:
+                    return Collections.singletonList(conference.getSeatsAvailable());
+            }
+        }
+    }
+
+    public static enum Operator {
+        EQ("="),
+        LT("<"),
+        GT(">"),
+        LTEQ("<="),
+        GTEQ(">="),
+        NE("!=");
+
+        private final String queryOperator;
+
+        private Operator(String queryOperator) {
+            this.queryOperator = queryOperator;
+        }
+
+        public String getQueryOperator() {
+            return queryOperator;
+        }
+
+        /**
+         * NE is an inequality as well, but the datastore runs it as two merged queries that cannot be resumed
+         * from a cursor, so it is always evaluated in memory.
+         */
+        private boolean isRange() {
+            return this == LT || this == GT || this == LTEQ || this == GTEQ;
+        }
+
+        private boolean matches(int comparison) {
+            switch (this) {
+                case EQ:
+                    return comparison == 0;
+                case LT:
+                    return comparison < 0;
+                case GT:
+                    return comparison > 0;
+                case LTEQ:
+                    return comparison <= 0;
+                case GTEQ:
+                    return comparison >= 0;
+                default:
+                    return comparison != 0;
+            }
+        }
+    }
+
+    /**
+     * A single filter sent by the client, e.g. {field: "MONTH", operator: "GT", value: "3"}.
+     */
+    public static class Filter {
+        private Field field;
+        private Operator operator;
+        private String value;
+
+        private Filter() {
+        }
+
+        public Filter(Field field, Operator operator, String value) {
+            this.field = field;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        public Field getField() {
+            return field;
+        }
+
+        public Operator getOperator() {
+            return operator;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * @return the value converted to the type of the field.
+         * @throws IllegalArgumentException when the value does not match the field type.
+         */
+        private Object typedValue() {
+            if (field.getFieldType() == FieldType.INTEGER) {
+                try {
+                    return Integer.valueOf(value.trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(field + " needs a number, but was '" + value + "'");
+                }
+            }
+            return value;
+        }
+
+        @SuppressWarnings("unchecked")
+        private boolean matches(Conference conference) {
+            Comparable<Object> expected = (Comparable<Object>) typedValue();
+            for (Object actual : field.indexedValues(conference)) {
+                if (actual != null && operator.matches(((Comparable<Object>) actual).compareTo(expected))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return field + " " + operator + " " + value;
+        }
+    }
+
+    private List<Filter> filters = new ArrayList<>();
+
+    /**
+     * Filters pushed into the datastore query, computed by {@link #plan()}.
+     */
+    private List<Filter> datastoreFilters;
+    /**
+     * The property the datastore applies the inequality filters to, null if there is none.
+     */
+    private Field inequalityField;
+    /**
+     * Filters evaluated in memory, computed by {@link #plan()}.
+     */
+    private List<Filter> residualFilters;
+
+    public QueryForm() {
+    }
+
+    public List<Filter> getFilters() {
+        return filters == null ? Collections.<Filter>emptyList() : filters;
+    }
+
+    public QueryForm filter(Filter filter) {
+        filters.add(filter);
+        datastoreFilters = null;
+        return this;
+    }
+
+    /**
+     * Splits the filters into the ones the datastore applies and the residual ones.
+     *
+     * The inequality property is the one with the most range filters, so a bounded range like
+     * month &gt; 3 and month &lt; 7 is preferred over a one sided one, ties go to the earlier Field. Of the
+     * equality filters on the other fields only the first one is pushed, keeping the needed composite indexes
+     * to (equality field, inequality field, name).
+     *
+     * @throws IllegalArgumentException when a filter is incomplete or its value does not match the field type.
+     */
+    private void plan() {
+        if (datastoreFilters != null) {
+            return;
+        }
+        Map<Field, Integer> rangeCounts = new EnumMap<>(Field.class);
+        for (Filter filter : getFilters()) {
+            if (filter == null || filter.field == null || filter.operator == null || filter.value == null) {
+                throw new IllegalArgumentException("Incomplete filter: " + filter);
+            }
+            filter.typedValue();
+            if (filter.operator.isRange()) {
+                Integer count = rangeCounts.get(filter.field);
+                rangeCounts.put(filter.field, count == null ? 1 : count + 1);
+            }
+        }
+        Field inequality = null;
+        for (Map.Entry<Field, Integer> rangeCount : rangeCounts.entrySet()) {
+            if (inequality == null || rangeCount.getValue() > rangeCounts.get(inequality)) {
+                inequality = rangeCount.getKey();
+            }
+        }
+
+        List<Filter> pushed = new ArrayList<>();
+        List<Filter> residual = new ArrayList<>();
+        Filter equality = null;
+        for (Field field : Field.values()) {
+            for (Filter filter : getFilters()) {
+                if (filter.field != field) {
+                    continue;
+                }
+                if (field == inequality && filter.operator.isRange()) {
+                    pushed.add(filter);
+                } else if (equality == null && field != inequality && filter.operator == Operator.EQ) {
+                    equality = filter;
+                    pushed.add(filter);
+                } else {
+                    residual.add(filter);
+                }
+            }
+        }
+        this.inequalityField = inequality;
+        this.residualFilters = residual;
+        this.datastoreFilters = pushed;
+    }
+
+    /**
+     * Builds the datastore part of the query, ordered by the inequality property (when there is one) and
+     * then by name.
+     *
+     * @return the Objectify query for the filters the datastore can apply.
+     * @throws IllegalArgumentException when a filter is incomplete or its value does not match the field type.
+     */
+    public Query<Conference> buildQuery() {
+        plan();
+        Query<Conference> query = ofy().load().type(Conference.class);
+        for (Filter filter : datastoreFilters) {
+            query = query.filter(filter.field.getFieldName() + " " + filter.operator.getQueryOperator(),
+                    filter.typedValue());
+        }
+        if (inequalityField != null) {
+            query = query.order(inequalityField.getFieldName());
+        }
+        return query.order("name");
+    }
+
+    /**
+     * @return true when some filters have to be evaluated in memory over the results of {@link #buildQuery()}.
+     */
+    public boolean hasResidualFilter() {
+        plan();
+        return !residualFilters.isEmpty();
+    }
+
+    /**
+     * Builds the predicate for the filters the datastore does not apply.
+     *
+     * @return a predicate that accepts the conferences matching all residual filters.
+     * @throws IllegalArgumentException when a filter is incomplete or its value does not match the field type.
+     */
+    public Predicate<Conference> buildResidualFilter() {
+        plan();
+        if (residualFilters.isEmpty()) {
+            return Predicates.alwaysTrue();
+        }
+        final List<Filter> residual = new ArrayList<>(residualFilters);
+        return new Predicate<Conference>() {
+            @Override
+            public boolean apply(Conference conference) {
+                for (Filter filter : residual) {
+                    if (!filter.matches(conference)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+}
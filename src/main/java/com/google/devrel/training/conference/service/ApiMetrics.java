@@ -0,0 +1,154 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per API method counters of this instance since it started: a latency histogram, errors and the datastore
+ * and memcache calls the requests made. Recorded by the MetricsFilter and shown by the MetricsServlet.
+ */
+public class ApiMetrics {
+
+    /**
+     * Upper bounds of the latency histogram buckets, the last bucket takes everything above.
+     */
+    public static final long[] BUCKET_MILLIS = {5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    /**
+     * Requests that take at least this long are logged, from the metrics.slowRequestMillis system property.
+     */
+    public static final long SLOW_REQUEST_MILLIS = Long.getLong("metrics.slowRequestMillis", 1000);
+
+    private static final ConcurrentMap<String, MethodMetrics> METRICS = new ConcurrentHashMap<>();
+
+    private ApiMetrics() {
+    }
+
+    /**
+     * Counters of one API method.
+     */
+    public static class MethodMetrics {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_MILLIS.length + 1);
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong clientErrors = new AtomicLong();
+        private final AtomicLong totalMillis = new AtomicLong();
+        private final AtomicLong datastoreGets = new AtomicLong();
+        private final AtomicLong datastorePuts = new AtomicLong();
+        private final AtomicLong datastoreQueries = new AtomicLong();
+        private final AtomicLong datastoreRpcs = new AtomicLong();
+        private final AtomicLong memcacheRpcs = new AtomicLong();
+
+        /**
+         * @return the requests in each latency bucket, see {@link #BUCKET_MILLIS}.
+         */
+        public long[] getBuckets() {
+            long[] counts = new long[buckets.length()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets.get(i);
+            }
+            return counts;
+        }
+
+        public long getRequests() {
+            return requests.get();
+        }
+
+        /**
+         * @return the requests that failed with a server error.
+         */
+        public long getErrors() {
+            return errors.get();
+        }
+
+        /**
+         * @return the requests that were answered with a 4xx status.
+         */
+        public long getClientErrors() {
+            return clientErrors.get();
+        }
+
+        public long getTotalMillis() {
+            return totalMillis.get();
+        }
+
+        public long getDatastoreGets() {
+            return datastoreGets.get();
+        }
+
+        public long getDatastorePuts() {
+            return datastorePuts.get();
+        }
+
+        public long getDatastoreQueries() {
+            return datastoreQueries.get();
+        }
+
+        public long getDatastoreRpcs() {
+            return datastoreRpcs.get();
+        }
+
+        public long getMemcacheRpcs() {
+            return memcacheRpcs.get();
+        }
+    }
+
+    private static MethodMetrics metricsFor(final String method) {
+        MethodMetrics metrics = METRICS.get(method);
+        if (metrics == null) {
+            METRICS.putIfAbsent(method, new MethodMetrics());
+            metrics = METRICS.get(method);
+        }
+        return metrics;
+    }
+
+    /**
+     * Records one request.
+     *
+     * @param method the API method.
+     * @param millis how long the request took.
+     * @param status the HTTP status of the response.
+     * @param counts the calls the request made, null when they were not counted.
+     */
+    public static void record(final String method, final long millis, final int status,
+                              final RpcCounter.Counts counts) {
+        MethodMetrics metrics = metricsFor(method);
+        int bucket = 0;
+        while (bucket < BUCKET_MILLIS.length && millis > BUCKET_MILLIS[bucket]) {
+            bucket++;
+        }
+        metrics.buckets.incrementAndGet(bucket);
+        metrics.requests.incrementAndGet();
+        metrics.totalMillis.addAndGet(millis);
+        if (status >= 500) {
+            metrics.errors.incrementAndGet();
+        } else if (status >= 400) {
+            metrics.clientErrors.incrementAndGet();
+        }
+        if (counts != null) {
+            metrics.datastoreGets.addAndGet(counts.getDatastoreGets());
+            metrics.datastorePuts.addAndGet(counts.getDatastorePuts());
+            metrics.datastoreQueries.addAndGet(counts.getDatastoreQueries());
+            metrics.datastoreRpcs.addAndGet(counts.getDatastoreRpcs());
+            metrics.memcacheRpcs.addAndGet(counts.getMemcacheRpcs());
+        }
+    }
+
+    /**
+     * @return the counters by API method.
+     */
+    public static Map<String, MethodMetrics> getMetrics() {
+        return new TreeMap<>(METRICS);
+    }
+
+    /**
+     * Forgets all counters, for tests.
+     */
+    public static void resetMetrics() {
+        METRICS.clear();
+    }
+}
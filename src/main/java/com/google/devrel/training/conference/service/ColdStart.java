@@ -0,0 +1,84 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Durations of the phases an instance goes through before it serves its first API call, so a slow cold
+ * start can be broken down: the servlet initialization including the Endpoints config discovery, each step
+ * of the warmup request, and the first API call itself. Recorded once per instance and shown by the
+ * MetricsServlet.
+ */
+public class ColdStart {
+    private static final Logger LOG = Logger.getLogger(ColdStart.class.getName());
+
+    private static final Map<String, Long> PHASES = new LinkedHashMap<>();
+
+    private static long contextStarted;
+
+    private static boolean firstRequestDone;
+
+    private ColdStart() {
+    }
+
+    /**
+     * Marks the start of the servlet context, the phases are measured from here.
+     */
+    public static synchronized void contextStarted() {
+        contextStarted = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the milliseconds since the servlet context started, or 0 when that was not recorded.
+     */
+    public static synchronized long sinceContextStarted() {
+        return contextStarted == 0 ? 0 : System.currentTimeMillis() - contextStarted;
+    }
+
+    /**
+     * Records a phase, the first recording of a phase wins.
+     *
+     * @param phase  the name of the phase.
+     * @param millis how long the phase took.
+     */
+    public static synchronized void record(final String phase, final long millis) {
+        if (!PHASES.containsKey(phase)) {
+            PHASES.put(phase, millis);
+            LOG.info("cold_start phase=" + phase + " latency_ms=" + millis);
+        }
+    }
+
+    /**
+     * Records the first API call of the instance, later calls are ignored.
+     *
+     * @param method the API method.
+     * @param millis how long the call took.
+     */
+    public static void firstRequest(final String method, final long millis) {
+        synchronized (ColdStart.class) {
+            if (firstRequestDone) {
+                return;
+            }
+            firstRequestDone = true;
+        }
+        record("first_request", millis);
+        LOG.info("cold_start first_request method=" + method + " since_context_ms=" + sinceContextStarted());
+    }
+
+    /**
+     * @return the phases recorded so far, in the order they were recorded.
+     */
+    public static synchronized Map<String, Long> getPhases() {
+        return new LinkedHashMap<>(PHASES);
+    }
+
+    /**
+     * Forgets the recorded phases, for tests.
+     */
+    public static synchronized void reset() {
+        PHASES.clear();
+        contextStarted = 0;
+        firstRequestDone = false;
+    }
+}
@@ -0,0 +1,265 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.devrel.training.conference.domain.Conference;
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * Read-through cache for Conference lookups by key, with a small in-process LRU in front of memcache.
+ *
+ * The in-process tier holds conferences that are ready to be serialized, including their seat count, for at
+ * most {@link #MAX_STALENESS_MILLIS}, which is the bound on how old a seat count a reader can see. The
+ * memcache tier holds the Conference entities under versioned keys: every write increments the conference's
+ * version, so a reader that loaded an older entity can only fill a key nobody reads anymore. When memcache
+ * has lost a version, readers go to the datastore without filling anything and seed a new version from the
+ * clock, far past the versions handed out before, so entities cached under the old ones are never read.
+ */
+public class ConferenceCache {
+
+    /**
+     * How long a conference is served from the in-process tier, from the conference.cache.maxStalenessSeconds
+     * system property.
+     */
+    public static final long MAX_STALENESS_MILLIS =
+            Long.getLong("conference.cache.maxStalenessSeconds", 5) * 1000;
+
+    /**
+     * Number of conferences the in-process tier holds.
+     */
+    public static final int LOCAL_CAPACITY = Integer.getInteger("conference.cache.localCapacity", 1000);
+
+    private static final int MEMCACHE_EXPIRATION_SECONDS = 60 * 60;
+
+    private static final String VERSION_PREFIX = "CONFERENCE_VERSION_";
+
+    private static final String ENTITY_PREFIX = "CONFERENCE_";
+
+    private static final Map<String, LocalEntry> LOCAL = new LinkedHashMap<String, LocalEntry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LocalEntry> eldest) {
+            return size() > LOCAL_CAPACITY;
+        }
+    };
+
+    private ConferenceCache() {
+    }
+
+    private static class LocalEntry {
+        private final Conference conference;
+        private final long expiresAt;
+
+        private LocalEntry(Conference conference, long expiresAt) {
+            this.conference = conference;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static MemcacheService memcache() {
+        return MemcacheServiceFactory.getMemcacheService();
+    }
+
+    private static String versionKey(final String websafeKey) {
+        return VERSION_PREFIX + websafeKey;
+    }
+
+    private static String entityKey(final String websafeKey, final long version) {
+        return ENTITY_PREFIX + websafeKey + "_v" + version;
+    }
+
+    /**
+     * Seeds the versions memcache has lost. A concurrent reader may have seeded one first, which is kept.
+     */
+    private static void seedVersions(final Collection<String> versionKeys) {
+        Map<String, Object> versions = new HashMap<>();
+        Long version = System.currentTimeMillis();
+        for (String versionKey : versionKeys) {
+            versions.put(versionKey, version);
+        }
+        memcache().putAll(versions, null, SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+    }
+
+    /**
+     * Returns a conference that has been resolved for serialization and is still fresh enough. The returned
+     * conference is shared between requests and must not be modified.
+     *
+     * @param websafeKey the websafe key of the conference.
+     * @return the conference, or null when the in-process tier does not have a fresh one.
+     */
+    public static Conference getResolved(final String websafeKey) {
+        synchronized (LOCAL) {
+            LocalEntry entry = LOCAL.get(websafeKey);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt < System.currentTimeMillis()) {
+                LOCAL.remove(websafeKey);
+                return null;
+            }
+            return entry.conference;
+        }
+    }
+
+    /**
+     * Keeps a conference that has been resolved for serialization in the in-process tier.
+     */
+    public static void putResolved(final Conference conference) {
+        synchronized (LOCAL) {
+            LOCAL.put(conference.getWebsafeKey(),
+                    new LocalEntry(conference, System.currentTimeMillis() + MAX_STALENESS_MILLIS));
+        }
+    }
+
+    /**
+     * Loads a conference through the memcache tier.
+     *
+     * @param conferenceKey the key of the conference.
+     * @return the conference, or null when it does not exist.
+     */
+    public static Conference load(final Key<Conference> conferenceKey) {
+        String websafeKey = conferenceKey.getString();
+        Object version = memcache().get(versionKey(websafeKey));
+        if (version == null) {
+            Conference conference = ofy().load().key(conferenceKey).now();
+            seedVersions(Collections.singletonList(versionKey(websafeKey)));
+            return conference;
+        }
+        String entityKey = entityKey(websafeKey, ((Number) version).longValue());
+        Entity entity = (Entity) memcache().get(entityKey);
+        if (entity != null) {
+            return ofy().load().fromEntity(entity);
+        }
+        Conference conference = ofy().load().key(conferenceKey).now();
+        if (conference != null) {
+            memcache().put(entityKey, ofy().save().toEntity(conference),
+                    Expiration.byDeltaSeconds(MEMCACHE_EXPIRATION_SECONDS), SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+        }
+        return conference;
+    }
+
+    /**
+     * Loads conferences through the memcache tier with two batched memcache calls and, for the misses, one
+     * batched datastore get.
+     *
+     * @param conferenceKeys the keys of the conferences.
+     * @return the conferences that exist, by key.
+     */
+    public static Map<Key<Conference>, Conference> loadAll(final Collection<Key<Conference>> conferenceKeys) {
+        Map<Key<Conference>, Conference> conferences = new HashMap<>();
+        if (conferenceKeys.isEmpty()) {
+            return conferences;
+        }
+        Map<String, Key<Conference>> byVersionKey = new HashMap<>();
+        for (Key<Conference> conferenceKey : conferenceKeys) {
+            byVersionKey.put(versionKey(conferenceKey.getString()), conferenceKey);
+        }
+        Map<String, Object> versions = memcache().getAll(byVersionKey.keySet());
+        Map<String, Key<Conference>> byEntityKey = new HashMap<>();
+        // the misses by the entity key to fill, null for the conferences whose version memcache has lost
+        Map<Key<Conference>, String> misses = new HashMap<>();
+        List<String> lostVersions = new ArrayList<>();
+        for (Map.Entry<String, Key<Conference>> entry : byVersionKey.entrySet()) {
+            Object version = versions.get(entry.getKey());
+            if (version == null) {
+                misses.put(entry.getValue(), null);
+                lostVersions.add(entry.getKey());
+            } else {
+                byEntityKey.put(entityKey(entry.getValue().getString(), ((Number) version).longValue()),
+                        entry.getValue());
+            }
+        }
+        Map<String, Object> entities = byEntityKey.isEmpty()
+                ? Collections.<String, Object>emptyMap() : memcache().getAll(byEntityKey.keySet());
+        for (Map.Entry<String, Key<Conference>> entry : byEntityKey.entrySet()) {
+            Entity entity = (Entity) entities.get(entry.getKey());
+            if (entity != null) {
+                conferences.put(entry.getValue(), ofy().load().<Conference>fromEntity(entity));
+            } else {
+                misses.put(entry.getValue(), entry.getKey());
+            }
+        }
+        if (!misses.isEmpty()) {
+            Map<String, Entity> fill = new HashMap<>();
+            for (Map.Entry<Key<Conference>, Conference> loaded : ofy().load().keys(misses.keySet()).entrySet()) {
+                conferences.put(loaded.getKey(), loaded.getValue());
+                String entityKey = misses.get(loaded.getKey());
+                if (entityKey != null) {
+                    fill.put(entityKey, ofy().save().toEntity(loaded.getValue()));
+                }
+            }
+            if (!fill.isEmpty()) {
+                memcache().putAll(fill, Expiration.byDeltaSeconds(MEMCACHE_EXPIRATION_SECONDS),
+                        SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+            }
+        }
+        if (!lostVersions.isEmpty()) {
+            seedVersions(lostVersions);
+        }
+        return conferences;
+    }
+
+    /**
+     * Records that the conference has been written: moves it to a new version holding the written entity and
+     * drops it from the in-process tier. A version memcache has lost is left to the next reader to seed.
+     *
+     * @param conference the conference as it has been saved.
+     */
+    public static void written(final Conference conference) {
+        String websafeKey = conference.getWebsafeKey();
+        removeLocal(websafeKey);
+        Long version = memcache().increment(versionKey(websafeKey), 1);
+        if (version != null) {
+            memcache().put(entityKey(websafeKey, version), ofy().save().toEntity(conference),
+                    Expiration.byDeltaSeconds(MEMCACHE_EXPIRATION_SECONDS));
+        }
+    }
+
+    /**
+     * Records that the conference has been written without having the saved entity at hand.
+     *
+     * @param conferenceKey the key of the conference.
+     */
+    public static void invalidate(final Key<Conference> conferenceKey) {
+        String websafeKey = conferenceKey.getString();
+        removeLocal(websafeKey);
+        memcache().increment(versionKey(websafeKey), 1);
+    }
+
+    /**
+     * Drops the conference from the in-process tier, for writes that do not change the Conference entity,
+     * like seat bookings. Other instances see them after at most {@link #MAX_STALENESS_MILLIS}.
+     *
+     * @param websafeKey the websafe key of the conference.
+     */
+    public static void evictLocal(final String websafeKey) {
+        removeLocal(websafeKey);
+    }
+
+    private static void removeLocal(final String websafeKey) {
+        synchronized (LOCAL) {
+            LOCAL.remove(websafeKey);
+        }
+    }
+
+    /**
+     * Empties the in-process tier, for tests.
+     */
+    public static void clearLocal() {
+        synchronized (LOCAL) {
+            LOCAL.clear();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.KeyRange;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.googlecode.objectify.Key;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * Per-instance pool of Conference ids, so creating a conference does not wait for an allocateIds call. The
+ * pool reserves blocks of {@link #BLOCK_SIZE} ids and starts reserving the next block asynchronously when
+ * {@link #LOW_WATER_MARK} ids are left, so the call has usually completed by the time the block runs out.
+ * Handing out an id is one atomic increment; only the request that finds the block empty installs the next
+ * one.
+ *
+ * Conferences live in their organizer's entity group and ids used to be allocated under the organizer's
+ * profile. Those per-organizer sequences are separate from the root sequence the pool reserves from, so the
+ * pool sets {@link #POOL_ID_BIT} on its ids: a sequence would need 2^62 allocations to reach that range and
+ * the datastore's own scattered ids stay below 2^53, so a pooled id never meets the id of an existing
+ * conference of the same organizer. Ids of a block that an instance does not use up are lost, which only
+ * leaves gaps.
+ */
+public class ConferenceIdPool {
+    private static final Logger LOG = Logger.getLogger(ConferenceIdPool.class.getName());
+
+    /**
+     * Number of ids reserved per allocateIds call, from the conference.idPool.blockSize system property.
+     */
+    public static final int BLOCK_SIZE = Integer.getInteger("conference.idPool.blockSize", 100);
+
+    /**
+     * Number of ids left in the block when the next block is reserved, from the
+     * conference.idPool.lowWaterMark system property.
+     */
+    public static final int LOW_WATER_MARK = Integer.getInteger("conference.idPool.lowWaterMark", BLOCK_SIZE / 5);
+
+    static final long POOL_ID_BIT = 1L << 62;
+
+    private static final String KIND = Key.getKind(Conference.class);
+
+    private static final ConferenceIdPool INSTANCE = new ConferenceIdPool(BLOCK_SIZE, LOW_WATER_MARK);
+
+    private final int blockSize;
+
+    private final int lowWaterMark;
+
+    private final AtomicReference<Block> current = new AtomicReference<>(new Block(0, 0));
+
+    private final AtomicReference<Future<KeyRange>> refill = new AtomicReference<>();
+
+    /**
+     * A reserved range of ids, handed out from next up to end.
+     */
+    private static class Block {
+        private final long end;
+        private final AtomicLong next;
+
+        private Block(final long start, final long end) {
+            this.end = end;
+            this.next = new AtomicLong(start);
+        }
+    }
+
+    ConferenceIdPool(final int blockSize, final int lowWaterMark) {
+        this.blockSize = blockSize;
+        this.lowWaterMark = lowWaterMark;
+    }
+
+    /**
+     * @param organizerKey the key of the organizer's profile.
+     * @return a new conference key under the organizer's profile.
+     */
+    public static Key<Conference> nextKey(final Key<Profile> organizerKey) {
+        return Key.create(organizerKey, Conference.class, INSTANCE.next());
+    }
+
+    long next() {
+        while (true) {
+            Block block = current.get();
+            long id = block.next.getAndIncrement();
+            if (id < block.end) {
+                if (block.end - id == lowWaterMark) {
+                    startRefill();
+                }
+                return POOL_ID_BIT | id;
+            }
+            installRefill(block);
+        }
+    }
+
+    private Future<KeyRange> allocate() {
+        return DatastoreServiceFactory.getAsyncDatastoreService().allocateIds(KIND, blockSize);
+    }
+
+    /**
+     * Starts reserving the next block unless that has already been started. Two requests that start at the
+     * same time both reserve a block and one of the blocks is dropped.
+     */
+    private void startRefill() {
+        if (refill.get() == null) {
+            refill.compareAndSet(null, allocate());
+        }
+    }
+
+    private static Block reserved(final Future<KeyRange> reservation) {
+        try {
+            KeyRange range = reservation.get();
+            return new Block(range.getStart().getId(), range.getEnd().getId() + 1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reserving conference ids", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not reserve conference ids", e.getCause());
+        }
+    }
+
+    /**
+     * Replaces the empty block with the block being reserved, waiting for it when needed. Requests that find
+     * the block replaced already go back to taking ids.
+     */
+    private void installRefill(final Block empty) {
+        startRefill();
+        Future<KeyRange> pending = refill.get();
+        if (pending == null || current.get() != empty) {
+            return;
+        }
+        Block fresh;
+        try {
+            fresh = reserved(pending);
+        } catch (IllegalStateException e) {
+            // the call may have been cut off with the request that started it
+            LOG.warning("Reserving conference ids again: " + e);
+            refill.compareAndSet(pending, null);
+            current.compareAndSet(empty, reserved(allocate()));
+            return;
+        }
+        // only the request that takes the reservation installs it, so no block is handed out twice
+        if (refill.compareAndSet(pending, null)) {
+            current.compareAndSet(empty, fresh);
+        }
+    }
+}
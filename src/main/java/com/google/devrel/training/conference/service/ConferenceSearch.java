@@ -0,0 +1,228 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.search.Cursor;
+import com.google.appengine.api.search.Document;
+import com.google.appengine.api.search.Field;
+import com.google.appengine.api.search.Index;
+import com.google.appengine.api.search.IndexSpec;
+import com.google.appengine.api.search.MatchScorer;
+import com.google.appengine.api.search.OperationResult;
+import com.google.appengine.api.search.PutResponse;
+import com.google.appengine.api.search.Query;
+import com.google.appengine.api.search.QueryOptions;
+import com.google.appengine.api.search.Results;
+import com.google.appengine.api.search.ScoredDocument;
+import com.google.appengine.api.search.SearchServiceFactory;
+import com.google.appengine.api.search.SortExpression;
+import com.google.appengine.api.search.SortOptions;
+import com.google.appengine.api.search.StatusCode;
+import com.google.common.collect.Lists;
+import com.google.devrel.training.conference.domain.Conference;
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * Full-text index of the conferences in the Search API: one document per conference, with the websafe key as
+ * the document id and the name, description, topics and city as fields. The index only answers which
+ * conferences match; the hits are loaded like any other list through {@link ConferenceCache}, so the index
+ * does not have to follow seat bookings.
+ *
+ * Conferences are indexed when they are created or updated, asynchronously and in batches of
+ * {@link #MAX_BATCH}. A write that fails is logged and repaired by the next update of the conference or by
+ * a reindex through {@link #reindexBatch(String)}.
+ */
+public class ConferenceSearch {
+    private static final Logger LOG = Logger.getLogger(ConferenceSearch.class.getName());
+
+    public static final String INDEX_NAME = "conferences";
+
+    public static final String QUEUE_NAME = "search-index";
+
+    public static final String REINDEX_URL = "/tasks/search_reindex";
+
+    public static final String CURSOR_PARAM = "cursor";
+
+    /**
+     * Most documents the Search API takes in one put.
+     */
+    static final int MAX_BATCH = 200;
+
+    private ConferenceSearch() {
+    }
+
+    /**
+     * Index writes that have been started but not necessarily finished.
+     */
+    public static class IndexWrite {
+        private final List<Future<PutResponse>> puts;
+
+        private IndexWrite(final List<Future<PutResponse>> puts) {
+            this.puts = puts;
+        }
+
+        /**
+         * Waits for the writes and logs the documents that could not be written.
+         *
+         * @return true when every document has been written.
+         */
+        public boolean complete() {
+            boolean complete = true;
+            for (Future<PutResponse> put : puts) {
+                try {
+                    for (OperationResult result : put.get()) {
+                        if (result.getCode() != StatusCode.OK) {
+                            LOG.warning("Could not index a conference: " + result);
+                            complete = false;
+                        }
+                    }
+                } catch (ExecutionException e) {
+                    LOG.warning("Could not index conferences: " + e.getCause());
+                    complete = false;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return complete;
+        }
+    }
+
+    /**
+     * A page of search hits.
+     */
+    public static class Hits {
+        private final List<Key<Conference>> conferenceKeys;
+        private final String nextCursor;
+
+        private Hits(final List<Key<Conference>> conferenceKeys, final String nextCursor) {
+            this.conferenceKeys = conferenceKeys;
+            this.nextCursor = nextCursor;
+        }
+
+        /**
+         * @return the keys of the matching conferences, best match first.
+         */
+        public List<Key<Conference>> getConferenceKeys() {
+            return conferenceKeys;
+        }
+
+        /**
+         * @return the websafe cursor of the next page, null on the last page.
+         */
+        public String getNextCursor() {
+            return nextCursor;
+        }
+    }
+
+    private static Index index() {
+        return SearchServiceFactory.getSearchService().getIndex(IndexSpec.newBuilder().setName(INDEX_NAME));
+    }
+
+    static Document toDocument(final Conference conference) {
+        Document.Builder document = Document.newBuilder()
+                .setId(conference.getWebsafeKey())
+                .addField(Field.newBuilder().setName("name").setText(conference.getName()))
+                .addField(Field.newBuilder().setName("city").setAtom(conference.getCity()));
+        if (conference.getDescription() != null) {
+            document.addField(Field.newBuilder().setName("description").setText(conference.getDescription()));
+        }
+        if (conference.getTopics() != null) {
+            for (String topic : conference.getTopics()) {
+                document.addField(Field.newBuilder().setName("topic").setText(topic));
+            }
+        }
+        return document.build();
+    }
+
+    /**
+     * Starts writing the documents of the conferences, replacing their previous documents.
+     *
+     * @param conferences the conferences as they have been saved.
+     * @return the started writes.
+     */
+    public static IndexWrite index(final Collection<Conference> conferences) {
+        List<Document> documents = new ArrayList<>(conferences.size());
+        for (Conference conference : conferences) {
+            documents.add(toDocument(conference));
+        }
+        List<Future<PutResponse>> puts = new ArrayList<>();
+        for (List<Document> batch : Lists.partition(documents, MAX_BATCH)) {
+            puts.add(index().putAsync(batch));
+        }
+        return new IndexWrite(puts);
+    }
+
+    /**
+     * Runs a query in the Search API query language, like "cloud" or "topic:platform city:London", best
+     * matches first and equal matches by name.
+     *
+     * @param queryString the query.
+     * @param limit       the number of hits to return.
+     * @param cursor      the cursor returned with the previous page, null for the first page.
+     * @return the hits.
+     * @throws IllegalArgumentException when the query or the cursor is invalid.
+     */
+    public static Hits search(final String queryString, final int limit, final String cursor) {
+        QueryOptions.Builder options = QueryOptions.newBuilder()
+                .setLimit(limit)
+                .setReturningIdsOnly(true)
+                .setSortOptions(SortOptions.newBuilder()
+                        .setMatchScorer(MatchScorer.newBuilder())
+                        .addSortExpression(SortExpression.newBuilder()
+                                .setExpression(SortExpression.SCORE_FIELD_NAME)
+                                .setDirection(SortExpression.SortDirection.DESCENDING)
+                                .setDefaultValueNumeric(0))
+                        // ties keep the same order on every page, so a cursor neither skips nor repeats hits
+                        .addSortExpression(SortExpression.newBuilder()
+                                .setExpression("name")
+                                .setDirection(SortExpression.SortDirection.ASCENDING)
+                                .setDefaultValue("")));
+        // an empty cursor asks for the cursor of the next page
+        if (cursor == null) {
+            options.setCursor(Cursor.newBuilder());
+        } else {
+            options.setCursor(Cursor.newBuilder().build(cursor));
+        }
+        Results<ScoredDocument> results = index().search(Query.newBuilder().setOptions(options).build(queryString));
+        List<Key<Conference>> conferenceKeys = new ArrayList<>(results.getNumberReturned());
+        for (ScoredDocument document : results) {
+            conferenceKeys.add(Key.<Conference>create(document.getId()));
+        }
+        Cursor next = results.getCursor();
+        return new Hits(conferenceKeys, next == null ? null : next.toWebSafeString());
+    }
+
+    /**
+     * Indexes one batch of all conferences, for conferences created before the index existed or whose index
+     * write failed.
+     *
+     * @param cursor the websafe cursor returned for the previous batch, null for the first batch.
+     * @return the websafe cursor of the next batch, null when this was the last one.
+     * @throws IllegalStateException when a document could not be written, so the task is retried.
+     */
+    public static String reindexBatch(final String cursor) {
+        com.googlecode.objectify.cmd.Query<Conference> query = ofy().load().type(Conference.class).limit(MAX_BATCH);
+        if (cursor != null) {
+            query = query.startAt(com.google.appengine.api.datastore.Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<Conference> conferences = query.iterator();
+        List<Conference> batch = new ArrayList<>(MAX_BATCH);
+        while (conferences.hasNext()) {
+            batch.add(conferences.next());
+        }
+        if (!index(batch).complete()) {
+            throw new IllegalStateException("Could not index all of " + batch.size() + " conferences");
+        }
+        LOG.info("Indexed " + batch.size() + " conferences");
+        return batch.size() < MAX_BATCH ? null : conferences.getCursor().toWebSafeString();
+    }
+}
@@ -0,0 +1,466 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.apphosting.api.ApiProxy;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.cmd.Query;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.logging.Logger;
+
+import static com.google.devrel.training.conference.service.OfyService.factory;
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * Bulk import and export of conferences as NDJSON, one conference per line:
+ * <pre>
+ * {"id":5629499534213120,"organizerUserId":"123","name":"GCP Live","description":"...","topics":["Cloud"],
+ *  "city":"London","startDate":"2014-03-25T00:00:00.000Z","endDate":null,"maxAttendees":500}
+ * </pre>
+ *
+ * An import reads the lines of the upload in batches of {@link #BATCH_SIZE}, reserves the ids of each batch
+ * with allocateIds, one call per organizer since conference ids are allocated under the organizer's profile,
+ * and enqueues the batch with its ids on the conference-import queue. The ids in the file are ignored, so
+ * a file can be imported into any environment. The tasks save the conferences with {@link #importBatch},
+ * which skips the conferences that already exist, so a retried task neither duplicates a conference nor
+ * overwrites the seats booked since. An upload that fails or runs out of time reports the number of lines
+ * that have been enqueued, and is resumed by uploading the file again with that number of lines to skip.
+ *
+ * An export streams the conferences between two cursors page by page, clearing the session after every
+ * page, so the instance never holds more than a page of conferences.
+ */
+public class ConferenceTransfer {
+    private static final Logger LOG = Logger.getLogger(ConferenceTransfer.class.getName());
+
+    public static final String QUEUE_NAME = "conference-import";
+
+    public static final String IMPORT_URL = "/tasks/import_conferences";
+
+    /**
+     * Conferences per import task.
+     */
+    static final int BATCH_SIZE = 200;
+
+    /**
+     * Characters per import task, push task payloads are limited to 100KB.
+     */
+    static final int MAX_BATCH_CHARS = 90 * 1024;
+
+    /**
+     * Conferences per datastore batch and per session of an export.
+     */
+    static final int EXPORT_PAGE_SIZE = 500;
+
+    /**
+     * An upload stops reading when its request has less time left than this.
+     */
+    static final long DEADLINE_MARGIN_MILLIS = 10 * 1000;
+
+    private static final String ID = "id";
+    private static final String ORGANIZER_USER_ID = "organizerUserId";
+    private static final String NAME = "name";
+    private static final String DESCRIPTION = "description";
+    private static final String TOPICS = "topics";
+    private static final String CITY = "city";
+    private static final String START_DATE = "startDate";
+    private static final String END_DATE = "endDate";
+    private static final String MAX_ATTENDEES = "maxAttendees";
+
+    private ConferenceTransfer() {
+    }
+
+    private static DateFormat dateFormat() {
+        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return dateFormat;
+    }
+
+    /**
+     * One line of NDJSON.
+     */
+    static class Line {
+        private final Long id;
+        private final String organizerUserId;
+        private final ConferenceForm conferenceForm;
+
+        Line(final Long id, final String organizerUserId, final ConferenceForm conferenceForm) {
+            this.id = id;
+            this.organizerUserId = organizerUserId;
+            this.conferenceForm = conferenceForm;
+        }
+
+        Long getId() {
+            return id;
+        }
+
+        Conference toConference(final long id) {
+            return new Conference(id, organizerUserId, conferenceForm);
+        }
+    }
+
+    /**
+     * @param conference the conference.
+     * @return the conference as one line of JSON, without the line break.
+     */
+    static String toJson(final Conference conference) {
+        StringWriter line = new StringWriter();
+        try (JsonWriter json = new JsonWriter(line)) {
+            DateFormat dateFormat = dateFormat();
+            json.beginObject();
+            json.name(ID).value(conference.getId());
+            json.name(ORGANIZER_USER_ID).value(conference.getOrganizerUserId());
+            json.name(NAME).value(conference.getName());
+            json.name(DESCRIPTION).value(conference.getDescription());
+            json.name(TOPICS).beginArray();
+            if (conference.getTopics() != null) {
+                for (String topic : conference.getTopics()) {
+                    json.value(topic);
+                }
+            }
+            json.endArray();
+            json.name(CITY).value(conference.getCity());
+            json.name(START_DATE).value(
+                    conference.getStartDate() == null ? null : dateFormat.format(conference.getStartDate()));
+            json.name(END_DATE).value(
+                    conference.getEndDate() == null ? null : dateFormat.format(conference.getEndDate()));
+            json.name(MAX_ATTENDEES).value(conference.getMaxAttendees());
+            json.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return line.toString();
+    }
+
+    /**
+     * @param line one line of JSON.
+     * @return the parsed line.
+     * @throws IllegalArgumentException when the line is not a conference.
+     */
+    static Line parse(final String line) {
+        Long id = null;
+        String organizerUserId = null;
+        String name = null;
+        String description = null;
+        List<String> topics = null;
+        String city = null;
+        Date startDate = null;
+        Date endDate = null;
+        int maxAttendees = 0;
+        try {
+            DateFormat dateFormat = dateFormat();
+            JsonReader json = new JsonReader(new StringReader(line));
+            json.beginObject();
+            while (json.hasNext()) {
+                String field = json.nextName();
+                if (json.peek() == JsonToken.NULL) {
+                    json.nextNull();
+                    continue;
+                }
+                switch (field) {
+                    case ID:
+                        id = json.nextLong();
+                        break;
+                    case ORGANIZER_USER_ID:
+                        organizerUserId = json.nextString();
+                        break;
+                    case NAME:
+                        name = json.nextString();
+                        break;
+                    case DESCRIPTION:
+                        description = json.nextString();
+                        break;
+                    case TOPICS:
+                        topics = new ArrayList<>();
+                        json.beginArray();
+                        while (json.hasNext()) {
+                            topics.add(json.nextString());
+                        }
+                        json.endArray();
+                        break;
+                    case CITY:
+                        city = json.nextString();
+                        break;
+                    case START_DATE:
+                        startDate = dateFormat.parse(json.nextString());
+                        break;
+                    case END_DATE:
+                        endDate = dateFormat.parse(json.nextString());
+                        break;
+                    case MAX_ATTENDEES:
+                        maxAttendees = json.nextInt();
+                        break;
+                    default:
+                        json.skipValue();
+                }
+            }
+            json.endObject();
+            if (json.peek() != JsonToken.END_DOCUMENT) {
+                throw new IllegalArgumentException("More than one conference on the line");
+            }
+        } catch (IOException | IllegalStateException | ParseException | NumberFormatException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+        if (organizerUserId == null || organizerUserId.isEmpty()) {
+            throw new IllegalArgumentException(ORGANIZER_USER_ID + " is required");
+        }
+        if (name == null) {
+            throw new IllegalArgumentException(NAME + " is required");
+        }
+        if (maxAttendees < 0) {
+            throw new IllegalArgumentException(MAX_ATTENDEES + " must not be negative");
+        }
+        return new Line(id, organizerUserId,
+                new ConferenceForm(name, description, topics, city, startDate, endDate, maxAttendees));
+    }
+
+    /**
+     * Reads an upload and enqueues its conferences in batches.
+     */
+    public static class Upload {
+        private final long skip;
+        private final List<Line> batch = new ArrayList<>(BATCH_SIZE);
+        private int batchChars;
+        private long linesRead;
+        private long lastBatchedLine;
+        private long linesDone;
+        private long conferences;
+        private int batches;
+
+        /**
+         * @param skip the number of lines an earlier upload of the same file has already enqueued.
+         */
+        public Upload(final long skip) {
+            this.skip = skip;
+            this.linesDone = skip;
+        }
+
+        /**
+         * Reads the lines until the end of the upload or until the request is about to run out of time, and
+         * enqueues them.
+         *
+         * @param reader the upload.
+         * @return true when the whole upload has been read.
+         * @throws IOException              when the upload cannot be read.
+         * @throws IllegalArgumentException when a line is not a conference, after enqueuing the lines before it.
+         */
+        public boolean readAll(final BufferedReader reader) throws IOException {
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    add(line);
+                    if (nearDeadline()) {
+                        finish();
+                        return false;
+                    }
+                }
+            } finally {
+                finish();
+            }
+            return true;
+        }
+
+        private static boolean nearDeadline() {
+            ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+            return environment != null && environment.getRemainingMillis() < DEADLINE_MARGIN_MILLIS;
+        }
+
+        void add(final String line) {
+            linesRead++;
+            if (linesRead <= skip) {
+                return;
+            }
+            if (!line.trim().isEmpty()) {
+                try {
+                    batch.add(parse(line));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Line " + linesRead + ": " + e.getMessage(), e);
+                }
+                batchChars += line.length();
+                lastBatchedLine = linesRead;
+                if (batch.size() == BATCH_SIZE || batchChars >= MAX_BATCH_CHARS) {
+                    flush();
+                }
+            }
+            if (batch.isEmpty()) {
+                linesDone = linesRead;
+            }
+        }
+
+        void finish() {
+            if (!batch.isEmpty()) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            Map<String, List<Line>> byOrganizer = new LinkedHashMap<>();
+            for (Line line : batch) {
+                List<Line> lines = byOrganizer.get(line.organizerUserId);
+                if (lines == null) {
+                    lines = new ArrayList<>();
+                    byOrganizer.put(line.organizerUserId, lines);
+                }
+                lines.add(line);
+            }
+            StringBuilder payload = new StringBuilder();
+            for (Map.Entry<String, List<Line>> entry : byOrganizer.entrySet()) {
+                Iterator<Key<Conference>> ids = factory().allocateIds(Key.create(Profile.class, entry.getKey()),
+                        Conference.class, entry.getValue().size()).iterator();
+                for (Line line : entry.getValue()) {
+                    payload.append(toJson(line.toConference(ids.next().getId()))).append('\n');
+                }
+            }
+            QueueFactory.getQueue(QUEUE_NAME).add(TaskOptions.Builder.withUrl(IMPORT_URL)
+                    .payload(payload.toString().getBytes(StandardCharsets.UTF_8), "application/x-ndjson"));
+            conferences += batch.size();
+            batches++;
+            linesDone = lastBatchedLine;
+            batch.clear();
+            batchChars = 0;
+        }
+
+        /**
+         * @return the number of lines of the file that have been enqueued or skipped, the number of lines to
+         * skip when the file is uploaded again.
+         */
+        public long getLinesDone() {
+            return linesDone;
+        }
+
+        /**
+         * @return the number of conferences this upload has enqueued.
+         */
+        public long getConferences() {
+            return conferences;
+        }
+
+        /**
+         * @return the number of import tasks this upload has enqueued.
+         */
+        public int getBatches() {
+            return batches;
+        }
+    }
+
+    /**
+     * Saves the conferences of an import task that do not exist yet, with the display names of their
+     * organizers, and indexes them for search and the facet counts.
+     *
+     * @param reader the payload of the task, lines with the reserved ids.
+     * @return the number of conferences saved.
+     * @throws IOException              when the payload cannot be read.
+     * @throws IllegalArgumentException when a line has no id.
+     */
+    public static int importBatch(final BufferedReader reader) throws IOException {
+        Map<Key<Conference>, Conference> batch = new LinkedHashMap<>();
+        List<Key<Profile>> organizerKeys = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            Line parsed = parse(line);
+            if (parsed.id == null) {
+                throw new IllegalArgumentException("An import task line has no id: " + line);
+            }
+            Conference conference = parsed.toConference(parsed.id);
+            batch.put(conference.getKey(), conference);
+            organizerKeys.add(conference.getProfileKey());
+        }
+        batch.keySet().removeAll(ofy().load().keys(batch.keySet()).keySet());
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        Map<Key<Profile>, Profile> organizers = ofy().load().keys(organizerKeys);
+        for (Conference conference : batch.values()) {
+            Profile organizer = organizers.get(conference.getProfileKey());
+            if (organizer != null) {
+                conference.resolveOrganizer(organizer);
+            }
+        }
+        List<Conference> conferences = new ArrayList<>(batch.values());
+        long writtenAt = System.currentTimeMillis();
+        ofy().save().entities(conferences).now();
+        ConferenceSearch.IndexWrite indexWrite = ConferenceSearch.index(conferences);
+        FacetService.enqueueCreated(conferences, writtenAt);
+        indexWrite.complete();
+        LOG.info("Imported " + conferences.size() + " conferences");
+        return conferences.size();
+    }
+
+    /**
+     * Finds the end of an export of up to the given number of conferences with a keys-only scan.
+     *
+     * @param cursor the websafe cursor the export starts at, null for the first conference.
+     * @param limit  the most conferences to export.
+     * @return the websafe cursor the next export starts at, null when this export reaches the last conference.
+     * @throws IllegalArgumentException when the cursor is invalid.
+     */
+    public static String exportEnd(final String cursor, final int limit) {
+        QueryResultIterator<Key<Conference>> keys = exportQuery(cursor, null).limit(limit).keys().iterator();
+        int count = 0;
+        while (keys.hasNext()) {
+            keys.next();
+            count++;
+        }
+        return count < limit ? null : keys.getCursor().toWebSafeString();
+    }
+
+    /**
+     * Writes the conferences between the cursors, one line each.
+     *
+     * @param out    where to write the lines.
+     * @param cursor the websafe cursor to start at, null for the first conference.
+     * @param end    the websafe cursor to stop at, null for the last conference.
+     * @return the number of conferences written.
+     * @throws IOException when the lines cannot be written.
+     */
+    public static int export(final Writer out, final String cursor, final String end) throws IOException {
+        int count = 0;
+        QueryResultIterator<Conference> conferences = exportQuery(cursor, end).chunk(EXPORT_PAGE_SIZE).iterator();
+        while (conferences.hasNext()) {
+            out.write(toJson(conferences.next()));
+            out.write('\n');
+            if (++count % EXPORT_PAGE_SIZE == 0) {
+                ofy().clear();
+            }
+        }
+        ofy().clear();
+        return count;
+    }
+
+    private static Query<Conference> exportQuery(final String cursor, final String end) {
+        Query<Conference> query = ofy().load().type(Conference.class);
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        if (end != null) {
+            query = query.endAt(Cursor.fromWebSafeString(end));
+        }
+        return query;
+    }
+}
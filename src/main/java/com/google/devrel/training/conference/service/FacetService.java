@@ -0,0 +1,256 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceFacets;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.cmd.Query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * Keeps the {@link ConferenceFacets} counts up to date. Creating or editing a conference enqueues the change
+ * of its facet values on the facet-counts queue, whose tasks apply one change each to the single counts
+ * entity. The queue runs one task at a time, so the counts entity is written at the queue's rate however
+ * many conferences are written at once.
+ *
+ * A change that is lost, or applied twice because its task was retried after the write, makes the counts
+ * drift until the nightly reconciliation rebuilds them from a scan of all conferences. The change tasks name
+ * their conferences and carry the time they were written, so a change applied while the reconciliation runs
+ * is also counted into the rebuilt counts when the scan has passed its conference, unless the scan already
+ * saw the change.
+ */
+public class FacetService {
+    private static final Logger LOG = Logger.getLogger(FacetService.class.getName());
+
+    public static final String QUEUE_NAME = "facet-counts";
+
+    public static final String CHANGE_URL = "/tasks/facet_counts";
+
+    public static final String RECONCILE_URL = "/tasks/reconcile_facets";
+
+    public static final String REMOVED_PARAM = "removed";
+
+    public static final String ADDED_PARAM = "added";
+
+    public static final String CURSOR_PARAM = "cursor";
+
+    /**
+     * The websafe keys of the changed conferences. The values of the i-th conference are in the parameters
+     * REMOVED_PARAM + i and ADDED_PARAM + i.
+     */
+    public static final String CONFERENCE_PARAM = "conference";
+
+    /**
+     * When the changes of a task were written, in milliseconds.
+     */
+    public static final String WRITTEN_AT_PARAM = "writtenAt";
+
+    /**
+     * Conferences scanned per reconciliation task.
+     */
+    static final int RECONCILE_BATCH = 500;
+
+    private FacetService() {
+    }
+
+    /**
+     * Enqueues the facet values of conferences that have been created, as one change.
+     *
+     * @param conferences the new conferences.
+     * @param writtenAt   the time in milliseconds taken before the conferences were saved.
+     */
+    public static void enqueueCreated(final Collection<Conference> conferences, final long writtenAt) {
+        if (conferences.isEmpty()) {
+            return;
+        }
+        TaskOptions task = TaskOptions.Builder.withUrl(CHANGE_URL)
+                .param(WRITTEN_AT_PARAM, String.valueOf(writtenAt));
+        int i = 0;
+        for (Conference conference : conferences) {
+            task.param(CONFERENCE_PARAM, conference.getWebsafeKey());
+            for (String value : ConferenceFacets.valuesOf(conference)) {
+                task.param(ADDED_PARAM + i, value);
+            }
+            i++;
+        }
+        QueueFactory.getQueue(QUEUE_NAME).add(task);
+    }
+
+    /**
+     * Enqueues the change of facet values as part of the current transaction, so it is only counted when the
+     * write of the conference commits.
+     *
+     * @param before the facet values of the conference before the write.
+     * @param after  the conference after the write.
+     */
+    public static void enqueueChangeInTransaction(final Set<String> before, final Conference after) {
+        add(ofy().getTransaction(), after.getWebsafeKey(), before, ConferenceFacets.valuesOf(after));
+    }
+
+    private static void add(final Transaction transaction, final String websafeKey, final Set<String> before,
+                            final Set<String> after) {
+        Set<String> removed = new HashSet<>(before);
+        removed.removeAll(after);
+        Set<String> added = new HashSet<>(after);
+        added.removeAll(before);
+        if (removed.isEmpty() && added.isEmpty()) {
+            return;
+        }
+        TaskOptions task = TaskOptions.Builder.withUrl(CHANGE_URL).param(CONFERENCE_PARAM, websafeKey)
+                .param(WRITTEN_AT_PARAM, String.valueOf(System.currentTimeMillis()));
+        for (String value : removed) {
+            task.param(REMOVED_PARAM + 0, value);
+        }
+        for (String value : added) {
+            task.param(ADDED_PARAM + 0, value);
+        }
+        QueueFactory.getQueue(QUEUE_NAME).add(transaction, task);
+    }
+
+    /**
+     * Enqueues the first batch of a reconciliation.
+     */
+    public static void enqueueReconcile() {
+        enqueueReconcile(null);
+    }
+
+    /**
+     * Enqueues the next batch of a reconciliation.
+     *
+     * @param cursor the websafe cursor of the batch.
+     */
+    public static void enqueueReconcile(final String cursor) {
+        TaskOptions task = TaskOptions.Builder.withUrl(RECONCILE_URL);
+        if (cursor != null) {
+            task.param(CURSOR_PARAM, cursor);
+        }
+        QueueFactory.getQueue(QUEUE_NAME).add(task);
+    }
+
+    /**
+     * @return the counts, served from memcache through the Objectify global cache.
+     */
+    public static ConferenceFacets getFacets() {
+        ConferenceFacets facets = ofy().load().key(ConferenceFacets.key()).now();
+        return facets == null ? new ConferenceFacets() : facets;
+    }
+
+    private static Collection<String> values(final String[] values) {
+        return values == null ? Collections.<String>emptyList() : Arrays.asList(values);
+    }
+
+    /**
+     * Applies one change of facet values of an unknown conference to the counts.
+     *
+     * @param removed the values to count one less time per occurrence, may be null.
+     * @param added   the values to count one more time per occurrence, may be null.
+     */
+    public static void applyChange(final String[] removed, final String[] added) {
+        applyChanges(Collections.<Key<Conference>>singletonList(null), null,
+                Collections.singletonList(values(removed)), Collections.singletonList(values(added)));
+    }
+
+    /**
+     * Applies the changes of facet values of a change task to the counts.
+     *
+     * @param params the parameters of the task.
+     */
+    public static void applyChanges(final Map<String, String[]> params) {
+        String[] conferences = params.get(CONFERENCE_PARAM);
+        if (conferences == null) {
+            // enqueued before the tasks named their conferences
+            applyChange(params.get(REMOVED_PARAM), params.get(ADDED_PARAM));
+            return;
+        }
+        List<Key<Conference>> keys = new ArrayList<>();
+        List<Collection<String>> removed = new ArrayList<>();
+        List<Collection<String>> added = new ArrayList<>();
+        for (int i = 0; i < conferences.length; i++) {
+            keys.add(Key.<Conference>create(conferences[i]));
+            removed.add(values(params.get(REMOVED_PARAM + i)));
+            added.add(values(params.get(ADDED_PARAM + i)));
+        }
+        String[] writtenAt = params.get(WRITTEN_AT_PARAM);
+        // missing in tasks enqueued before they carried the time they were written
+        applyChanges(keys, writtenAt == null ? null : Long.valueOf(writtenAt[0]), removed, added);
+    }
+
+    private static void applyChanges(final List<Key<Conference>> keys, final Long writtenAt,
+                                     final List<Collection<String>> removed, final List<Collection<String>> added) {
+        TransactionService.transact("applyFacetChange", new Work<Void>() {
+            @Override
+            public Void run() {
+                ConferenceFacets facets = getFacets();
+                for (int i = 0; i < keys.size(); i++) {
+                    facets.change(keys.get(i), writtenAt, removed.get(i), added.get(i));
+                }
+                ofy().save().entity(facets);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Counts one batch of all conferences into the reconciliation. The first batch starts a new reconciliation
+     * and the last one replaces the counts with the rebuilt ones. A batch that does not start where the
+     * reconciliation stands, because its task ran before or a newer reconciliation started, changes nothing.
+     *
+     * @param cursor the websafe cursor returned for the previous batch, null for the first batch.
+     * @return the websafe cursor of the next batch, null when there is no next batch to run.
+     */
+    public static String reconcileBatch(final String cursor) {
+        final long scannedAt = System.currentTimeMillis();
+        Query<Conference> query = ofy().load().type(Conference.class).limit(RECONCILE_BATCH);
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<Conference> conferences = query.iterator();
+        final List<String> values = new ArrayList<>();
+        Key<Conference> last = null;
+        int scanned = 0;
+        while (conferences.hasNext()) {
+            Conference conference = conferences.next();
+            values.addAll(ConferenceFacets.valuesOf(conference));
+            last = conference.getKey();
+            scanned++;
+        }
+        final Key<Conference> scannedTo = last;
+        final String nextCursor = scanned < RECONCILE_BATCH ? null : conferences.getCursor().toWebSafeString();
+        boolean counted = TransactionService.transact("reconcileFacets", new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                ConferenceFacets facets = getFacets();
+                if (cursor == null) {
+                    facets.startRebuild();
+                } else if (!facets.isRebuilding() || !cursor.equals(facets.getRebuildCursor())) {
+                    return false;
+                }
+                facets.rebuild(values, scannedTo, scannedAt, nextCursor);
+                ofy().save().entity(facets);
+                return true;
+            }
+        });
+        if (!counted) {
+            LOG.info("Skipped a reconciliation batch that is not the next one");
+            return null;
+        }
+        LOG.info("Reconciled the facets of " + scanned + " conferences");
+        return nextCursor;
+    }
+}
@@ -1,7 +1,11 @@
 package com.google.devrel.training.conference.service;
 
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceFacets;
 import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.SeatShard;
+import com.google.devrel.training.conference.domain.Waitlist;
+import com.google.devrel.training.conference.domain.WaitlistEntry;
 import com.googlecode.objectify.Objectify;
 import com.googlecode.objectify.ObjectifyFactory;
 import com.googlecode.objectify.ObjectifyService;
@@ -16,15 +20,20 @@ public class OfyService {
     static {
         factory().register(Profile.class);
         factory().register(Conference.class);
+        factory().register(SeatShard.class);
+        factory().register(ConferenceFacets.class);
+        factory().register(Waitlist.class);
+        factory().register(WaitlistEntry.class);
     }
 
     /**
      * Use this static method for getting the Objectify service object in order to make sure the
      * above static block is executed before using Objectify.
-     * @return Objectify service object.
+     * @return Objectify service object, recording into the {@link OfyTrace} of the thread when one was started.
      */
     public static Objectify ofy() {
-        return ObjectifyService.ofy();
+        OfyTrace trace = OfyTrace.current();
+        return trace == null ? ObjectifyService.ofy() : trace.wrap(ObjectifyService.ofy());
     }
 
     /**
@@ -0,0 +1,482 @@
+package com.google.devrel.training.conference.service;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.LoadResult;
+import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.Result;
+import com.googlecode.objectify.cmd.DeleteIds;
+import com.googlecode.objectify.cmd.Deleter;
+import com.googlecode.objectify.cmd.QueryExecute;
+import com.googlecode.objectify.cmd.Saver;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Records the Objectify operations of the current thread: every load, save, delete, query and transaction
+ * that goes through {@link OfyService#ofy()}, with its kind, the number of keys or results, how long it took
+ * and whether the session cache answered it. Nothing is recorded, and ofy() returns the plain Objectify,
+ * unless {@link #start()} was called on the thread.
+ */
+public class OfyTrace {
+
+    private static final ThreadLocal<OfyTrace> CURRENT = new ThreadLocal<>();
+
+    public enum Type {
+        LOAD, SAVE, DELETE, QUERY, TRANSACTION
+    }
+
+    /**
+     * One traced operation. Loads, saves and queries are asynchronous, the time until the result was first used
+     * is added when that happens.
+     */
+    public static class Op {
+        private final Type type;
+        private final String kind;
+        private int keys;
+        private final int cached;
+        private long nanos;
+
+        private Op(final Type type, final String kind, final int keys, final int cached) {
+            this.type = type;
+            this.kind = kind;
+            this.keys = keys;
+            this.cached = cached;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * @return the kind, null for transactions and kindless queries.
+         */
+        public String getKind() {
+            return kind;
+        }
+
+        /**
+         * @return the keys loaded, saved or deleted, or the results a query has returned so far.
+         */
+        public int getKeys() {
+            return keys;
+        }
+
+        /**
+         * @return how many of the keys loaded were already in the session cache.
+         */
+        public int getCached() {
+            return cached;
+        }
+
+        /**
+         * @return true when the session cache answered the whole load without a datastore call.
+         */
+        public boolean isCached() {
+            return keys > 0 && cached == keys;
+        }
+
+        public long getMillis() {
+            return nanos / 1000000;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(type.name().toLowerCase());
+            if (kind != null) {
+                builder.append(' ').append(kind);
+            }
+            if (type != Type.TRANSACTION) {
+                builder.append(" keys=").append(keys);
+            }
+            if (isCached()) {
+                builder.append(" cached");
+            } else if (cached > 0) {
+                builder.append(" cached=").append(cached);
+            }
+            return builder.append(' ').append(getMillis()).append("ms").toString();
+        }
+    }
+
+    private final List<Op> ops = new ArrayList<>();
+
+    /**
+     * Starts tracing the current thread, replacing any trace that was running.
+     *
+     * @return the trace, it keeps growing until {@link #stop()}.
+     */
+    public static OfyTrace start() {
+        OfyTrace trace = new OfyTrace();
+        CURRENT.set(trace);
+        return trace;
+    }
+
+    /**
+     * Stops tracing the current thread. Objectify instances handed out before keep recording into the trace.
+     *
+     * @return the trace, null when tracing was not started.
+     */
+    public static OfyTrace stop() {
+        OfyTrace trace = CURRENT.get();
+        CURRENT.remove();
+        return trace;
+    }
+
+    /**
+     * @return the trace of the current thread, null when the thread is not traced.
+     */
+    public static OfyTrace current() {
+        return CURRENT.get();
+    }
+
+    public List<Op> getOps() {
+        return Collections.unmodifiableList(ops);
+    }
+
+    /**
+     * @return the operations of the type on the kind that the session cache did not answer, which is what an
+     * N+1 pattern shows up as.
+     */
+    public int count(final Type type, final String kind) {
+        int count = 0;
+        for (Op op : ops) {
+            if (op.type == type && kind.equals(op.kind) && !op.isCached()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the entities and keys read from the datastore: the loaded keys the session cache did not hold and
+     * the results of the queries.
+     */
+    public int getEntitiesRead() {
+        int read = 0;
+        for (Op op : ops) {
+            if (op.type == Type.LOAD) {
+                read += op.keys - op.cached;
+            } else if (op.type == Type.QUERY) {
+                read += op.keys;
+            }
+        }
+        return read;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("ops=").append(ops.size());
+        for (Op op : ops) {
+            builder.append("; ").append(op);
+        }
+        return builder.toString();
+    }
+
+    private Op add(final Type type, final String kind, final int keys, final int cached) {
+        Op op = new Op(type, kind, keys, cached);
+        ops.add(op);
+        return op;
+    }
+
+    /**
+     * @return an Objectify that records into this trace everything done through it and the commands it returns.
+     */
+    Objectify wrap(final Objectify ofy) {
+        return proxy(Objectify.class, ofy, new ObjectifyHandler(ofy));
+    }
+
+    private static <T> T proxy(final Class<T> type, final Object target, final InvocationHandler handler) {
+        Set<Class<?>> interfaces = new LinkedHashSet<>();
+        interfaces.add(type);
+        for (Class<?> c = target.getClass(); c != null; c = c.getSuperclass()) {
+            addPublicInterfaces(c.getInterfaces(), interfaces);
+        }
+        return type.cast(Proxy.newProxyInstance(OfyTrace.class.getClassLoader(),
+                interfaces.toArray(new Class<?>[interfaces.size()]), handler));
+    }
+
+    private static void addPublicInterfaces(final Class<?>[] candidates, final Set<Class<?>> interfaces) {
+        for (Class<?> candidate : candidates) {
+            if (Modifier.isPublic(candidate.getModifiers())) {
+                interfaces.add(candidate);
+            }
+            addPublicInterfaces(candidate.getInterfaces(), interfaces);
+        }
+    }
+
+    private static Object invoke(final Object target, final Method method, final Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @return the elements of an Iterable or array argument, the argument itself otherwise.
+     */
+    private static List<Object> elements(final Object arg) {
+        List<Object> elements = new ArrayList<>();
+        if (arg instanceof Iterable) {
+            for (Object element : (Iterable<?>) arg) {
+                elements.add(element);
+            }
+        } else if (arg != null && arg.getClass().isArray()) {
+            for (int i = 0; i < Array.getLength(arg); i++) {
+                elements.add(Array.get(arg, i));
+            }
+        } else {
+            elements.add(arg);
+        }
+        return elements;
+    }
+
+    private <T> Result<T> timed(final Result<T> result, final Op op) {
+        return new Result<T>() {
+            @Override
+            public T now() {
+                long start = System.nanoTime();
+                try {
+                    return result.now();
+                } finally {
+                    op.nanos += System.nanoTime() - start;
+                }
+            }
+        };
+    }
+
+    /**
+     * Adds the time of every call on a lazily loaded List, Map, iterable or iterator to the operation that
+     * returned it. Query results are counted as they are read.
+     */
+    private class ResultHandler implements InvocationHandler {
+        private final Object target;
+        private final Op op;
+        private boolean counted;
+
+        ResultHandler(final Object target, final Op op) {
+            this.target = target;
+            this.op = op;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            long start = System.nanoTime();
+            try {
+                Object result = OfyTrace.invoke(target, method, args);
+                if (target instanceof List) {
+                    if (!counted) {
+                        op.keys = ((List<?>) target).size();
+                        counted = true;
+                    }
+                } else if (target instanceof Iterator && method.getName().equals("next")) {
+                    op.keys++;
+                } else if (target instanceof Iterable && method.getName().equals("iterator")) {
+                    return proxy(method.getReturnType(), result, new ResultHandler(result, op));
+                }
+                return result;
+            } finally {
+                op.nanos += System.nanoTime() - start;
+            }
+        }
+    }
+
+    private class ObjectifyHandler implements InvocationHandler {
+        private final Objectify target;
+
+        ObjectifyHandler(final Objectify target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "transact":
+                case "transactNew":
+                case "execute":
+                    Op op = add(Type.TRANSACTION, null, 0, 0);
+                    long start = System.nanoTime();
+                    try {
+                        return OfyTrace.invoke(target, method, args);
+                    } finally {
+                        op.nanos += System.nanoTime() - start;
+                    }
+            }
+            Object result = OfyTrace.invoke(target, method, args);
+            switch (method.getName()) {
+                case "load":
+                    return proxy(QueryExecute.class, result, new LoadHandler(result, target, null));
+                case "save":
+                    return proxy(Saver.class, result, new SaveHandler((Saver) result));
+                case "delete":
+                    return proxy(Deleter.class, result, new DeleteHandler(result, target, null));
+                case "cache":
+                case "consistency":
+                case "deadline":
+                case "transactionless":
+                    return wrap((Objectify) result);
+                default:
+                    return result;
+            }
+        }
+    }
+
+    /**
+     * Traces the Loader, and the LoadTypes, Querys and QueryKeys built from it.
+     */
+    private class LoadHandler implements InvocationHandler {
+        private final Object target;
+        private final Objectify ofy;
+        private final String kind;
+
+        LoadHandler(final Object target, final Objectify ofy, final String kind) {
+            this.target = target;
+            this.ofy = ofy;
+            this.kind = kind;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            int arity = args == null ? 0 : args.length;
+            if (arity == 1 && (name.equals("key") || name.equals("ref") || name.equals("entity")
+                    || name.equals("value"))) {
+                Key<Object> key = ofy.factory().keys().anythingToKey(args[0]);
+                Op op = add(Type.LOAD, key.getKind(), 1, ofy.isLoaded(key) ? 1 : 0);
+                LoadResult<Object> result = (LoadResult<Object>) OfyTrace.invoke(target, method, args);
+                return new LoadResult<>(key, timed(result, op));
+            }
+            if (arity == 1 && (name.equals("keys") || name.equals("refs") || name.equals("entities")
+                    || name.equals("values"))) {
+                List<Object> elements = elements(args[0]);
+                String loadKind = null;
+                int cached = 0;
+                for (Object element : elements) {
+                    Key<Object> key = ofy.factory().keys().anythingToKey(element);
+                    loadKind = key.getKind();
+                    if (ofy.isLoaded(key)) {
+                        cached++;
+                    }
+                }
+                Op op = add(Type.LOAD, loadKind, elements.size(), cached);
+                Object result = OfyTrace.invoke(target, method, args);
+                return proxy(method.getReturnType(), result, new ResultHandler(result, op));
+            }
+            switch (name) {
+                case "id":
+                case "ids": {
+                    Op op = add(Type.LOAD, kind, elements(args[arity - 1]).size(), 0);
+                    Object result = OfyTrace.invoke(target, method, args);
+                    if (result instanceof LoadResult) {
+                        return new LoadResult<>(null, timed((LoadResult<Object>) result, op));
+                    }
+                    return proxy(method.getReturnType(), result, new ResultHandler(result, op));
+                }
+                case "list": {
+                    Op op = add(Type.QUERY, kind, 0, 0);
+                    Object result = OfyTrace.invoke(target, method, args);
+                    return proxy(List.class, result, new ResultHandler(result, op));
+                }
+                case "first": {
+                    Op op = add(Type.QUERY, kind, 0, 0);
+                    return new LoadResult<>(null, timed((LoadResult<Object>) OfyTrace.invoke(target, method, args),
+                            op));
+                }
+                case "count": {
+                    Op op = add(Type.QUERY, kind, 0, 0);
+                    long start = System.nanoTime();
+                    Integer count = (Integer) OfyTrace.invoke(target, method, args);
+                    op.nanos += System.nanoTime() - start;
+                    op.keys = count;
+                    return count;
+                }
+                case "iterable":
+                case "iterator": {
+                    Op op = add(Type.QUERY, kind, 0, 0);
+                    long start = System.nanoTime();
+                    Object result = OfyTrace.invoke(target, method, args);
+                    op.nanos += System.nanoTime() - start;
+                    return proxy(method.getReturnType(), result, new ResultHandler(result, op));
+                }
+            }
+            Object result = OfyTrace.invoke(target, method, args);
+            if (result instanceof QueryExecute) {
+                String resultKind = kind;
+                if (name.equals("type")) {
+                    resultKind = Key.getKind((Class<?>) args[0]);
+                } else if (name.equals("kind")) {
+                    resultKind = (String) args[0];
+                }
+                return proxy(QueryExecute.class, result, new LoadHandler(result, ofy, resultKind));
+            }
+            return result;
+        }
+    }
+
+    private class SaveHandler implements InvocationHandler {
+        private final Saver target;
+
+        SaveHandler(final Saver target) {
+            this.target = target;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (!method.getName().equals("entity") && !method.getName().equals("entities")) {
+                return OfyTrace.invoke(target, method, args);
+            }
+            List<Object> entities = elements(args[0]);
+            String kind = entities.isEmpty() ? null : Key.getKind(entities.get(0).getClass());
+            Op op = add(Type.SAVE, kind, entities.size(), 0);
+            return timed((Result<Object>) OfyTrace.invoke(target, method, args), op);
+        }
+    }
+
+    /**
+     * Traces the Deleter, and the DeleteTypes and DeleteIds built from it.
+     */
+    private class DeleteHandler implements InvocationHandler {
+        private final Object target;
+        private final Objectify ofy;
+        private final String kind;
+
+        DeleteHandler(final Object target, final Objectify ofy, final String kind) {
+            this.target = target;
+            this.ofy = ofy;
+            this.kind = kind;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (args == null || name.equals("equals")) {
+                return OfyTrace.invoke(target, method, args);
+            }
+            if (name.equals("type") || name.equals("parent")) {
+                Object result = OfyTrace.invoke(target, method, args);
+                String resultKind = name.equals("type") ? Key.getKind((Class<?>) args[0]) : kind;
+                return proxy(DeleteIds.class, result, new DeleteHandler(result, ofy, resultKind));
+            }
+            List<Object> elements = elements(args[args.length - 1]);
+            String deleteKind = kind;
+            if (!name.startsWith("id") && !elements.isEmpty()) {
+                deleteKind = ofy.factory().keys().anythingToKey(elements.get(0)).getKind();
+            }
+            Op op = add(Type.DELETE, deleteKind, elements.size(), 0);
+            return timed((Result<Object>) OfyTrace.invoke(target, method, args), op);
+        }
+    }
+}
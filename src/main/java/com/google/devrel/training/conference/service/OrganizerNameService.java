@@ -0,0 +1,120 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.cmd.Query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * Keeps the organizer's display name stored with the conferences in step with the organizer's profile. A rename
+ * enqueues a task that pages through the organizer's conferences, which all live in the profile's entity group,
+ * and rewrites them in batches of {@link #BATCH_SIZE}, each batch in one transaction.
+ *
+ * Every batch copies the name the profile has when the batch runs, so a task that is retried, runs twice or
+ * overlaps with the task of a later rename leaves the conferences with the latest name. A failed batch is
+ * retried by the task queue from the cursor it started at.
+ */
+public class OrganizerNameService {
+    private static final Logger LOG = Logger.getLogger(OrganizerNameService.class.getName());
+
+    public static final String QUEUE_NAME = "organizer-names";
+
+    public static final String TASK_URL = "/tasks/organizer_names";
+
+    public static final String USER_ID_PARAM = "userId";
+
+    public static final String CURSOR_PARAM = "cursor";
+
+    /**
+     * Conferences rewritten per transaction and per task.
+     */
+    static final int BATCH_SIZE = 100;
+
+    private OrganizerNameService() {
+    }
+
+    /**
+     * Enqueues the rewrite of the organizer's conferences as part of the current transaction, so the task only
+     * runs when the rename commits.
+     *
+     * @param userId the user id of the renamed organizer.
+     */
+    public static void enqueueInTransaction(final String userId) {
+        add(ofy().getTransaction(), userId, null);
+    }
+
+    /**
+     * Enqueues the rewrite of the organizer's conferences from the given cursor on.
+     *
+     * @param userId the user id of the organizer.
+     * @param cursor the websafe cursor of the next batch, null to start with the first conference.
+     */
+    public static void enqueue(final String userId, final String cursor) {
+        add(null, userId, cursor);
+    }
+
+    private static void add(final Transaction transaction, final String userId, final String cursor) {
+        TaskOptions task = TaskOptions.Builder.withUrl(TASK_URL).param(USER_ID_PARAM, userId);
+        if (cursor != null) {
+            task.param(CURSOR_PARAM, cursor);
+        }
+        QueueFactory.getQueue(QUEUE_NAME).add(transaction, task);
+    }
+
+    /**
+     * Copies the organizer's current display name to one batch of the organizer's conferences. Conferences
+     * that already have the name are not written.
+     *
+     * @param userId the user id of the organizer.
+     * @param cursor the websafe cursor returned for the previous batch, null for the first batch.
+     * @return the websafe cursor of the next batch, null when this was the last one.
+     */
+    public static String renameBatch(final String userId, final String cursor) {
+        final Key<Profile> profileKey = Key.create(Profile.class, userId);
+        Query<Conference> query = ofy().load().type(Conference.class).ancestor(profileKey).limit(BATCH_SIZE);
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<Key<Conference>> keys = query.keys().iterator();
+        final List<Key<Conference>> batch = new ArrayList<>(BATCH_SIZE);
+        while (keys.hasNext()) {
+            batch.add(keys.next());
+        }
+        if (batch.isEmpty()) {
+            return null;
+        }
+        // the profile and its conferences are one entity group, so this is a single group transaction
+        List<Conference> changed = TransactionService.transact("renameOrganizer", new Work<List<Conference>>() {
+            @Override
+            public List<Conference> run() {
+                Profile organizer = ofy().load().key(profileKey).now();
+                List<Conference> changed = new ArrayList<>();
+                for (Conference conference : ofy().load().keys(batch).values()) {
+                    if (conference.resolveOrganizer(organizer)) {
+                        changed.add(conference);
+                    }
+                }
+                ofy().save().entities(changed);
+                return changed;
+            }
+        });
+        for (Conference conference : changed) {
+            ConferenceCache.written(conference);
+        }
+        LOG.info("Renamed the organizer of " + changed.size() + " of " + batch.size() + " conferences of "
+                + userId);
+        return batch.size() < BATCH_SIZE ? null : keys.getCursor().toWebSafeString();
+    }
+}
@@ -0,0 +1,206 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Per user limits on the write API methods, so one client cannot use up the datastore write quota.
+ *
+ * Every user gets a token bucket per method on each instance, which turns a flood away without any RPC. A
+ * request that gets a local token also counts against the user's limit in memcache, shared by all
+ * instances: one atomic increment of a counter per refill period of the bucket, which admits as many
+ * requests as the bucket holds. When memcache is unavailable the local bucket alone decides.
+ *
+ * Throttled requests are logged and counted by method, the MetricsServlet shows the counts. The benchmarks
+ * and the load test, which create many conferences as one user, turn the limits off with the
+ * rateLimit.enabled system property.
+ */
+public class RateLimiter {
+    private static final Logger LOG = Logger.getLogger(RateLimiter.class.getName());
+
+    /**
+     * The users whose local buckets are kept, from the rateLimit.localCapacity system property.
+     */
+    public static final int LOCAL_CAPACITY = Integer.getInteger("rateLimit.localCapacity", 10000);
+
+    /**
+     * Whether the limits apply, from the rateLimit.enabled system property.
+     */
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("rateLimit.enabled", "true"));
+
+    private static final String MEMCACHE_PREFIX = "RATE_";
+
+    /**
+     * The limit of an API method: a burst of requests, refilled one per period.
+     */
+    public static class Limit {
+        private final int burst;
+        private final long refillMillis;
+
+        Limit(final int burst, final long refillMillis) {
+            this.burst = burst;
+            this.refillMillis = refillMillis;
+        }
+
+        public int getBurst() {
+            return burst;
+        }
+
+        public long getRefillMillis() {
+            return refillMillis;
+        }
+
+        /**
+         * @return how long an empty bucket takes to fill up, the period of the shared counter.
+         */
+        long windowMillis() {
+            return burst * refillMillis;
+        }
+    }
+
+    public static final Map<String, Limit> LIMITS;
+
+    static {
+        Map<String, Limit> limits = new HashMap<>();
+        limits.put("saveProfile", new Limit(10, 6000));
+        limits.put("createConference", new Limit(10, 30000));
+        limits.put("updateConference", new Limit(20, 3000));
+        limits.put("registerForConference", new Limit(20, 3000));
+        limits.put("unregisterFromConference", new Limit(20, 3000));
+        limits.put("joinWaitlist", new Limit(20, 3000));
+        limits.put("leaveWaitlist", new Limit(20, 3000));
+        LIMITS = Collections.unmodifiableMap(limits);
+    }
+
+    /**
+     * A token bucket of one user and method on this instance.
+     */
+    static class TokenBucket {
+        private final Limit limit;
+        private double tokens;
+        private long refilled;
+
+        TokenBucket(final Limit limit, final long now) {
+            this.limit = limit;
+            this.tokens = limit.burst;
+            this.refilled = now;
+        }
+
+        /**
+         * Takes a token.
+         *
+         * @return 0 when a token was taken, otherwise the milliseconds until the next token.
+         */
+        synchronized long take(final long now) {
+            if (now > refilled) {
+                tokens = Math.min(limit.burst, tokens + (double) (now - refilled) / limit.refillMillis);
+                refilled = now;
+            }
+            if (tokens >= 1) {
+                tokens--;
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((1 - tokens) * limit.refillMillis));
+        }
+    }
+
+    private static final Map<String, TokenBucket> LOCAL = new LinkedHashMap<String, TokenBucket>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TokenBucket> eldest) {
+            return size() > LOCAL_CAPACITY;
+        }
+    };
+
+    private static final ConcurrentMap<String, AtomicLong> THROTTLED = new ConcurrentHashMap<>();
+
+    private RateLimiter() {
+    }
+
+    private static MemcacheService memcache() {
+        return MemcacheServiceFactory.getMemcacheService();
+    }
+
+    private static TokenBucket localBucket(final String key, final Limit limit, final long now) {
+        synchronized (LOCAL) {
+            TokenBucket bucket = LOCAL.get(key);
+            if (bucket == null) {
+                bucket = new TokenBucket(limit, now);
+                LOCAL.put(key, bucket);
+            }
+            return bucket;
+        }
+    }
+
+    /**
+     * Takes a request of the user to the method from the user's limit. Methods without a limit, and all
+     * methods when the limits are turned off, are always admitted.
+     *
+     * @param userId the user id of the caller.
+     * @param method the API method.
+     * @return 0 when the request is admitted, otherwise the milliseconds the user should wait before retrying.
+     */
+    public static long acquire(final String userId, final String method) {
+        Limit limit = LIMITS.get(method);
+        if (limit == null || !ENABLED) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        String key = method + "_" + userId;
+        long retryAfterMillis = localBucket(key, limit, now).take(now);
+        if (retryAfterMillis > 0) {
+            throttled(userId, method, "local", retryAfterMillis);
+            return retryAfterMillis;
+        }
+        long window = now / limit.windowMillis();
+        // the window is part of the key, counters of past windows are left to the memcache eviction
+        Long count = memcache().increment(MEMCACHE_PREFIX + key + "_" + window, 1L, 0L);
+        if (count != null && count > limit.burst) {
+            retryAfterMillis = (window + 1) * limit.windowMillis() - now;
+            throttled(userId, method, "shared", retryAfterMillis);
+            return retryAfterMillis;
+        }
+        return 0;
+    }
+
+    private static void throttled(final String userId, final String method, final String scope,
+                                  final long retryAfterMillis) {
+        AtomicLong count = THROTTLED.get(method);
+        if (count == null) {
+            THROTTLED.putIfAbsent(method, new AtomicLong());
+            count = THROTTLED.get(method);
+        }
+        LOG.warning("throttled method=" + method + " user=" + userId + " scope=" + scope + " retry_after_ms="
+                + retryAfterMillis + " throttled_total=" + count.incrementAndGet());
+    }
+
+    /**
+     * @return the throttled requests of this instance by API method.
+     */
+    public static Map<String, Long> getThrottled() {
+        Map<String, Long> throttled = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : THROTTLED.entrySet()) {
+            throttled.put(entry.getKey(), entry.getValue().get());
+        }
+        return throttled;
+    }
+
+    /**
+     * Forgets the local buckets and the throttle counts, for tests.
+     */
+    public static void reset() {
+        synchronized (LOCAL) {
+            LOCAL.clear();
+        }
+        THROTTLED.clear();
+    }
+}
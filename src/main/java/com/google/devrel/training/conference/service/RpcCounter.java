@@ -0,0 +1,174 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.apphosting.api.ApiProxy;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * Counts the API calls the current thread makes, by service and method, by wrapping the ApiProxy delegate
+ * every App Engine API call goes through. Calls are only counted between {@link #start()} and
+ * {@link #stop()} on the same thread.
+ */
+public class RpcCounter implements ApiProxy.Delegate<ApiProxy.Environment> {
+
+    private static final String DATASTORE = "datastore_v3";
+
+    private static final String MEMCACHE = "memcache";
+
+    private static final ThreadLocal<Counts> CURRENT = new ThreadLocal<>();
+
+    private final ApiProxy.Delegate<ApiProxy.Environment> delegate;
+
+    private RpcCounter(final ApiProxy.Delegate<ApiProxy.Environment> delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * The calls counted on one thread.
+     */
+    public static class Counts {
+        private final Map<String, Integer> calls = new HashMap<>();
+
+        private void count(final String service, final String method) {
+            String key = service + "." + method;
+            Integer current = calls.get(key);
+            calls.put(key, current == null ? 1 : current + 1);
+        }
+
+        /**
+         * @return the calls made to the method of the service.
+         */
+        public int get(final String service, final String method) {
+            Integer count = calls.get(service + "." + method);
+            return count == null ? 0 : count;
+        }
+
+        private int service(final String service) {
+            int count = 0;
+            for (Map.Entry<String, Integer> entry : calls.entrySet()) {
+                if (entry.getKey().startsWith(service + ".")) {
+                    count += entry.getValue();
+                }
+            }
+            return count;
+        }
+
+        public int getDatastoreGets() {
+            return get(DATASTORE, "Get");
+        }
+
+        public int getDatastorePuts() {
+            return get(DATASTORE, "Put");
+        }
+
+        /**
+         * @return the queries run, including the calls that fetched further batches of their results.
+         */
+        public int getDatastoreQueries() {
+            return get(DATASTORE, "RunQuery") + get(DATASTORE, "Next");
+        }
+
+        /**
+         * @return all datastore calls, including deletes, transactions and id allocations.
+         */
+        public int getDatastoreRpcs() {
+            return service(DATASTORE);
+        }
+
+        public int getMemcacheRpcs() {
+            return service(MEMCACHE);
+        }
+
+        @Override
+        public String toString() {
+            return "datastore_gets=" + getDatastoreGets() +
+                    " datastore_puts=" + getDatastorePuts() +
+                    " datastore_queries=" + getDatastoreQueries() +
+                    " datastore_rpcs=" + getDatastoreRpcs() +
+                    " memcache_rpcs=" + getMemcacheRpcs();
+        }
+    }
+
+    /**
+     * Wraps the current ApiProxy delegate, unless that has been done already.
+     */
+    @SuppressWarnings("unchecked")
+    public static synchronized void install() {
+        ApiProxy.Delegate<ApiProxy.Environment> current = ApiProxy.getDelegate();
+        if (current != null && !(current instanceof RpcCounter)) {
+            ApiProxy.setDelegate(new RpcCounter(current));
+        }
+    }
+
+    /**
+     * Restores the delegate that {@link #install()} wrapped, for tests that tear the delegate down.
+     */
+    public static synchronized void uninstall() {
+        ApiProxy.Delegate<?> current = ApiProxy.getDelegate();
+        if (current instanceof RpcCounter) {
+            ApiProxy.setDelegate(((RpcCounter) current).delegate);
+        }
+    }
+
+    /**
+     * Starts counting the calls of the current thread.
+     *
+     * @return the counts, they keep growing until {@link #stop()}.
+     */
+    public static Counts start() {
+        Counts counts = new Counts();
+        CURRENT.set(counts);
+        return counts;
+    }
+
+    /**
+     * Stops counting the calls of the current thread.
+     *
+     * @return the counts, null when counting was not started.
+     */
+    public static Counts stop() {
+        Counts counts = CURRENT.get();
+        CURRENT.remove();
+        return counts;
+    }
+
+    private static void count(final String service, final String method) {
+        Counts counts = CURRENT.get();
+        if (counts != null) {
+            counts.count(service, method);
+        }
+    }
+
+    @Override
+    public byte[] makeSyncCall(final ApiProxy.Environment environment, final String service, final String method,
+                               final byte[] request) throws ApiProxy.ApiProxyException {
+        count(service, method);
+        return delegate.makeSyncCall(environment, service, method, request);
+    }
+
+    @Override
+    public Future<byte[]> makeAsyncCall(final ApiProxy.Environment environment, final String service,
+                                        final String method, final byte[] request,
+                                        final ApiProxy.ApiConfig apiConfig) {
+        count(service, method);
+        return delegate.makeAsyncCall(environment, service, method, request, apiConfig);
+    }
+
+    @Override
+    public void log(final ApiProxy.Environment environment, final ApiProxy.LogRecord record) {
+        delegate.log(environment, record);
+    }
+
+    @Override
+    public void flushLogs(final ApiProxy.Environment environment) {
+        delegate.flushLogs(environment);
+    }
+
+    @Override
+    public List<Thread> getRequestThreads(final ApiProxy.Environment environment) {
+        return delegate.getRequestThreads(environment);
+    }
+}
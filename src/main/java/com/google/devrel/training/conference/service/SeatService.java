@@ -0,0 +1,415 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.SeatShard;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.impl.TransactionImpl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * Books and gives back conference seats on SeatShards, so registrations for one conference are spread over
+ * several entity groups instead of all writing the Conference.
+ *
+ * A booking updates one randomly picked shard that has room, and only when no single shard can take it
+ * spreads the seats over all shards. Every shard is updated transactionally and the shard capacities add up
+ * to maxAttendees, so a conference is never overbooked.
+ *
+ * The indexed seatsAvailable snapshot on the Conference is written behind: a booking enqueues a refresh task
+ * on the seat-snapshots queue that runs {@link #SEATS_CACHE_SECONDS} later, at most one pending per
+ * conference, so neither bookings nor reads write the Conference.
+ */
+public class SeatService {
+    private static final Logger LOG = Logger.getLogger(SeatService.class.getName());
+
+    /**
+     * Number of shards for new conferences. A transaction over all shards has to stay within the 25 entity
+     * groups a cross group transaction may touch.
+     */
+    public static final int SHARD_COUNT = 10;
+
+    /**
+     * How long the summed seat count is cached, and how long after a booking the indexed snapshot on the
+     * Conference is refreshed.
+     */
+    public static final int SEATS_CACHE_SECONDS = 10;
+
+    /**
+     * Number of single shards tried before booking over all shards.
+     */
+    private static final int SINGLE_SHARD_ATTEMPTS = 3;
+
+    public static final String QUEUE_NAME = "seat-snapshots";
+
+    public static final String TASK_URL = "/tasks/refresh_seats";
+
+    public static final String CONFERENCE_PARAM = "conference";
+
+    private static final String SEATS_CACHE_PREFIX = "SEATS_AVAILABLE_";
+
+    private static final String REFRESH_PENDING_PREFIX = "SEATS_REFRESH_PENDING_";
+
+    private static final Random RANDOM = new Random();
+
+    private SeatService() {
+    }
+
+    private static MemcacheService memcache() {
+        return MemcacheServiceFactory.getMemcacheService();
+    }
+
+    private static String cacheKey(final Key<Conference> conferenceKey) {
+        return SEATS_CACHE_PREFIX + conferenceKey.getString();
+    }
+
+    /**
+     * Creates the shards for a conference, the caller saves them together with the conference.
+     *
+     * @param conference the conference, its seats are marked as sharded.
+     * @return the shards to save.
+     */
+    public static List<SeatShard> createShards(final Conference conference) {
+        conference.shardSeats(SHARD_COUNT);
+        return SeatShard.split(conference.getKey(), SHARD_COUNT, conference.getMaxAttendees(),
+                conference.getSeatsAvailable());
+    }
+
+    /**
+     * Shards the seats of a conference on its first booking, using its seatsAvailable as the starting point,
+     * so creating a conference only writes the Conference. Runs in a transaction of its own, with the bounded
+     * retries of {@link TransactionService}, even when called inside another one.
+     *
+     * @return the number of shards of the conference.
+     */
+    private static int ensureShards(final Conference conference) {
+        if (conference.getSeatShardCount() > 0) {
+            return conference.getSeatShardCount();
+        }
+        int shardCount = TransactionService.transact("ensureShards", new Work<Integer>() {
+            @Override
+            public Integer run() {
+                Conference current = ofy().load().key(conference.getKey()).now();
+                if (current.getSeatShardCount() == 0) {
+                    LOG.info("Sharding the seats of " + current.getWebsafeKey());
+                    ofy().save().entities(createShards(current));
+                    ofy().save().entity(current);
+                }
+                return current.getSeatShardCount();
+            }
+        });
+        conference.shardSeats(shardCount);
+        ConferenceCache.invalidate(conference.getKey());
+        return shardCount;
+    }
+
+    /**
+     * Books seats of the conference in a transaction of its own.
+     *
+     * @param conference the conference to book seats for.
+     * @param number     the number of seats.
+     * @throws IllegalArgumentException when there are not enough seats left.
+     */
+    public static void bookSeats(final Conference conference, final int number) {
+        updateSeats("bookSeats", conference, number);
+    }
+
+    /**
+     * Gives back seats of the conference in a transaction of its own.
+     *
+     * @param conference the conference to give the seats back to.
+     * @param number     the number of seats.
+     * @throws IllegalArgumentException when the seats would exceed the capacity of the conference.
+     */
+    public static void giveBackSeats(final Conference conference, final int number) {
+        updateSeats("giveBackSeats", conference, -number);
+    }
+
+    private static void updateSeats(final String name, final Conference conference, final int delta) {
+        TransactionService.transact(name, new VoidWork() {
+            @Override
+            public void vrun() {
+                updateSeatsInTransaction(conference, delta);
+            }
+        });
+    }
+
+    /**
+     * Books seats of the conference as part of the current transaction, which usually touches only one shard
+     * entity group.
+     *
+     * @param conference the conference to book seats for.
+     * @param number     the number of seats.
+     * @throws IllegalArgumentException when there are not enough seats left.
+     */
+    public static void bookSeatsInTransaction(final Conference conference, final int number) {
+        updateSeatsInTransaction(conference, number);
+    }
+
+    /**
+     * Gives back seats of the conference as part of the current transaction.
+     *
+     * @param conference the conference to give the seats back to.
+     * @param number     the number of seats.
+     * @throws IllegalArgumentException when the seats would exceed the capacity of the conference.
+     */
+    public static void giveBackSeatsInTransaction(final Conference conference, final int number) {
+        updateSeatsInTransaction(conference, -number);
+    }
+
+    /**
+     * Picks the shards that look like they have room with a read outside the transaction, so the other
+     * shards do not join the transaction. The picked shard is then read again in the transaction; when it has
+     * no room after all, the next one is tried, and after {@link #SINGLE_SHARD_ATTEMPTS} the seats are spread
+     * over all shards.
+     *
+     * @param delta seats to book when positive, seats to give back when negative.
+     */
+    private static void updateSeatsInTransaction(final Conference conference, final int delta) {
+        final int shardCount = ensureShards(conference);
+        List<Key<SeatShard>> keys = SeatShard.keys(conference.getKey(), shardCount);
+
+        List<Key<SeatShard>> candidates = new ArrayList<>();
+        int total = 0;
+        for (SeatShard shard : ofy().transactionless().load().keys(keys).values()) {
+            int room = room(shard, delta);
+            total += room;
+            if (room >= Math.abs(delta)) {
+                candidates.add(Key.create(shard));
+            }
+        }
+        if (total < Math.abs(delta)) {
+            throw noRoom(delta);
+        }
+        Collections.shuffle(candidates, RANDOM);
+        boolean updated = false;
+        for (int i = 0; i < candidates.size() && i < SINGLE_SHARD_ATTEMPTS && !updated; i++) {
+            SeatShard shard = ofy().load().key(candidates.get(i)).now();
+            if (room(shard, delta) >= Math.abs(delta)) {
+                apply(shard, delta);
+                ofy().save().entity(shard);
+                updated = true;
+            }
+        }
+        if (!updated) {
+            updateAcrossShards(keys, delta);
+        }
+        adjustCachedSeatsOnCommit(conference.getKey(), -delta);
+    }
+
+    /**
+     * @return the seats the shard can book when delta is positive, or take back when it is negative.
+     */
+    private static int room(final SeatShard shard, final int delta) {
+        return delta > 0 ? shard.getSeatsAvailable() : shard.getMaxSeats() - shard.getSeatsAvailable();
+    }
+
+    /**
+     * @return the exception the unsharded Conference throws for the same situation.
+     */
+    private static IllegalArgumentException noRoom(final int delta) {
+        return new IllegalArgumentException(delta > 0 ? "There are no seats available."
+                : "The number of seats will exceed the capacity.");
+    }
+
+    private static void apply(final SeatShard shard, final int delta) {
+        if (delta > 0) {
+            shard.bookSeats(delta);
+        } else {
+            shard.giveBackSeats(-delta);
+        }
+    }
+
+    /**
+     * Spreads the seats over as many shards as needed in the current transaction.
+     *
+     * @throws IllegalArgumentException when all shards together do not have room.
+     */
+    private static void updateAcrossShards(final List<Key<SeatShard>> keys, final int delta) {
+        Map<Key<SeatShard>, SeatShard> shards = ofy().load().keys(keys);
+        int remaining = Math.abs(delta);
+        List<SeatShard> changed = new ArrayList<>();
+        for (SeatShard shard : shards.values()) {
+            int seats = Math.min(remaining, room(shard, delta));
+            if (seats > 0) {
+                apply(shard, delta > 0 ? seats : -seats);
+                changed.add(shard);
+                remaining -= seats;
+            }
+        }
+        if (remaining > 0) {
+            throw noRoom(delta);
+        }
+        ofy().save().entities(changed);
+    }
+
+    /**
+     * Adjusts the cached aggregate once the current transaction commits. Only an aggregate that is already
+     * cached is touched, a miss is recomputed from the shards.
+     */
+    private static void adjustCachedSeatsOnCommit(final Key<Conference> conferenceKey, final int delta) {
+        ((TransactionImpl) ofy().getTransaction()).listenForCommit(new Runnable() {
+            @Override
+            public void run() {
+                memcache().increment(cacheKey(conferenceKey), delta);
+                ConferenceCache.evictLocal(conferenceKey.getString());
+                scheduleRefresh(conferenceKey);
+            }
+        });
+    }
+
+    /**
+     * Applies the form to the conference as part of the current transaction, checking the new capacity
+     * against the seats allocated on the shards and splitting the new capacity over the shards.
+     *
+     * @param conference     the conference loaded in the current transaction.
+     * @param conferenceForm the new values.
+     * @throws IllegalArgumentException when maxAttendees is less than the seats already allocated.
+     */
+    public static void updateWithConferenceForm(final Conference conference, final ConferenceForm conferenceForm) {
+        if (conference.getSeatShardCount() == 0) {
+            conference.updateWithConferenceForm(conferenceForm);
+            return;
+        }
+        final Key<Conference> conferenceKey = conference.getKey();
+        List<Key<SeatShard>> keys = SeatShard.keys(conferenceKey, conference.getSeatShardCount());
+        int seatsAvailable = 0;
+        for (SeatShard shard : ofy().load().keys(keys).values()) {
+            seatsAvailable += shard.getSeatsAvailable();
+        }
+        conference.syncSeatsAvailable(seatsAvailable);
+        conference.updateWithConferenceForm(conferenceForm);
+        ofy().save().entities(SeatShard.split(conferenceKey, conference.getSeatShardCount(),
+                conference.getMaxAttendees(), conference.getSeatsAvailable()));
+        ((TransactionImpl) ofy().getTransaction()).listenForCommit(new Runnable() {
+            @Override
+            public void run() {
+                memcache().delete(cacheKey(conferenceKey));
+            }
+        });
+    }
+
+    /**
+     * Sets the seats available of the conferences to the sum of their shards. Cached sums are used where
+     * present, the shards of the other conferences are loaded in one batch. Conferences whose indexed
+     * snapshot has drifted from the shards get a refresh scheduled, nothing is written here.
+     *
+     * @param conferences the conferences about to be returned to the client.
+     */
+    public static void resolveSeatsAvailable(final List<Conference> conferences) {
+        Map<String, Conference> sharded = new HashMap<>();
+        for (Conference conference : conferences) {
+            if (conference.getSeatShardCount() > 0) {
+                sharded.put(cacheKey(conference.getKey()), conference);
+            }
+        }
+        if (sharded.isEmpty()) {
+            return;
+        }
+        Map<String, Object> cached = memcache().getAll(sharded.keySet());
+        List<Key<SeatShard>> missingKeys = new ArrayList<>();
+        List<Conference> missing = new ArrayList<>();
+        for (Map.Entry<String, Conference> entry : sharded.entrySet()) {
+            Conference conference = entry.getValue();
+            Object seats = cached.get(entry.getKey());
+            if (seats != null) {
+                conference.syncSeatsAvailable(((Number) seats).intValue());
+            } else {
+                missing.add(conference);
+                missingKeys.addAll(SeatShard.keys(conference.getKey(), conference.getSeatShardCount()));
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        Map<Key<SeatShard>, SeatShard> shards = ofy().load().keys(missingKeys);
+        Map<String, Object> sums = new HashMap<>();
+        for (Conference conference : missing) {
+            long seats = 0;
+            for (Key<SeatShard> key : SeatShard.keys(conference.getKey(), conference.getSeatShardCount())) {
+                SeatShard shard = shards.get(key);
+                seats += shard == null ? 0 : shard.getSeatsAvailable();
+            }
+            sums.put(cacheKey(conference.getKey()), seats);
+            if (seats != conference.getSeatsAvailable()) {
+                scheduleRefresh(conference.getKey());
+            }
+            conference.syncSeatsAvailable((int) seats);
+        }
+        memcache().putAll(sums, Expiration.byDeltaSeconds(SEATS_CACHE_SECONDS));
+    }
+
+    /**
+     * Enqueues a refresh of the indexed snapshot of the conference, unless one is pending already. The task
+     * runs {@link #SEATS_CACHE_SECONDS} later, so all bookings made meanwhile are written with one transaction.
+     *
+     * @param conferenceKey the key of the conference.
+     */
+    static void scheduleRefresh(final Key<Conference> conferenceKey) {
+        String pendingKey = REFRESH_PENDING_PREFIX + conferenceKey.getString();
+        // outlives the countdown in case the task is retried, refreshSnapshot removes it when it starts
+        if (!memcache().put(pendingKey, Boolean.TRUE, Expiration.byDeltaSeconds(6 * SEATS_CACHE_SECONDS),
+                SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+            return;
+        }
+        try {
+            QueueFactory.getQueue(QUEUE_NAME).add(TaskOptions.Builder.withUrl(TASK_URL)
+                    .param(CONFERENCE_PARAM, conferenceKey.getString())
+                    .countdownMillis(SEATS_CACHE_SECONDS * 1000L));
+        } catch (RuntimeException e) {
+            // the seats are committed already, the next booking or read schedules the refresh again
+            memcache().delete(pendingKey);
+            LOG.warning("Could not schedule the seats refresh of " + conferenceKey.getString() + ": " + e);
+        }
+    }
+
+    /**
+     * Writes the sum of the shards to the indexed snapshot of the conference, when it differs. The pending
+     * marker is removed before the shards are read, so a booking committed later schedules another refresh.
+     *
+     * @param conferenceKey the key of the conference.
+     */
+    public static void refreshSnapshot(final Key<Conference> conferenceKey) {
+        memcache().delete(REFRESH_PENDING_PREFIX + conferenceKey.getString());
+        Conference conference = ofy().load().key(conferenceKey).now();
+        if (conference == null || conference.getSeatShardCount() == 0) {
+            return;
+        }
+        int sum = 0;
+        for (SeatShard shard : ofy().load().keys(
+                SeatShard.keys(conferenceKey, conference.getSeatShardCount())).values()) {
+            sum += shard.getSeatsAvailable();
+        }
+        final int seatsAvailable = sum;
+        if (seatsAvailable == conference.getSeatsAvailable()) {
+            return;
+        }
+        TransactionService.transact("refreshSeatsSnapshot", new VoidWork() {
+            @Override
+            public void vrun() {
+                Conference current = ofy().load().key(conferenceKey).now();
+                if (current.getSeatsAvailable() != seatsAvailable) {
+                    current.syncSeatsAvailable(seatsAvailable);
+                    ofy().save().entity(current);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,154 @@
+package com.google.devrel.training.conference.service;
+
+import com.googlecode.objectify.Work;
+
+import java.util.ConcurrentModificationException;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * Runs datastore transactions that are retried with bounded exponential backoff and jitter when they lose
+ * against a concurrent transaction, and keeps per transaction name counts of the retries and contention
+ * failures.
+ */
+public class TransactionService {
+    private static final Logger LOG = Logger.getLogger(TransactionService.class.getName());
+
+    /**
+     * Attempts made before the contention is reported to the caller.
+     */
+    public static final int MAX_ATTEMPTS = 5;
+
+    private static final long BASE_BACKOFF_MILLIS = 20;
+
+    private static final long MAX_BACKOFF_MILLIS = 1000;
+
+    private static final Random RANDOM = new Random();
+
+    private static final ConcurrentMap<String, TransactionStats> STATS = new ConcurrentHashMap<>();
+
+    private TransactionService() {
+    }
+
+    /**
+     * Counters of one kind of transaction since the instance started.
+     */
+    public static class TransactionStats {
+        private final AtomicLong committed = new AtomicLong();
+        private final AtomicLong retries = new AtomicLong();
+        private final AtomicLong contentionFailures = new AtomicLong();
+        private final AtomicLong exhausted = new AtomicLong();
+
+        /**
+         * @return the transactions that committed.
+         */
+        public long getCommitted() {
+            return committed.get();
+        }
+
+        /**
+         * @return the attempts that were made after a first one failed.
+         */
+        public long getRetries() {
+            return retries.get();
+        }
+
+        /**
+         * @return the attempts that failed with a ConcurrentModificationException.
+         */
+        public long getContentionFailures() {
+            return contentionFailures.get();
+        }
+
+        /**
+         * @return the transactions that gave up after {@link #MAX_ATTEMPTS} contention failures.
+         */
+        public long getExhausted() {
+            return exhausted.get();
+        }
+
+        @Override
+        public String toString() {
+            return "committed=" + committed +
+                    ", retries=" + retries +
+                    ", contentionFailures=" + contentionFailures +
+                    ", exhausted=" + exhausted;
+        }
+    }
+
+    private static TransactionStats statsFor(final String name) {
+        TransactionStats stats = STATS.get(name);
+        if (stats == null) {
+            STATS.putIfAbsent(name, new TransactionStats());
+            stats = STATS.get(name);
+        }
+        return stats;
+    }
+
+    /**
+     * @return a snapshot of the counters by transaction name.
+     */
+    public static Map<String, TransactionStats> getStats() {
+        return new TreeMap<>(STATS);
+    }
+
+    /**
+     * Forgets all counters, for tests and load runs that compare one run with the next.
+     */
+    public static void resetStats() {
+        STATS.clear();
+    }
+
+    /**
+     * Runs the work in a new transaction, retrying it when the commit fails because of contention.
+     *
+     * @param name identifies the transaction in the counters and the log.
+     * @param work the work to run, it may run several times.
+     * @return the result of the attempt that committed.
+     * @throws ConcurrentModificationException when all {@link #MAX_ATTEMPTS} attempts lost against concurrent
+     *                                         transactions.
+     */
+    public static <R> R transact(final String name, final Work<R> work) {
+        TransactionStats stats = statsFor(name);
+        for (int attempt = 0; ; attempt++) {
+            try {
+                R result = ofy().transactNew(1, work);
+                stats.committed.incrementAndGet();
+                if (attempt > 0) {
+                    LOG.info("Transaction " + name + " committed after " + attempt + " retries");
+                }
+                return result;
+            } catch (ConcurrentModificationException e) {
+                stats.contentionFailures.incrementAndGet();
+                if (attempt + 1 >= MAX_ATTEMPTS) {
+                    stats.exhausted.incrementAndGet();
+                    LOG.warning("Transaction " + name + " gave up after " + MAX_ATTEMPTS + " attempts: " + stats);
+                    throw e;
+                }
+                stats.retries.incrementAndGet();
+                backoff(attempt);
+            }
+        }
+    }
+
+    /**
+     * Sleeps a random time up to the exponential backoff of the attempt ("full jitter"), so transactions
+     * that collided do not collide again on their retry.
+     */
+    private static void backoff(final int attempt) {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << attempt);
+        try {
+            Thread.sleep((long) (RANDOM.nextDouble() * ceiling));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConcurrentModificationException("Interrupted while backing off");
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Waitlist;
+import com.google.devrel.training.conference.domain.WaitlistEntry;
+import com.google.devrel.training.conference.domain.WaitlistPosition;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.impl.TransactionImpl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * Waitlists of sold out conferences. Users join once and are told their position, instead of retrying the
+ * registration; every released seat enqueues a task that promotes the next waiting users, in the order they
+ * joined, in batches of {@link #BATCH_SIZE}. Each promotion books the seat, registers the user and moves the
+ * waitlist on in one cross group transaction, so a task that is retried or runs twice promotes nobody twice.
+ *
+ * Users who register for or unregister from the conference directly, or leave the waitlist, have their entry
+ * consumed in the same transaction, and the promotion passes over it, so nobody is booked into a conference
+ * they have dealt with themselves since joining.
+ *
+ * Joining writes the Waitlist, which hands out the tickets, so the joins to one conference are limited to
+ * the write rate of its entity group. That is accepted: a user joins once and then polls the cached position,
+ * where the registrations it replaces were retried by every user until a seat came free.
+ *
+ * The size and the promoted ticket of every waitlist are cached in memcache. Positions are computed from them
+ * and the user's cached WaitlistEntry, and registerForConference turns users away while the cached counters
+ * show anyone waiting, so released seats go to the waitlist first. When memcache has lost the counters,
+ * registrations are let through until the next join or promotion caches them again.
+ */
+public class WaitlistService {
+    private static final Logger LOG = Logger.getLogger(WaitlistService.class.getName());
+
+    public static final String QUEUE_NAME = "waitlist";
+
+    public static final String TASK_URL = "/tasks/promote_waitlist";
+
+    public static final String CONFERENCE_PARAM = "conference";
+
+    /**
+     * Users promoted per task.
+     */
+    static final int BATCH_SIZE = 20;
+
+    private static final String SIZE_PREFIX = "WAITLIST_SIZE_";
+
+    private static final String PROMOTED_PREFIX = "WAITLIST_PROMOTED_";
+
+    private enum Promotion {PROMOTED, SKIPPED, NO_SEATS}
+
+    private WaitlistService() {
+    }
+
+    private static MemcacheService memcache() {
+        return MemcacheServiceFactory.getMemcacheService();
+    }
+
+    /**
+     * Caches the counters of the waitlist as they have been committed.
+     */
+    private static void cacheCounters(final Key<Conference> conferenceKey, final long size, final long promoted) {
+        Map<String, Object> counters = new HashMap<>();
+        counters.put(SIZE_PREFIX + conferenceKey.getString(), size);
+        counters.put(PROMOTED_PREFIX + conferenceKey.getString(), promoted);
+        memcache().putAll(counters);
+    }
+
+    /**
+     * @return the cached size and promoted ticket of the waitlist, null when memcache does not have both.
+     */
+    private static long[] cachedCounters(final Key<Conference> conferenceKey) {
+        String sizeKey = SIZE_PREFIX + conferenceKey.getString();
+        String promotedKey = PROMOTED_PREFIX + conferenceKey.getString();
+        Map<String, Object> counters = memcache().getAll(Arrays.asList(sizeKey, promotedKey));
+        Object size = counters.get(sizeKey);
+        Object promoted = counters.get(promotedKey);
+        if (size == null || promoted == null) {
+            return null;
+        }
+        return new long[]{((Number) size).longValue(), ((Number) promoted).longValue()};
+    }
+
+    /**
+     * @return the size and promoted ticket of the waitlist, from memcache or, on a miss, from the datastore.
+     */
+    private static long[] counters(final Key<Conference> conferenceKey) {
+        long[] counters = cachedCounters(conferenceKey);
+        if (counters == null) {
+            Waitlist waitlist = ofy().load().key(Waitlist.key(conferenceKey)).now();
+            counters = waitlist == null ? new long[]{0, 0}
+                    : new long[]{waitlist.getSize(), waitlist.getPromoted()};
+            cacheCounters(conferenceKey, counters[0], counters[1]);
+        }
+        return counters;
+    }
+
+    /**
+     * Tells from memcache alone whether users are waiting for the conference.
+     *
+     * @param conferenceKey the key of the conference.
+     * @return true when the cached counters show users waiting, false when they do not or are not cached.
+     */
+    public static boolean hasWaiting(final Key<Conference> conferenceKey) {
+        long[] counters = cachedCounters(conferenceKey);
+        return counters != null && counters[0] > counters[1];
+    }
+
+    /**
+     * Puts the user on the waitlist of the conference, unless the user is on it already, and enqueues a
+     * promotion in case seats are free. A user whose entry has been consumed joins at the end again.
+     *
+     * @param conferenceKey the key of the conference.
+     * @param userId        the user id of the user who joins.
+     * @return the user's position.
+     */
+    public static WaitlistPosition join(final Key<Conference> conferenceKey, final String userId) {
+        final Key<Waitlist> waitlistKey = Waitlist.key(conferenceKey);
+        // the waitlist and its entries are one entity group
+        return TransactionService.transact("joinWaitlist", new Work<WaitlistPosition>() {
+            @Override
+            public WaitlistPosition run() {
+                Waitlist waitlist = ofy().load().key(waitlistKey).now();
+                if (waitlist == null) {
+                    waitlist = new Waitlist(conferenceKey);
+                }
+                WaitlistEntry entry = ofy().load().key(WaitlistEntry.key(waitlistKey, userId)).now();
+                if (entry == null || entry.isConsumed()) {
+                    entry = new WaitlistEntry(waitlistKey, userId, waitlist.append());
+                    ofy().save().entities(waitlist, entry);
+                    add(ofy().getTransaction(), conferenceKey);
+                }
+                cacheCountersOnCommit(waitlist);
+                return position(entry, waitlist.getSize(), waitlist.getPromoted());
+            }
+        });
+    }
+
+    /**
+     * Returns the user's position on the waitlist from the cached entry and counters.
+     *
+     * @param conferenceKey the key of the conference.
+     * @param userId        the user id.
+     * @return the user's position, null when the user has never joined the waitlist.
+     */
+    public static WaitlistPosition getPosition(final Key<Conference> conferenceKey, final String userId) {
+        WaitlistEntry entry = ofy().load().key(WaitlistEntry.key(Waitlist.key(conferenceKey), userId)).now();
+        if (entry == null) {
+            return null;
+        }
+        long[] counters = counters(conferenceKey);
+        return position(entry, counters[0], counters[1]);
+    }
+
+    private static WaitlistPosition position(final WaitlistEntry entry, final long size, final long promoted) {
+        long ticket = entry.getTicket();
+        boolean waiting = !entry.isConsumed() && ticket > promoted;
+        return new WaitlistPosition(ticket, waiting ? ticket - promoted : 0, size - promoted);
+    }
+
+    /**
+     * Tells from the cached entry whether the user may still be promoted from the waitlist.
+     *
+     * @param conferenceKey the key of the conference.
+     * @param userId        the user id.
+     * @return true when the user has an entry that has not been consumed.
+     */
+    public static boolean isWaiting(final Key<Conference> conferenceKey, final String userId) {
+        WaitlistEntry entry = ofy().load().key(WaitlistEntry.key(Waitlist.key(conferenceKey), userId)).now();
+        return entry != null && !entry.isConsumed();
+    }
+
+    /**
+     * Consumes the user's entry as part of the current transaction, for users who register for or unregister
+     * from the conference directly. Callers check {@link #isWaiting(Key, String)} first, so transactions of
+     * users who are not on the waitlist do not enlist its entity group.
+     *
+     * @param conferenceKey the key of the conference.
+     * @param userId        the user id.
+     */
+    public static void consumeInTransaction(final Key<Conference> conferenceKey, final String userId) {
+        WaitlistEntry entry = ofy().load().key(WaitlistEntry.key(Waitlist.key(conferenceKey), userId)).now();
+        if (entry != null && !entry.isConsumed()) {
+            entry.consume();
+            ofy().save().entity(entry);
+        }
+    }
+
+    /**
+     * Takes the user off the waitlist of the conference and enqueues a promotion, which moves the waitlist
+     * past the entry when seats are free.
+     *
+     * @param conferenceKey the key of the conference.
+     * @param userId        the user id of the user who leaves.
+     * @return false when the user is not waiting for the conference.
+     */
+    public static boolean leave(final Key<Conference> conferenceKey, final String userId) {
+        final Key<Waitlist> waitlistKey = Waitlist.key(conferenceKey);
+        return TransactionService.transact("leaveWaitlist", new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                Waitlist waitlist = ofy().load().key(waitlistKey).now();
+                WaitlistEntry entry = ofy().load().key(WaitlistEntry.key(waitlistKey, userId)).now();
+                if (waitlist == null || entry == null || entry.isConsumed()
+                        || entry.getTicket() <= waitlist.getPromoted()) {
+                    return false;
+                }
+                entry.consume();
+                ofy().save().entity(entry);
+                add(ofy().getTransaction(), conferenceKey);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Enqueues the promotion of the waiting users as part of the current transaction, so it only runs when
+     * the seat has been given back.
+     *
+     * @param conferenceKey the key of the conference.
+     */
+    public static void enqueuePromotionInTransaction(final Key<Conference> conferenceKey) {
+        add(ofy().getTransaction(), conferenceKey);
+    }
+
+    /**
+     * Enqueues the promotion of the next batch of waiting users.
+     *
+     * @param conferenceKey the key of the conference.
+     */
+    public static void enqueuePromotion(final Key<Conference> conferenceKey) {
+        add(null, conferenceKey);
+    }
+
+    private static void add(final Transaction transaction, final Key<Conference> conferenceKey) {
+        QueueFactory.getQueue(QUEUE_NAME).add(transaction,
+                TaskOptions.Builder.withUrl(TASK_URL).param(CONFERENCE_PARAM, conferenceKey.getString()));
+    }
+
+    /**
+     * Promotes waiting users, in the order of their tickets, until {@link #BATCH_SIZE} have left the waitlist
+     * or the seats run out. Consumed entries, users who have registered in the meantime and users without a
+     * profile are skipped.
+     *
+     * @param conferenceKey the key of the conference.
+     * @return true when users are still waiting and seats may be left, so the next batch should run.
+     */
+    public static boolean promoteBatch(final Key<Conference> conferenceKey) {
+        final Conference conference = ofy().load().key(conferenceKey).now();
+        Key<Waitlist> waitlistKey = Waitlist.key(conferenceKey);
+        Waitlist waitlist = ofy().load().key(waitlistKey).now();
+        if (conference == null || waitlist == null || waitlist.getWaiting() == 0) {
+            return false;
+        }
+        List<WaitlistEntry> entries = ofy().load().type(WaitlistEntry.class).ancestor(waitlistKey)
+                .filter("ticket >", waitlist.getPromoted()).order("ticket").limit(BATCH_SIZE).list();
+        int promoted = 0;
+        for (final WaitlistEntry entry : entries) {
+            Promotion promotion = TransactionService.transact("promoteFromWaitlist", new Work<Promotion>() {
+                @Override
+                public Promotion run() {
+                    return promote(conference, entry);
+                }
+            });
+            if (promotion == Promotion.NO_SEATS) {
+                LOG.info("Promoted " + promoted + " from the waitlist of " + conferenceKey.getString()
+                        + ", no seats left");
+                return false;
+            }
+            if (promotion == Promotion.PROMOTED) {
+                promoted++;
+            }
+        }
+        LOG.info("Promoted " + promoted + " of " + entries.size() + " from the waitlist of "
+                + conferenceKey.getString());
+        return entries.size() == BATCH_SIZE;
+    }
+
+    /**
+     * Caches the counters once the current transaction commits.
+     */
+    private static void cacheCountersOnCommit(final Waitlist waitlist) {
+        ((TransactionImpl) ofy().getTransaction()).listenForCommit(new Runnable() {
+            @Override
+            public void run() {
+                cacheCounters(waitlist.getConferenceKey(), waitlist.getSize(), waitlist.getPromoted());
+            }
+        });
+    }
+
+    /**
+     * Gives the entry's user a seat and moves the waitlist on, in the current transaction.
+     */
+    private static Promotion promote(final Conference conference, final WaitlistEntry queried) {
+        Key<Waitlist> waitlistKey = Waitlist.key(conference.getKey());
+        Waitlist waitlist = ofy().load().key(waitlistKey).now();
+        if (waitlist.getPromoted() >= queried.getTicket()) {
+            // an overlapping task got here first
+            return Promotion.SKIPPED;
+        }
+        // the query ran outside the transaction, the entry may have been consumed or replaced since
+        WaitlistEntry entry = ofy().load().key(WaitlistEntry.key(waitlistKey, queried.getUserId())).now();
+        boolean current = entry != null && !entry.isConsumed() && entry.getTicket() == queried.getTicket();
+        Profile profile = current ? ofy().load().key(Key.create(Profile.class, entry.getUserId())).now() : null;
+        String websafeKey = conference.getWebsafeKey();
+        Promotion promotion = Promotion.SKIPPED;
+        if (profile != null && !profile.getConferenceKeysToAttend().contains(websafeKey)) {
+            try {
+                SeatService.bookSeatsInTransaction(conference, 1);
+            } catch (IllegalArgumentException e) {
+                return Promotion.NO_SEATS;
+            }
+            profile.addToConferenceKeysToAttend(websafeKey);
+            ofy().save().entity(profile);
+            promotion = Promotion.PROMOTED;
+        }
+        waitlist.promote(queried.getTicket());
+        ofy().save().entity(waitlist);
+        cacheCountersOnCommit(waitlist);
+        return promotion;
+    }
+}
@@ -0,0 +1,124 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.Entity;
+import com.googlecode.objectify.impl.TransactionImpl;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * Estimates the datastore write operations of the entities an API method saves, from the indexed property
+ * values Objectify writes for them. Composite indexes are not counted.
+ *
+ * A new entity costs 2 operations plus 2 per indexed value, an update 1 operation plus 4 per indexed value,
+ * assuming every indexed value changed.
+ *
+ * Counting converts every entity to its datastore form, so it only happens when the logger of this class logs
+ * FINE, and the estimates are logged at that level, one line per API call with the WriteOps as the parameter
+ * of the record. Entities added inside a transaction are counted when the attempt commits, so retried
+ * attempts are not counted twice.
+ */
+public class WriteOps {
+    private static final Logger LOG = Logger.getLogger(WriteOps.class.getName());
+
+    private final String method;
+    private int entities;
+    private int indexedValues;
+    private int operations;
+
+    /**
+     * Starts tracking the writes of an API method.
+     *
+     * @param method the name of the API method.
+     */
+    public WriteOps(final String method) {
+        this.method = method;
+    }
+
+    /**
+     * @return true when the writes are counted and logged.
+     */
+    public static boolean isEnabled() {
+        return LOG.isLoggable(Level.FINE);
+    }
+
+    /**
+     * Adds an entity that is about to be saved. Inside a transaction it is counted once the transaction
+     * commits.
+     *
+     * @param entity  the entity.
+     * @param created true when the entity does not exist in the datastore yet.
+     * @return this, for chaining.
+     */
+    public WriteOps add(final Object entity, final boolean created) {
+        if (!isEnabled()) {
+            return this;
+        }
+        if (ofy().getTransaction() == null) {
+            count(entity, created);
+        } else {
+            ((TransactionImpl) ofy().getTransaction()).listenForCommit(new Runnable() {
+                @Override
+                public void run() {
+                    count(entity, created);
+                }
+            });
+        }
+        return this;
+    }
+
+    private void count(final Object entity, final boolean created) {
+        int values = indexedValues(ofy().save().toEntity(entity));
+        entities++;
+        indexedValues += values;
+        operations += created ? 2 + 2 * values : 1 + 4 * values;
+    }
+
+    private static int indexedValues(final Entity entity) {
+        int values = 0;
+        for (Map.Entry<String, Object> property : entity.getProperties().entrySet()) {
+            if (entity.isUnindexedProperty(property.getKey())) {
+                continue;
+            }
+            Object value = property.getValue();
+            values += value instanceof Collection ? ((Collection<?>) value).size() : 1;
+        }
+        return values;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public int getEntities() {
+        return entities;
+    }
+
+    public int getIndexedValues() {
+        return indexedValues;
+    }
+
+    public int getOperations() {
+        return operations;
+    }
+
+    /**
+     * Logs the writes, one line per API call. Call it once the transactions that added entities have
+     * committed.
+     */
+    public void log() {
+        if (isEnabled()) {
+            LOG.log(Level.FINE, "{0}", this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return method + " wrote " + entities + " entities with " + indexedValues + " indexed values, about "
+                + operations + " write ops";
+    }
+}
@@ -0,0 +1,194 @@
+package com.google.devrel.training.conference.servlet;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Answers conditional requests for getConference with 304 Not Modified when the response has not changed.
+ * The ETag is a digest of the response body the endpoint produced, so it always describes the content that
+ * was actually served, whichever cache tier it came from. A 304 still runs the endpoint, which is served from
+ * the conference caches, so it saves sending the body but not the work of producing it.
+ *
+ * Only API methods that clients call with GET are answered. The Endpoints frontend forwards every call to
+ * the SPI as a POST, so the verb that counts is the one declared on the API method.
+ */
+public class ConditionalGetFilter implements Filter {
+
+    public static final String ETAG_HEADER = "ETag";
+
+    public static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+
+    /**
+     * The GET API methods whose responses only depend on their parameters and the conferences.
+     */
+    static final Set<String> METHODS = new HashSet<>(Arrays.asList("getConference"));
+
+    /**
+     * Keeps the body and the status of the response, so the ETag can be derived before anything is sent.
+     * Errors are passed on right away.
+     */
+    private static class BufferedResponse extends HttpServletResponseWrapper {
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private int status = SC_OK;
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+
+        BufferedResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public void setStatus(int status) {
+            this.status = status;
+            super.setStatus(status);
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void setStatus(int status, String message) {
+            this.status = status;
+            super.setStatus(status, message);
+        }
+
+        @Override
+        public void sendError(int status) throws IOException {
+            this.status = status;
+            super.sendError(status);
+        }
+
+        @Override
+        public void sendError(int status, String message) throws IOException {
+            this.status = status;
+            super.sendError(status, message);
+        }
+
+        @Override
+        public void setContentLength(int length) {
+            // the length of the body that is sent is only known once the ETag has been checked
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            if (outputStream == null) {
+                outputStream = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) {
+                        body.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) {
+                        body.write(b, off, len);
+                    }
+                };
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                String encoding = getCharacterEncoding();
+                writer = new PrintWriter(new OutputStreamWriter(getOutputStream(),
+                        encoding == null ? "ISO-8859-1" : encoding));
+            }
+            return writer;
+        }
+
+        @Override
+        public void flushBuffer() {
+            // nothing is committed before the ETag has been checked
+        }
+
+        byte[] getBody() {
+            if (writer != null) {
+                writer.flush();
+            }
+            return body.toByteArray();
+        }
+    }
+
+    /**
+     * @return the weak ETag of a response body.
+     */
+    static String etag(final byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(body);
+            StringBuilder etag = new StringBuilder("W/\"");
+            for (byte b : digest) {
+                etag.append(String.format("%02x", b));
+            }
+            return etag.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return true when the If-None-Match header lists the ETag or is "*".
+     */
+    static boolean matches(final String ifNoneMatch, final String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        if (!METHODS.contains(MetricsFilter.methodName(httpRequest.getRequestURI()))) {
+            chain.doFilter(request, response);
+            return;
+        }
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+        BufferedResponse bufferedResponse = new BufferedResponse(httpResponse);
+        chain.doFilter(request, bufferedResponse);
+        byte[] body = bufferedResponse.getBody();
+        if (bufferedResponse.status == HttpServletResponse.SC_OK) {
+            String etag = etag(body);
+            httpResponse.setHeader(ETAG_HEADER, etag);
+            httpResponse.setHeader("Cache-Control", "private, no-cache");
+            if (matches(httpRequest.getHeader(IF_NONE_MATCH_HEADER), etag)) {
+                httpResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+        }
+        if (body.length > 0 && !httpResponse.isCommitted()) {
+            httpResponse.setContentLength(body.length);
+            httpResponse.getOutputStream().write(body);
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
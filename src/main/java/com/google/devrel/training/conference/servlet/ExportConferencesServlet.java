@@ -0,0 +1,51 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.ConferenceTransfer;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Streams the conferences as NDJSON, see {@link ConferenceTransfer}. One response holds at most limit
+ * conferences, few enough to be written before the request deadline. Unless it ends with the last
+ * conference, the X-Next-Cursor header holds the cursor parameter of the next request.
+ * Only admins can reach it, see web.xml.
+ */
+public class ExportConferencesServlet extends HttpServlet {
+
+    public static final String CURSOR_PARAM = "cursor";
+
+    public static final String LIMIT_PARAM = "limit";
+
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    static final int DEFAULT_LIMIT = 10000;
+
+    static final int MAX_LIMIT = 50000;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String cursor = request.getParameter(CURSOR_PARAM);
+        int limit;
+        String end;
+        try {
+            String limitParam = request.getParameter(LIMIT_PARAM);
+            limit = limitParam == null ? DEFAULT_LIMIT : Math.min(Integer.parseInt(limitParam), MAX_LIMIT);
+            if (limit < 1) {
+                throw new IllegalArgumentException("limit must be positive");
+            }
+            // the end is known before the first line is written, so the response can carry it in a header
+            end = ConferenceTransfer.exportEnd(cursor, limit);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid limit or cursor: " + e.getMessage());
+            return;
+        }
+        if (end != null) {
+            response.setHeader(NEXT_CURSOR_HEADER, end);
+        }
+        response.setContentType("application/x-ndjson; charset=utf-8");
+        ConferenceTransfer.export(response.getWriter(), cursor, end);
+    }
+}
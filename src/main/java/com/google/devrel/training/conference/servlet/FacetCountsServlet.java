@@ -0,0 +1,23 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.FacetService;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Runs the change tasks of the facet-counts queue: applies the change of facet values of the conferences of
+ * one task to the counts, see {@link FacetService}. Any exception fails the task, which the queue retries.
+ */
+public class FacetCountsServlet extends HttpServlet {
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        FacetService.applyChanges((Map<String, String[]>) request.getParameterMap());
+        response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+}
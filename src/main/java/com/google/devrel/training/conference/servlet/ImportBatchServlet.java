@@ -0,0 +1,22 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.ConferenceTransfer;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Runs the tasks of the conference-import queue: saves one batch of imported conferences, see
+ * {@link ConferenceTransfer}. Any exception fails the task, which the queue retries.
+ */
+public class ImportBatchServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        request.setCharacterEncoding("UTF-8");
+        ConferenceTransfer.importBatch(request.getReader());
+        response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+}
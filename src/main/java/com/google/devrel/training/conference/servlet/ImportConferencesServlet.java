@@ -0,0 +1,52 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.ConferenceTransfer;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Imports the conferences of an NDJSON upload, see {@link ConferenceTransfer}. The response tells how many
+ * lines of the file have been enqueued; when the upload was not read to the end, because a line is invalid
+ * or the request ran out of time, the file is uploaded again with that number as the skip parameter.
+ * Only admins can reach it, see web.xml.
+ */
+public class ImportConferencesServlet extends HttpServlet {
+
+    public static final String SKIP_PARAM = "skip";
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long skip;
+        try {
+            String skipParam = request.getParameter(SKIP_PARAM);
+            skip = skipParam == null ? 0 : Long.parseLong(skipParam);
+        } catch (NumberFormatException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "skip must be a number");
+            return;
+        }
+        request.setCharacterEncoding("UTF-8");
+        ConferenceTransfer.Upload upload = new ConferenceTransfer.Upload(skip);
+        boolean complete;
+        String error = null;
+        try {
+            complete = upload.readAll(request.getReader());
+        } catch (IllegalArgumentException e) {
+            complete = false;
+            error = e.getMessage();
+        }
+        response.setStatus(error == null ? HttpServletResponse.SC_OK : HttpServletResponse.SC_BAD_REQUEST);
+        response.setContentType("text/plain; charset=utf-8");
+        PrintWriter out = response.getWriter();
+        out.println("conferences=" + upload.getConferences());
+        out.println("batches=" + upload.getBatches());
+        out.println("complete=" + complete);
+        out.println(SKIP_PARAM + "=" + upload.getLinesDone());
+        if (error != null) {
+            out.println("error=" + error);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.api.server.spi.config.ApiMethod;
+import com.google.devrel.training.conference.service.ApiMetrics;
+import com.google.devrel.training.conference.service.ColdStart;
+import com.google.devrel.training.conference.service.RpcCounter;
+import com.google.devrel.training.conference.spi.ConferenceApi;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Records the latency, status and datastore calls of every request in {@link ApiMetrics}, by API method, and
+ * logs the requests slower than {@link ApiMetrics#SLOW_REQUEST_MILLIS}. Mapped in front of the
+ * ObjectifyFilter, so the writes Objectify completes at the end of a request are counted too.
+ *
+ * Requests for anything but a method of the ConferenceApi or an existing path are recorded as
+ * {@link #OTHER}, so probing random paths cannot add metrics.
+ */
+public class MetricsFilter implements Filter {
+    private static final Logger LOG = Logger.getLogger(MetricsFilter.class.getName());
+
+    private static final String SPI_PREFIX = "/_ah/spi/";
+
+    /**
+     * The metric key of requests for unknown API methods and paths.
+     */
+    static final String OTHER = "other";
+
+    /**
+     * The names of the ConferenceApi methods.
+     */
+    static final Set<String> API_METHODS = apiMethods();
+
+    private static Set<String> apiMethods() {
+        Set<String> names = new HashSet<>();
+        for (Method method : ConferenceApi.class.getMethods()) {
+            ApiMethod apiMethod = method.getAnnotation(ApiMethod.class);
+            if (apiMethod != null) {
+                names.add(apiMethod.name().isEmpty() ? method.getName() : apiMethod.name());
+            }
+        }
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * Remembers the status, the servlet API of App Engine cannot read it back from the response.
+     */
+    private static class StatusResponse extends HttpServletResponseWrapper {
+        private int status = SC_OK;
+
+        StatusResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public void setStatus(int status) {
+            this.status = status;
+            super.setStatus(status);
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void setStatus(int status, String message) {
+            this.status = status;
+            super.setStatus(status, message);
+        }
+
+        @Override
+        public void sendError(int status) throws IOException {
+            this.status = status;
+            super.sendError(status);
+        }
+
+        @Override
+        public void sendError(int status, String message) throws IOException {
+            this.status = status;
+            super.sendError(status, message);
+        }
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        RpcCounter.install();
+    }
+
+    /**
+     * @return the API method of an Endpoints request, {@link #OTHER} when there is no such method, or the path
+     * of any other request.
+     */
+    static String methodName(final String requestUri) {
+        if (requestUri.startsWith(SPI_PREFIX)) {
+            String method = requestUri.substring(requestUri.lastIndexOf('.') + 1);
+            return API_METHODS.contains(method) ? method : OTHER;
+        }
+        return requestUri;
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        String requestUri = ((HttpServletRequest) request).getRequestURI();
+        String method = methodName(requestUri);
+        StatusResponse statusResponse = new StatusResponse((HttpServletResponse) response);
+        long start = System.currentTimeMillis();
+        RpcCounter.start();
+        boolean failed = true;
+        try {
+            chain.doFilter(request, statusResponse);
+            failed = false;
+        } finally {
+            RpcCounter.Counts counts = RpcCounter.stop();
+            long millis = System.currentTimeMillis() - start;
+            int status = failed ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR : statusResponse.status;
+            if (status == HttpServletResponse.SC_NOT_FOUND && !requestUri.startsWith(SPI_PREFIX)) {
+                // no servlet has this path
+                method = OTHER;
+            }
+            ApiMetrics.record(method, millis, status, counts);
+            if (requestUri.startsWith(SPI_PREFIX)) {
+                ColdStart.firstRequest(method, millis);
+            }
+            if (millis >= ApiMetrics.SLOW_REQUEST_MILLIS) {
+                LOG.warning("slow_request method=" + method + " latency_ms=" + millis + " status=" + status
+                        + " " + counts);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
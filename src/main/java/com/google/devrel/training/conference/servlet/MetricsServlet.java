@@ -0,0 +1,67 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.ApiMetrics;
+import com.google.devrel.training.conference.service.ColdStart;
+import com.google.devrel.training.conference.service.RateLimiter;
+import com.google.devrel.training.conference.service.TransactionService;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+
+/**
+ * Shows the {@link ApiMetrics}, the TransactionService counters, the {@link RateLimiter} throttle counts and
+ * the {@link ColdStart} phases of the instance that serves the request, one counter per line in the
+ * Prometheus text format. Only admins can reach it, see web.xml.
+ */
+public class MetricsServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType("text/plain; charset=utf-8");
+        PrintWriter out = response.getWriter();
+        for (Map.Entry<String, ApiMetrics.MethodMetrics> entry : ApiMetrics.getMetrics().entrySet()) {
+            String labels = "method=\"" + entry.getKey() + "\"";
+            ApiMetrics.MethodMetrics metrics = entry.getValue();
+            long[] buckets = metrics.getBuckets();
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i];
+                String bound = i < ApiMetrics.BUCKET_MILLIS.length ? String.valueOf(ApiMetrics.BUCKET_MILLIS[i])
+                        : "+Inf";
+                line(out, "api_latency_ms_bucket", labels + ",le=\"" + bound + "\"", cumulative);
+            }
+            line(out, "api_latency_ms_sum", labels, metrics.getTotalMillis());
+            line(out, "api_latency_ms_count", labels, metrics.getRequests());
+            line(out, "api_errors_total", labels, metrics.getErrors());
+            line(out, "api_client_errors_total", labels, metrics.getClientErrors());
+            line(out, "api_datastore_calls_total", labels + ",call=\"get\"", metrics.getDatastoreGets());
+            line(out, "api_datastore_calls_total", labels + ",call=\"put\"", metrics.getDatastorePuts());
+            line(out, "api_datastore_calls_total", labels + ",call=\"query\"", metrics.getDatastoreQueries());
+            line(out, "api_datastore_calls_total", labels + ",call=\"all\"", metrics.getDatastoreRpcs());
+            line(out, "api_memcache_calls_total", labels, metrics.getMemcacheRpcs());
+        }
+        for (Map.Entry<String, TransactionService.TransactionStats> entry
+                : TransactionService.getStats().entrySet()) {
+            String labels = "name=\"" + entry.getKey() + "\"";
+            TransactionService.TransactionStats stats = entry.getValue();
+            line(out, "transactions_committed_total", labels, stats.getCommitted());
+            line(out, "transactions_retries_total", labels, stats.getRetries());
+            line(out, "transactions_contention_failures_total", labels, stats.getContentionFailures());
+            line(out, "transactions_exhausted_total", labels, stats.getExhausted());
+        }
+        for (Map.Entry<String, Long> entry : RateLimiter.getThrottled().entrySet()) {
+            line(out, "api_throttled_total", "method=\"" + entry.getKey() + "\"", entry.getValue());
+        }
+        for (Map.Entry<String, Long> entry : ColdStart.getPhases().entrySet()) {
+            line(out, "cold_start_phase_ms", "phase=\"" + entry.getKey() + "\"", entry.getValue());
+        }
+    }
+
+    private static void line(final PrintWriter out, final String name, final String labels, final long value) {
+        out.println(name + "{" + labels + "} " + value);
+    }
+}
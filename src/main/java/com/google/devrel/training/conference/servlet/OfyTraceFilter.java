@@ -0,0 +1,108 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.OfyTrace;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Traces the Objectify operations of every request and returns them in the {@link #HEADER} response header,
+ * when the ofy.traceHeader system property is true. Off in production, where the header would show the
+ * kinds and the shape of the data to anyone.
+ */
+public class OfyTraceFilter implements Filter {
+
+    public static final String HEADER = "X-Ofy-Trace";
+
+    private static final boolean ENABLED = Boolean.getBoolean("ofy.traceHeader");
+
+    /**
+     * Longer traces are cut, most servers refuse headers of more than 8KB.
+     */
+    static final int MAX_HEADER_LENGTH = 4000;
+
+    private final boolean enabled;
+
+    public OfyTraceFilter() {
+        this(ENABLED);
+    }
+
+    OfyTraceFilter(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Adds the header just before the body is written, the filter cannot add it once the response is committed.
+     */
+    private static class TraceResponse extends HttpServletResponseWrapper {
+        private final OfyTrace trace;
+        private boolean traced;
+
+        TraceResponse(HttpServletResponse response, OfyTrace trace) {
+            super(response);
+            this.trace = trace;
+        }
+
+        private void addTrace() {
+            if (!traced && !isCommitted()) {
+                traced = true;
+                String value = trace.toString();
+                if (value.length() > MAX_HEADER_LENGTH) {
+                    value = value.substring(0, MAX_HEADER_LENGTH - 3) + "...";
+                }
+                setHeader(HEADER, value);
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            addTrace();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            addTrace();
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            addTrace();
+            super.flushBuffer();
+        }
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (!enabled) {
+            chain.doFilter(request, response);
+            return;
+        }
+        TraceResponse traceResponse = new TraceResponse((HttpServletResponse) response, OfyTrace.start());
+        try {
+            chain.doFilter(request, traceResponse);
+            traceResponse.addTrace();
+        } finally {
+            OfyTrace.stop();
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
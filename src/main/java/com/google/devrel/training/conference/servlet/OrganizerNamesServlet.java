@@ -0,0 +1,31 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.OrganizerNameService;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Runs the tasks of the organizer-names queue: rewrites one batch of a renamed organizer's conferences and
+ * enqueues the next batch, see {@link OrganizerNameService}. Any exception fails the task, which the queue
+ * retries from the same cursor.
+ */
+public class OrganizerNamesServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String userId = request.getParameter(OrganizerNameService.USER_ID_PARAM);
+        if (userId == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "userId is required");
+            return;
+        }
+        String next = OrganizerNameService.renameBatch(userId,
+                request.getParameter(OrganizerNameService.CURSOR_PARAM));
+        if (next != null) {
+            OrganizerNameService.enqueue(userId, next);
+        }
+        response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+}
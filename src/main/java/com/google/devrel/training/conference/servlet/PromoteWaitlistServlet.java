@@ -0,0 +1,32 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.service.WaitlistService;
+import com.googlecode.objectify.Key;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Runs the tasks of the waitlist queue: promotes one batch of the users waiting for a conference and enqueues
+ * the next batch while seats may be left, see {@link WaitlistService}. Any exception fails the task, which the
+ * queue retries.
+ */
+public class PromoteWaitlistServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String websafeKey = request.getParameter(WaitlistService.CONFERENCE_PARAM);
+        if (websafeKey == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "conference is required");
+            return;
+        }
+        Key<Conference> conferenceKey = Key.create(websafeKey);
+        if (WaitlistService.promoteBatch(conferenceKey)) {
+            WaitlistService.enqueuePromotion(conferenceKey);
+        }
+        response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+}
@@ -0,0 +1,32 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.FacetService;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Rebuilds the facet counts from a scan of all conferences, see {@link FacetService}. The nightly cron job
+ * starts a reconciliation with a GET, which enqueues the first batch; the reconciliation tasks of the
+ * facet-counts queue POST here, count one batch and enqueue the next. Any exception fails the task, which
+ * the queue retries from the same cursor.
+ */
+public class ReconcileFacetsServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        FacetService.enqueueReconcile();
+        response.setStatus(HttpServletResponse.SC_ACCEPTED);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String next = FacetService.reconcileBatch(request.getParameter(FacetService.CURSOR_PARAM));
+        if (next != null) {
+            FacetService.enqueueReconcile(next);
+        }
+        response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+}
@@ -0,0 +1,28 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.service.SeatService;
+import com.googlecode.objectify.Key;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Runs the tasks of the seat-snapshots queue: writes the seats left in the shards of a conference to its
+ * indexed snapshot, see {@link SeatService}. Any exception fails the task, which the queue retries.
+ */
+public class RefreshSeatsServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String websafeKey = request.getParameter(SeatService.CONFERENCE_PARAM);
+        if (websafeKey == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "conference is required");
+            return;
+        }
+        SeatService.refreshSnapshot(Key.<Conference>create(websafeKey));
+        response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+}
@@ -0,0 +1,41 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.service.ConferenceSearch;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Rebuilds the search index of the conferences, see {@link ConferenceSearch}. An administrator starts a
+ * reindex with a GET, which enqueues the first batch; the tasks of the search-index queue POST here, index one
+ * batch and enqueue the next. Any exception fails the task, which the queue retries from the same cursor.
+ */
+public class SearchReindexServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        enqueue(null);
+        response.setStatus(HttpServletResponse.SC_ACCEPTED);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String next = ConferenceSearch.reindexBatch(request.getParameter(ConferenceSearch.CURSOR_PARAM));
+        if (next != null) {
+            enqueue(next);
+        }
+        response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+
+    private static void enqueue(final String cursor) {
+        TaskOptions task = TaskOptions.Builder.withUrl(ConferenceSearch.REINDEX_URL);
+        if (cursor != null) {
+            task.param(ConferenceSearch.CURSOR_PARAM, cursor);
+        }
+        QueueFactory.getQueue(ConferenceSearch.QUEUE_NAME).add(task);
+    }
+}
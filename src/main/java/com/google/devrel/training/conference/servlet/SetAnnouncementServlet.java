@@ -0,0 +1,66 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.base.Joiner;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+/**
+ * A servlet for putting announcements in memcache, triggered by cron.xml. getAnnouncement only reads what
+ * this servlet stores, so showing the announcement never costs a datastore read.
+ */
+public class SetAnnouncementServlet extends HttpServlet {
+    private static final Logger LOG = Logger.getLogger(SetAnnouncementServlet.class.getName());
+
+    /**
+     * Conferences with fewer seats left than this, but not sold out, are announced once some of their seats
+     * have been booked.
+     */
+    public static final int NEARLY_SOLD_OUT_SEATS = 5;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        updateAnnouncement();
+        response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+
+    /**
+     * Finds the nearly sold out conferences with one query on seatsAvailable and stores the announcement in
+     * memcache, or removes it when there is nothing to announce. Small conferences nobody has booked yet are
+     * not nearly sold out; the datastore only allows inequality filters on one property, so they are skipped
+     * after the query.
+     *
+     * @return the announcement, null when there is none.
+     */
+    public static String updateAnnouncement() {
+        List<String> names = new ArrayList<>();
+        for (Conference conference : ofy().load().type(Conference.class)
+                .filter("seatsAvailable <", NEARLY_SOLD_OUT_SEATS)
+                .filter("seatsAvailable >", 0)) {
+            if (conference.getSeatsAvailable() < conference.getMaxAttendees()) {
+                names.add(conference.getName());
+            }
+        }
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        if (names.isEmpty()) {
+            memcacheService.delete(Constants.MEMCACHE_ANNOUNCEMENTS_KEY);
+            return null;
+        }
+        String announcement = "Last chance to attend! The following conferences are nearly sold out: "
+                + Joiner.on(", ").join(names);
+        memcacheService.put(Constants.MEMCACHE_ANNOUNCEMENTS_KEY, announcement);
+        LOG.info("Announced " + names.size() + " nearly sold out conferences");
+        return announcement;
+    }
+}
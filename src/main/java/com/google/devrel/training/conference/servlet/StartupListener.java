@@ -0,0 +1,22 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.ColdStart;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Marks the start of the servlet context for {@link ColdStart}. Listeners run before any servlet is
+ * initialized, so the WarmupServlet can tell how long the servlets before it took.
+ */
+public class StartupListener implements ServletContextListener {
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        ColdStart.contextStarted();
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+    }
+}
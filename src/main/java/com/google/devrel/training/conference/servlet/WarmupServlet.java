@@ -0,0 +1,86 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.service.ColdStart;
+import com.google.devrel.training.conference.service.OfyService;
+import com.google.devrel.training.conference.spi.ConferenceApi;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Handles the /_ah/warmup request App Engine sends to a new instance before routing traffic to it, see
+ * appengine-web.xml. Loaded after the SystemServiceServlet, so the Endpoints config discovery has already
+ * happened when it is initialized, and then does what the first API call would otherwise pay for: the
+ * Objectify registrations, the class loading of the API and the first datastore and memcache calls. The
+ * duration of every phase is recorded in {@link ColdStart}.
+ */
+public class WarmupServlet extends HttpServlet {
+    private static final Logger LOG = Logger.getLogger(WarmupServlet.class.getName());
+
+    /**
+     * One step of the warmup, timed as a phase of its own.
+     */
+    private interface Phase {
+        void run() throws Exception;
+    }
+
+    @Override
+    public void init() throws ServletException {
+        ColdStart.record("servlet_init", ColdStart.sinceContextStarted());
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        warmup();
+        response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+
+    /**
+     * Runs the warmup phases. A failing phase is logged and the others still run, a partly warm instance is
+     * better than a warmup request that fails.
+     */
+    static void warmup() {
+        final ConferenceApi conferenceApi = new ConferenceApi();
+        time("objectify", new Phase() {
+            @Override
+            public void run() {
+                OfyService.factory().getMetadata(Conference.class);
+            }
+        });
+        // the first page everyone opens, it is hydrated into the memcache and in-process tiers of ConferenceCache
+        time("hot_conferences", new Phase() {
+            @Override
+            public void run() throws Exception {
+                conferenceApi.queryConferences(null, null, null);
+            }
+        });
+        time("announcement", new Phase() {
+            @Override
+            public void run() {
+                conferenceApi.getAnnouncement();
+            }
+        });
+        time("facets", new Phase() {
+            @Override
+            public void run() {
+                conferenceApi.getConferenceFacets();
+            }
+        });
+    }
+
+    private static void time(final String name, final Phase phase) {
+        long start = System.currentTimeMillis();
+        try {
+            phase.run();
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Warmup phase " + name + " failed", e);
+        }
+        ColdStart.record("warmup_" + name, System.currentTimeMillis() - start);
+    }
+}
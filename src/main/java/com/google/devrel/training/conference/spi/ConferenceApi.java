@@ -1,24 +1,58 @@
 package com.google.devrel.training.conference.spi;
 
 import static com.google.devrel.training.conference.service.OfyService.ofy;
-import static com.google.devrel.training.conference.service.OfyService.factory;
 
 import com.google.api.server.spi.config.Api;
 import com.google.api.server.spi.config.ApiMethod;
 import com.google.api.server.spi.config.ApiMethod.HttpMethod;
+import com.google.api.server.spi.config.Nullable;
+import com.google.api.server.spi.response.BadRequestException;
+import com.google.api.server.spi.response.CollectionResponse;
+import com.google.api.server.spi.response.ConflictException;
+import com.google.api.server.spi.response.ForbiddenException;
+import com.google.api.server.spi.response.NotFoundException;
+import com.google.api.server.spi.response.ServiceUnavailableException;
 import com.google.api.server.spi.response.UnauthorizedException;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.search.SearchQueryException;
 import com.google.appengine.api.users.User;
+import com.google.common.base.Predicate;
 import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Announcement;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceFacets;
+import com.google.devrel.training.conference.domain.ConferenceSummary;
 import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.WaitlistPosition;
 import com.google.devrel.training.conference.form.ConferenceForm;
 import com.google.devrel.training.conference.form.ProfileForm;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.form.QueryForm;
+import com.google.devrel.training.conference.service.ConferenceCache;
+import com.google.devrel.training.conference.service.ConferenceIdPool;
+import com.google.devrel.training.conference.service.ConferenceSearch;
+import com.google.devrel.training.conference.service.FacetService;
+import com.google.devrel.training.conference.service.OrganizerNameService;
+import com.google.devrel.training.conference.service.RateLimiter;
+import com.google.devrel.training.conference.service.SeatService;
+import com.google.devrel.training.conference.service.TransactionService;
+import com.google.devrel.training.conference.service.WaitlistService;
+import com.google.devrel.training.conference.service.WriteOps;
 import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
 import com.googlecode.objectify.cmd.Query;
 
 import javax.inject.Named;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 /**
@@ -30,6 +64,45 @@ import java.util.logging.Logger;
 public class ConferenceApi {
     private static final Logger LOG = Logger.getLogger(ConferenceApi.class.getName());
     public static final String AUTHORIZATION_REQUIRED_MESSAGE = "Authorization Required!";
+    /**
+     * Page size used when the client does not ask for one, matches the client side pagination.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 20;
+    /**
+     * Upper bound on a single page so one request can never scan the whole kind.
+     */
+    public static final int MAX_PAGE_SIZE = 100;
+    /**
+     * Upper bound on the entities read for one page when filters have to be applied in memory. A page that
+     * hits it is returned short, with a nextPageToken to continue from.
+     */
+    public static final int MAX_SCANNED_PER_PAGE = 10 * MAX_PAGE_SIZE;
+
+    /**
+     * Just a wrapper for Boolean, Endpoints can not return primitives or their boxes.
+     */
+    public static class WrappedBoolean {
+
+        private final Boolean result;
+        private final String reason;
+
+        public WrappedBoolean(Boolean result) {
+            this(result, "");
+        }
+
+        public WrappedBoolean(Boolean result, String reason) {
+            this.result = result;
+            this.reason = reason;
+        }
+
+        public Boolean getResult() {
+            return result;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+    }
 
     /*
      * Get the display name from the user's email. For example, if the email is
@@ -59,6 +132,239 @@ public class ConferenceApi {
         return profile;
     }
 
+    /**
+     * Saves the default profile of a user that has none, in a transaction so it does not overwrite a profile
+     * a concurrent request created, for example with a registration.
+     *
+     * @return the profile of the user.
+     * @throws ServiceUnavailableException when the transaction kept losing against concurrent writes.
+     */
+    private static Profile createProfile(final User user, final WriteOps writeOps)
+            throws ServiceUnavailableException {
+        try {
+            return TransactionService.transact("createProfile", new Work<Profile>() {
+                @Override
+                public Profile run() {
+                    Profile profile = ofy().load().key(Key.create(Profile.class, user.getUserId())).now();
+                    if (profile == null) {
+                        profile = getProfileFromUser(user);
+                        writeOps.add(profile, true);
+                        ofy().save().entity(profile);
+                    }
+                    return profile;
+                }
+            });
+        } catch (ConcurrentModificationException e) {
+            throw new ServiceUnavailableException("Too many concurrent updates of the profile, please try again.");
+        }
+    }
+
+    /**
+     * Loads the organizer profiles of the conferences saved before the organizer's name was stored with them,
+     * with one batched get, and attaches their display names. Other conferences cost nothing here.
+     *
+     * @param conferences the conferences about to be returned to the client.
+     * @return the same conferences, with the organizer resolved.
+     */
+    private static List<Conference> resolveOrganizers(final List<Conference> conferences) {
+        Set<Key<Profile>> profileKeys = new LinkedHashSet<>();
+        for (Conference conference : conferences) {
+            if (!conference.isOrganizerResolved()) {
+                profileKeys.add(conference.getProfileKey());
+            }
+        }
+        if (profileKeys.isEmpty()) {
+            return conferences;
+        }
+        Map<Key<Profile>, Profile> organizers = ofy().load().keys(profileKeys);
+        for (Conference conference : conferences) {
+            if (!conference.isOrganizerResolved()) {
+                conference.resolveOrganizer(organizers.get(conference.getProfileKey()));
+            }
+        }
+        return conferences;
+    }
+
+    /**
+     * Resolves what the conferences need for serialization without touching the datastore: the seats available
+     * from the seat shards and, for old conferences only, the organizer names.
+     *
+     * @param conferences the conferences about to be returned to the client.
+     * @return the same conferences.
+     */
+    private static List<Conference> resolve(final List<Conference> conferences) {
+        SeatService.resolveSeatsAvailable(conferences);
+        return resolveOrganizers(conferences);
+    }
+
+    /**
+     * Returns the conferences with the given keys, resolved for serialization and in the order of the keys.
+     * Conferences the in-process tier of {@link ConferenceCache} has are not loaded again; the others are
+     * loaded through its memcache tier and kept in the in-process tier for the next list or detail request.
+     *
+     * @param conferenceKeys the keys of the conferences, keys of deleted conferences are skipped.
+     * @return the conferences.
+     */
+    private static List<Conference> hydrate(final List<Key<Conference>> conferenceKeys) {
+        Map<Key<Conference>, Conference> hydrated = new HashMap<>();
+        List<Key<Conference>> misses = new ArrayList<>();
+        for (Key<Conference> conferenceKey : conferenceKeys) {
+            Conference conference = ConferenceCache.getResolved(conferenceKey.getString());
+            if (conference == null) {
+                misses.add(conferenceKey);
+            } else {
+                hydrated.put(conferenceKey, conference);
+            }
+        }
+        if (!misses.isEmpty()) {
+            Map<Key<Conference>, Conference> loaded = ConferenceCache.loadAll(misses);
+            for (Conference conference : resolve(new ArrayList<>(loaded.values()))) {
+                ConferenceCache.putResolved(conference);
+            }
+            hydrated.putAll(loaded);
+        }
+        List<Conference> conferences = new ArrayList<>(conferenceKeys.size());
+        for (Key<Conference> conferenceKey : conferenceKeys) {
+            Conference conference = hydrated.get(conferenceKey);
+            if (conference != null) {
+                conferences.add(conference);
+            }
+        }
+        return conferences;
+    }
+
+    private static List<ConferenceSummary> summarize(final List<Conference> conferences) {
+        List<ConferenceSummary> summaries = new ArrayList<>(conferences.size());
+        for (Conference conference : conferences) {
+            summaries.add(new ConferenceSummary(conference));
+        }
+        return summaries;
+    }
+
+    /**
+     * Takes the call from the user's limit of the API method, see {@link RateLimiter}.
+     *
+     * @param user   the caller.
+     * @param method the API method.
+     * @throws TooManyRequestsException when the user has used up the limit.
+     */
+    private static void admit(final User user, final String method) throws TooManyRequestsException {
+        long retryAfterMillis = RateLimiter.acquire(user.getUserId(), method);
+        if (retryAfterMillis > 0) {
+            throw new TooManyRequestsException("Too many " + method + " requests, please retry in "
+                    + (retryAfterMillis + 999) / 1000 + " seconds.");
+        }
+    }
+
+    /**
+     * Loads a conference by its websafe key.
+     *
+     * @param websafeConferenceKey the websafe key of the conference.
+     * @return the conference.
+     * @throws NotFoundException when the key is invalid or there is no such conference.
+     */
+    private static Conference loadConference(final String websafeConferenceKey) throws NotFoundException {
+        Conference conference = null;
+        try {
+            Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
+            conference = ofy().load().key(conferenceKey).now();
+        } catch (IllegalArgumentException e) {
+            // not a websafe key of any kind
+        }
+        if (conference == null) {
+            throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+        }
+        return conference;
+    }
+
+    /**
+     * @param pageSize the requested page size, or null for the default.
+     * @return the page size capped at {@link #MAX_PAGE_SIZE}.
+     * @throws BadRequestException when the page size is not positive.
+     */
+    private static int pageLimit(final Integer pageSize) throws BadRequestException {
+        int limit = pageSize == null ? DEFAULT_PAGE_SIZE : Math.min(pageSize, MAX_PAGE_SIZE);
+        if (limit < 1) {
+            throw new BadRequestException("pageSize must be positive, was " + pageSize);
+        }
+        return limit;
+    }
+
+    /**
+     * Runs one page of the query, starting at the given cursor. The query only returns keys and the
+     * conferences are hydrated through the {@link ConferenceCache}.
+     *
+     * @param query    the query to page through.
+     * @param pageSize the requested page size, capped at {@link #MAX_PAGE_SIZE}.
+     * @param cursor   the websafe cursor returned with the previous page, or null for the first page.
+     * @return the page of conferences and, when the page is full, the cursor of the next page.
+     * @throws BadRequestException when the page size or the cursor is invalid.
+     */
+    private static CollectionResponse<ConferenceSummary> queryPage(Query<Conference> query, final Integer pageSize,
+                                                                   final String cursor) throws BadRequestException {
+        return queryPage(query, null, pageSize, cursor);
+    }
+
+    /**
+     * Runs one page of the query, keeping only the conferences accepted by the residual filter. Without a
+     * residual filter the query only returns keys and the conferences are hydrated through the
+     * {@link ConferenceCache}. With one, the query is streamed until the page is full or
+     * {@link #MAX_SCANNED_PER_PAGE} entities have been read.
+     *
+     * @param query    the query to page through.
+     * @param residual the filters the datastore could not apply, null when there are none.
+     * @param pageSize the requested page size, capped at {@link #MAX_PAGE_SIZE}.
+     * @param cursor   the websafe cursor returned with the previous page, or null for the first page.
+     * @return the page of conferences and, unless the query is exhausted, the cursor of the next page.
+     * @throws BadRequestException when the page size or the cursor is invalid.
+     */
+    private static CollectionResponse<ConferenceSummary> queryPage(Query<Conference> query,
+                                                                   final Predicate<Conference> residual,
+                                                                   final Integer pageSize,
+                                                                   final String cursor) throws BadRequestException {
+        int limit = pageLimit(pageSize);
+        int scanLimit = residual == null ? limit : MAX_SCANNED_PER_PAGE;
+        List<Conference> conferences;
+        int scanned = 0;
+        QueryResultIterator<?> iterator;
+        try {
+            if (cursor != null && !cursor.isEmpty()) {
+                query = query.startAt(Cursor.fromWebSafeString(cursor));
+            }
+            // the datastore only rejects a malformed cursor once the query runs
+            if (residual == null) {
+                QueryResultIterator<Key<Conference>> keys = query.limit(limit).keys().iterator();
+                List<Key<Conference>> conferenceKeys = new ArrayList<>(limit);
+                while (keys.hasNext()) {
+                    conferenceKeys.add(keys.next());
+                }
+                scanned = conferenceKeys.size();
+                iterator = keys;
+                conferences = hydrate(conferenceKeys);
+            } else {
+                QueryResultIterator<Conference> entities = query.limit(scanLimit).chunk(limit).iterator();
+                conferences = new ArrayList<>(limit);
+                while (conferences.size() < limit && entities.hasNext()) {
+                    Conference conference = entities.next();
+                    scanned++;
+                    if (residual.apply(conference)) {
+                        conferences.add(conference);
+                    }
+                }
+                iterator = entities;
+                resolve(conferences);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Invalid cursor: " + cursor);
+        }
+        boolean exhausted = scanned < scanLimit && (residual == null || conferences.size() < limit);
+        String nextPageToken = exhausted ? null : iterator.getCursor().toWebSafeString();
+        return CollectionResponse.<ConferenceSummary>builder()
+                .setItems(summarize(conferences))
+                .setNextPageToken(nextPageToken)
+                .build();
+    }
+
     /**
      * Creates or updates a Profile object associated with the given user
      * object.
@@ -66,7 +372,9 @@ public class ConferenceApi {
      * @param user        A User object injected by the cloud endpoints.
      * @param profileForm A ProfileForm object sent from the client form.
      * @return Profile object just created.
-     * @throws UnauthorizedException when the User object is null.
+     * @throws UnauthorizedException       when the User object is null.
+     * @throws ServiceUnavailableException when the transaction kept losing against concurrent writes.
+     * @throws TooManyRequestsException    when the user has used up the limit of this method.
      */
 
     // Declare this method as a method available externally through Endpoints
@@ -75,43 +383,56 @@ public class ConferenceApi {
     // conforms to the fields defined in ProfileForm
 
 
-    public Profile saveProfile(final User user, final ProfileForm profileForm) throws UnauthorizedException {
+    public Profile saveProfile(final User user, final ProfileForm profileForm)
+            throws UnauthorizedException, ServiceUnavailableException, TooManyRequestsException {
 
         // If the user is not logged in, throw an UnauthorizedException
         if (user == null) {
             throw new UnauthorizedException(AUTHORIZATION_REQUIRED_MESSAGE);
         }
-        String displayName = profileForm.getDisplayName();
-        TeeShirtSize teeShirtSize = profileForm.getTeeShirtSize();
-
-        // Create a new Profile entity from the
-        // userId, displayName, mainEmail and teeShirtSize
-        //Profile profile = new Profile(userId, displayName, mainEmail, teeShirtSize);
+        admit(user, "saveProfile");
+        final String displayName = profileForm.getDisplayName();
+        final TeeShirtSize teeShirtSize = profileForm.getTeeShirtSize();
 
-        // TODO 3 (In Lesson 3)
-        Profile profile = ofy().load().key(Key.create(Profile.class, getUserId(user))).now();
-        if (profile == null) {
-            //we don't have an existing so create new.
-            LOG.info("New Profile being built and saved.");
-            if (displayName == null) {
-                displayName = extractDefaultDisplayNameFromEmail(user.getEmail());
-            }
-            if (teeShirtSize == null) {
-                teeShirtSize = TeeShirtSize.NOT_SPECIFIED;
-            }
-            profile = new Profile(getUserId(user), displayName, user.getEmail(), teeShirtSize);
-
-        } else {
-            LOG.info("Found Profile: " + profile.getUserId());
-            LOG.info(profile.getDisplayName());
-            LOG.info(profile.getMainEmail());
-            LOG.info(profile.getTeeShirtSize().toString());
-            profile.update(displayName, teeShirtSize);
+        // The profile is read and written in a transaction, so a registration committed in between is not
+        // overwritten with the conferences the profile had when it was read.
+        final WriteOps writeOps = new WriteOps("saveProfile");
+        try {
+            Profile saved = TransactionService.transact("saveProfile", new Work<Profile>() {
+                @Override
+                public Profile run() {
+                    Profile profile = ofy().load().key(Key.create(Profile.class, getUserId(user))).now();
+                    boolean created = profile == null;
+                    if (created) {
+                        //we don't have an existing so create new.
+                        LOG.info("New Profile being built and saved.");
+                        profile = new Profile(getUserId(user),
+                                displayName == null ? extractDefaultDisplayNameFromEmail(user.getEmail())
+                                        : displayName,
+                                user.getEmail(),
+                                teeShirtSize == null ? TeeShirtSize.NOT_SPECIFIED : teeShirtSize);
+                    } else {
+                        LOG.info("Found Profile: " + profile.getUserId());
+                        String previousName = profile.getDisplayName();
+                        if (!profile.update(displayName, teeShirtSize)) {
+                            // nothing changed, do not rewrite the entity and its index rows
+                            return profile;
+                        }
+                        if (displayName != null && !displayName.equals(previousName)) {
+                            // the conferences store the organizer's name, see OrganizerNameService
+                            OrganizerNameService.enqueueInTransaction(profile.getUserId());
+                        }
+                    }
+                    writeOps.add(profile, created);
+                    ofy().save().entity(profile);
+                    return profile;
+                }
+            });
+            writeOps.log();
+            return saved;
+        } catch (ConcurrentModificationException e) {
+            throw new ServiceUnavailableException("Too many concurrent updates of the profile, please try again.");
         }
-
-        ofy().save().entity(profile).now();
-        // Return the profile
-        return profile;
     }
 
     /**
@@ -136,38 +457,524 @@ public class ConferenceApi {
     }
 
     @ApiMethod(name = "createConference", path = "conference", httpMethod = HttpMethod.POST)
-    public Conference createConference(final User user, final ConferenceForm conferenceForm) throws UnauthorizedException {
+    public Conference createConference(final User user, final ConferenceForm conferenceForm)
+            throws UnauthorizedException, ServiceUnavailableException, TooManyRequestsException {
         if (user == null) {
             throw new UnauthorizedException(AUTHORIZATION_REQUIRED_MESSAGE);
         }
+        admit(user, "createConference");
         String userId = user.getUserId();
-        Key<Profile> profileKey = Key.create(Profile.class, user.getUserId());
-        final Key<Conference> conferenceKey = factory().allocateId(profileKey, Conference.class);
+        final Key<Profile> profileKey = Key.create(Profile.class, user.getUserId());
+        final Key<Conference> conferenceKey = ConferenceIdPool.nextKey(profileKey);
         final long conferenceId = conferenceKey.getId();
-        Profile profile = getProfileFromUser(user);
-        Conference conference = new Conference(conferenceId, userId, conferenceForm);
-        ofy().save().entities(profile, conference).now();
+        final Conference conference = new Conference(conferenceId, userId, conferenceForm);
+        WriteOps writeOps = new WriteOps("createConference");
+        Profile createdProfile;
+        long writtenAt = System.currentTimeMillis();
+        try {
+            // the profile and its conferences are one entity group: the organizer's name is read in the
+            // transaction that saves the conference, so a rename either commits first and its name is copied
+            // here, or commits later and its renameBatch finds the conference
+            createdProfile = TransactionService.transact("createConference", new Work<Profile>() {
+                @Override
+                public Profile run() {
+                    // an existing profile is not changed by creating a conference, so only a new one is written
+                    Profile profile = ofy().load().key(profileKey).now();
+                    Profile created = null;
+                    if (profile == null) {
+                        created = profile = getProfileFromUser(user);
+                        ofy().save().entity(profile);
+                    }
+                    conference.resolveOrganizer(profile);
+                    // the seats are sharded on the first booking, see SeatService
+                    ofy().save().entity(conference);
+                    return created;
+                }
+            });
+        } catch (ConcurrentModificationException e) {
+            throw new ServiceUnavailableException("Too many concurrent updates of the profile, please try again.");
+        }
+        if (createdProfile != null) {
+            writeOps.add(createdProfile, true);
+        }
+        writeOps.add(conference, true);
+        ConferenceSearch.IndexWrite indexWrite = ConferenceSearch.index(Collections.singletonList(conference));
+        FacetService.enqueueCreated(Collections.singletonList(conference), writtenAt);
+        writeOps.log();
+        ConferenceCache.written(conference);
+        indexWrite.complete();
         return conference;
 
     }
 
+    /**
+     * Returns one page of the conferences matching the filters of the query form. The datastore applies the
+     * filters it can, see {@link QueryForm}, and the rest are applied to the streamed results.
+     *
+     * @param queryForm the filters sent by the client.
+     * @param pageSize  the number of conferences to return, at most {@link #MAX_PAGE_SIZE}.
+     * @param cursor    the nextPageToken of the previous page, or null for the first page.
+     * @return a page of conferences with the token of the next page.
+     * @throws BadRequestException when a filter, the page size or the cursor is invalid.
+     */
     @ApiMethod(name = "queryConferences",
             path = "queryConferences",
             httpMethod = HttpMethod.POST)
-    public List<Conference> queryConferences() {
-        Query<Conference> queryForAllConferences = ofy().load().type(Conference.class).order("name");
+    public CollectionResponse<ConferenceSummary> queryConferences(
+            final QueryForm queryForm,
+            @Nullable @Named("pageSize") final Integer pageSize,
+            @Nullable @Named("cursor") final String cursor)
+            throws BadRequestException {
+        QueryForm filters = queryForm == null ? new QueryForm() : queryForm;
+        Query<Conference> queryForFilteredConferences;
+        Predicate<Conference> residualFilter;
+        try {
+            queryForFilteredConferences = filters.buildQuery();
+            residualFilter = filters.hasResidualFilter() ? filters.buildResidualFilter() : null;
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
 
-        return queryForAllConferences.list();
+        return queryPage(queryForFilteredConferences, residualFilter, pageSize, cursor);
     }
+
+    /**
+     * Returns one page of the conferences whose name, description or topics match the search query, best
+     * matches first. The query uses the Search API query language, so "topic:Cloud city:London" works too.
+     * A conference appears in the results shortly after it is created or updated.
+     *
+     * @param query    the search query.
+     * @param pageSize the number of conferences to return, at most {@link #MAX_PAGE_SIZE}.
+     * @param cursor   the nextPageToken of the previous page, or null for the first page.
+     * @return a page of conferences with the token of the next page.
+     * @throws BadRequestException when the query, the page size or the cursor is invalid.
+     */
+    @ApiMethod(name = "searchConferences",
+            path = "searchConferences",
+            httpMethod = HttpMethod.GET)
+    public CollectionResponse<ConferenceSummary> searchConferences(
+            @Named("query") final String query,
+            @Nullable @Named("pageSize") final Integer pageSize,
+            @Nullable @Named("cursor") final String cursor)
+            throws BadRequestException {
+        if (query == null || query.trim().isEmpty()) {
+            throw new BadRequestException("query is required");
+        }
+        int limit = pageLimit(pageSize);
+        ConferenceSearch.Hits hits;
+        try {
+            hits = ConferenceSearch.search(query, limit, cursor == null || cursor.isEmpty() ? null : cursor);
+        } catch (IllegalArgumentException | SearchQueryException e) {
+            throw new BadRequestException("Invalid query or cursor: " + e.getMessage());
+        }
+        return CollectionResponse.<ConferenceSummary>builder()
+                .setItems(summarize(hydrate(hits.getConferenceKeys())))
+                .setNextPageToken(hits.getNextCursor())
+                .build();
+    }
+
+    /**
+     * Returns one page of the conferences created by the user, ordered by name.
+     *
+     * @param user     A User object injected by the cloud endpoints.
+     * @param pageSize the number of conferences to return, at most {@link #MAX_PAGE_SIZE}.
+     * @param cursor   the nextPageToken of the previous page, or null for the first page.
+     * @return a page of conferences with the token of the next page.
+     * @throws UnauthorizedException when the User object is null.
+     * @throws BadRequestException   when the page size or the cursor is invalid.
+     */
     @ApiMethod(name = "getConferencesCreated",
                 path = "getConferencesCreate",
                 httpMethod = HttpMethod.POST)
-    public List<Conference> getConferencesCreated(final User user) throws UnauthorizedException{
+    public CollectionResponse<ConferenceSummary> getConferencesCreated(
+            final User user,
+            @Nullable @Named("pageSize") final Integer pageSize,
+            @Nullable @Named("cursor") final String cursor)
+            throws UnauthorizedException, BadRequestException {
         if(user == null){
             throw new UnauthorizedException(AUTHORIZATION_REQUIRED_MESSAGE);
         }
         Key<Profile> profileKey = Key.create(Profile.class,user.getUserId());
-        Query queryForUsersCreatedConferences = ofy().load().type(Conference.class).ancestor(profileKey).order("name");
-        return queryForUsersCreatedConferences.list();
+        Query<Conference> queryForUsersCreatedConferences = ofy().load().type(Conference.class).ancestor(profileKey).order("name");
+        return queryPage(queryForUsersCreatedConferences, pageSize, cursor);
+    }
+
+    /**
+     * Returns a Conference object with the given conferenceId.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return a Conference object with the given conferenceId.
+     * @throws NotFoundException when there is no Conference with the given conferenceId.
+     */
+    @ApiMethod(name = "getConference",
+            path = "conference/{websafeConferenceKey}",
+            httpMethod = HttpMethod.GET)
+    public Conference getConference(@Named("websafeConferenceKey") final String websafeConferenceKey)
+            throws NotFoundException {
+        Conference conference = ConferenceCache.getResolved(websafeConferenceKey);
+        if (conference != null) {
+            return conference;
+        }
+        try {
+            conference = ConferenceCache.load(Key.<Conference>create(websafeConferenceKey));
+        } catch (IllegalArgumentException e) {
+            // not a websafe key of any kind
+        }
+        if (conference == null) {
+            throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+        }
+        resolve(Collections.singletonList(conference));
+        ConferenceCache.putResolved(conference);
+        return conference;
+    }
+
+    /**
+     * Updates a conference created by the user.
+     *
+     * @param user                 A User object injected by the cloud endpoints.
+     * @param conferenceForm       the new values of the conference.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the updated conference.
+     * @throws UnauthorizedException when the User object is null.
+     * @throws NotFoundException     when there is no Conference with the given key.
+     * @throws ForbiddenException    when the user is not the organizer of the conference.
+     * @throws ConflictException     when maxAttendees is less than the seats already allocated.
+     * @throws ServiceUnavailableException when the transaction kept losing against concurrent writes.
+     * @throws TooManyRequestsException    when the user has used up the limit of this method.
+     */
+    @ApiMethod(name = "updateConference",
+            path = "conference/{websafeConferenceKey}",
+            httpMethod = HttpMethod.PUT)
+    public Conference updateConference(final User user, final ConferenceForm conferenceForm,
+                                       @Named("websafeConferenceKey") final String websafeConferenceKey)
+            throws UnauthorizedException, NotFoundException, ForbiddenException, ConflictException,
+            ServiceUnavailableException, TooManyRequestsException {
+        if (user == null) {
+            throw new UnauthorizedException(AUTHORIZATION_REQUIRED_MESSAGE);
+        }
+        admit(user, "updateConference");
+        // the organizer is the parent of the key, so the conference is only loaded in the transaction
+        Key<Conference> parsedKey = null;
+        try {
+            parsedKey = Key.create(websafeConferenceKey);
+        } catch (IllegalArgumentException e) {
+            // not a websafe key of any kind
+        }
+        if (parsedKey == null || !Key.getKind(Conference.class).equals(parsedKey.getKind())
+                || parsedKey.getParent() == null) {
+            throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+        }
+        final Key<Conference> conferenceKey = parsedKey;
+        if (!user.getUserId().equals(conferenceKey.getParent().getName())) {
+            throw new ForbiddenException("Only the organizer can update the conference.");
+        }
+        Conference conference;
+        try {
+            conference = TransactionService.transact("updateConference", new Work<Conference>() {
+                @Override
+                public Conference run() {
+                    Conference conference = ofy().load().key(conferenceKey).now();
+                    if (conference == null) {
+                        return null;
+                    }
+                    Set<String> facetValues = ConferenceFacets.valuesOf(conference);
+                    SeatService.updateWithConferenceForm(conference, conferenceForm);
+                    ofy().save().entity(conference);
+                    FacetService.enqueueChangeInTransaction(facetValues, conference);
+                    return conference;
+                }
+            });
+        } catch (IllegalArgumentException e) {
+            throw new ConflictException(e.getMessage());
+        } catch (ConcurrentModificationException e) {
+            throw new ServiceUnavailableException("The conference is being updated, please try again.");
+        }
+        if (conference == null) {
+            throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+        }
+        ConferenceSearch.IndexWrite indexWrite = ConferenceSearch.index(Collections.singletonList(conference));
+        ConferenceCache.written(conference);
+        resolve(Collections.singletonList(conference));
+        indexWrite.complete();
+        return conference;
+    }
+
+    /**
+     * Registers the user for the conference. The Profile and one seat shard are updated in one cross group
+     * transaction, which is retried with backoff when it loses against concurrent registrations. The user's
+     * waitlist entry, if any, is consumed in the same transaction.
+     *
+     * @param user                 A User object injected by the cloud endpoints.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return Boolean true when the user has been registered.
+     * @throws UnauthorizedException       when the User object is null.
+     * @throws NotFoundException           when there is no Conference with the given key.
+     * @throws ConflictException           when the user is already registered, there are no seats left or
+     *                                     users are waiting on the waitlist.
+     * @throws ServiceUnavailableException when the transaction kept losing against concurrent registrations.
+     * @throws TooManyRequestsException    when the user has used up the limit of this method.
+     */
+    @ApiMethod(name = "registerForConference",
+            path = "conference/{websafeConferenceKey}/registration",
+            httpMethod = HttpMethod.POST)
+    public WrappedBoolean registerForConference(final User user,
+                                                @Named("websafeConferenceKey") final String websafeConferenceKey)
+            throws UnauthorizedException, NotFoundException, ConflictException, ServiceUnavailableException,
+            TooManyRequestsException {
+        if (user == null) {
+            throw new UnauthorizedException(AUTHORIZATION_REQUIRED_MESSAGE);
+        }
+        admit(user, "registerForConference");
+        final Conference conference = loadConference(websafeConferenceKey);
+        final String conferenceKey = conference.getWebsafeKey();
+        if (WaitlistService.hasWaiting(conference.getKey())) {
+            throw new ConflictException("Released seats go to the waitlist first, please join the waitlist");
+        }
+        final boolean waitlisted = WaitlistService.isWaiting(conference.getKey(), user.getUserId());
+        String conflict;
+        try {
+            conflict = TransactionService.transact("registerForConference", new Work<String>() {
+                @Override
+                public String run() {
+                    Profile profile = getProfileFromUser(user);
+                    if (profile.getConferenceKeysToAttend().contains(conferenceKey)) {
+                        return "You have already registered for this conference";
+                    }
+                    try {
+                        SeatService.bookSeatsInTransaction(conference, 1);
+                    } catch (IllegalArgumentException e) {
+                        return e.getMessage();
+                    }
+                    profile.addToConferenceKeysToAttend(conferenceKey);
+                    ofy().save().entity(profile);
+                    if (waitlisted) {
+                        WaitlistService.consumeInTransaction(conference.getKey(), user.getUserId());
+                    }
+                    return null;
+                }
+            });
+        } catch (ConcurrentModificationException e) {
+            throw new ServiceUnavailableException("Too many concurrent registrations, please try again.");
+        }
+        if (conflict != null) {
+            throw new ConflictException(conflict);
+        }
+        return new WrappedBoolean(true);
+    }
+
+    /**
+     * Unregisters the user from the conference, in the same kind of transaction as
+     * {@link #registerForConference(User, String)}, which also consumes the user's waitlist entry.
+     *
+     * @param user                 A User object injected by the cloud endpoints.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return Boolean true when the user has been unregistered.
+     * @throws UnauthorizedException       when the User object is null.
+     * @throws NotFoundException           when there is no Conference with the given key.
+     * @throws ConflictException           when the user is not registered for the conference.
+     * @throws ServiceUnavailableException when the transaction kept losing against concurrent registrations.
+     * @throws TooManyRequestsException    when the user has used up the limit of this method.
+     */
+    @ApiMethod(name = "unregisterFromConference",
+            path = "conference/{websafeConferenceKey}/registration",
+            httpMethod = HttpMethod.DELETE)
+    public WrappedBoolean unregisterFromConference(final User user,
+                                                   @Named("websafeConferenceKey") final String websafeConferenceKey)
+            throws UnauthorizedException, NotFoundException, ConflictException, ServiceUnavailableException,
+            TooManyRequestsException {
+        if (user == null) {
+            throw new UnauthorizedException(AUTHORIZATION_REQUIRED_MESSAGE);
+        }
+        admit(user, "unregisterFromConference");
+        final Conference conference = loadConference(websafeConferenceKey);
+        final String conferenceKey = conference.getWebsafeKey();
+        final boolean waitlisted = WaitlistService.isWaiting(conference.getKey(), user.getUserId());
+        String conflict;
+        try {
+            conflict = TransactionService.transact("unregisterFromConference", new Work<String>() {
+                @Override
+                public String run() {
+                    Profile profile = getProfileFromUser(user);
+                    if (!profile.getConferenceKeysToAttend().contains(conferenceKey)) {
+                        return "You are not registered for this conference";
+                    }
+                    SeatService.giveBackSeatsInTransaction(conference, 1);
+                    WaitlistService.enqueuePromotionInTransaction(conference.getKey());
+                    profile.unregisterFromConference(conferenceKey);
+                    ofy().save().entity(profile);
+                    if (waitlisted) {
+                        WaitlistService.consumeInTransaction(conference.getKey(), user.getUserId());
+                    }
+                    return null;
+                }
+            });
+        } catch (ConcurrentModificationException e) {
+            throw new ServiceUnavailableException("Too many concurrent registrations, please try again.");
+        }
+        if (conflict != null) {
+            throw new ConflictException(conflict);
+        }
+        return new WrappedBoolean(true);
+    }
+
+    /**
+     * Puts the user on the waitlist of the conference, see {@link WaitlistService}. Users who are already on
+     * it keep their place.
+     *
+     * @param user                 A User object injected by the cloud endpoints.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the user's position on the waitlist.
+     * @throws UnauthorizedException       when the User object is null.
+     * @throws NotFoundException           when there is no Conference with the given key.
+     * @throws ConflictException           when the user is registered for the conference.
+     * @throws ServiceUnavailableException when the transaction kept losing against concurrent writes.
+     * @throws TooManyRequestsException    when the user has used up the limit of this method.
+     */
+    @ApiMethod(name = "joinWaitlist",
+            path = "conference/{websafeConferenceKey}/waitlist",
+            httpMethod = HttpMethod.POST)
+    public WaitlistPosition joinWaitlist(final User user,
+                                         @Named("websafeConferenceKey") final String websafeConferenceKey)
+            throws UnauthorizedException, NotFoundException, ConflictException, ServiceUnavailableException,
+            TooManyRequestsException {
+        if (user == null) {
+            throw new UnauthorizedException(AUTHORIZATION_REQUIRED_MESSAGE);
+        }
+        admit(user, "joinWaitlist");
+        Conference conference = loadConference(websafeConferenceKey);
+        Profile profile = ofy().load().key(Key.create(Profile.class, user.getUserId())).now();
+        if (profile == null) {
+            // the promotion registers the conference on the profile
+            WriteOps writeOps = new WriteOps("joinWaitlist");
+            createProfile(user, writeOps);
+            writeOps.log();
+        } else if (profile.getConferenceKeysToAttend().contains(conference.getWebsafeKey())) {
+            throw new ConflictException("You have already registered for this conference");
+        }
+        try {
+            return WaitlistService.join(conference.getKey(), user.getUserId());
+        } catch (ConcurrentModificationException e) {
+            throw new ServiceUnavailableException("Too many users are joining the waitlist, please try again.");
+        }
+    }
+
+    /**
+     * Returns the user's position on the waitlist of the conference from memcache, a cheap call clients can
+     * poll instead of retrying the registration.
+     *
+     * @param user                 A User object injected by the cloud endpoints.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return the user's position, 0 once the user has left the waitlist.
+     * @throws UnauthorizedException when the User object is null.
+     * @throws NotFoundException     when the user has not joined the waitlist of the conference.
+     */
+    @ApiMethod(name = "getWaitlistPosition",
+            path = "conference/{websafeConferenceKey}/waitlist",
+            httpMethod = HttpMethod.GET)
+    public WaitlistPosition getWaitlistPosition(final User user,
+                                                @Named("websafeConferenceKey") final String websafeConferenceKey)
+            throws UnauthorizedException, NotFoundException {
+        if (user == null) {
+            throw new UnauthorizedException(AUTHORIZATION_REQUIRED_MESSAGE);
+        }
+        WaitlistPosition position = null;
+        try {
+            position = WaitlistService.getPosition(Key.<Conference>create(websafeConferenceKey), user.getUserId());
+        } catch (IllegalArgumentException e) {
+            // not a websafe key of any kind
+        }
+        if (position == null) {
+            throw new NotFoundException("You are not on the waitlist of conference " + websafeConferenceKey);
+        }
+        return position;
+    }
+
+    /**
+     * Takes the user off the waitlist of the conference, so the user is not registered when a seat is
+     * released.
+     *
+     * @param user                 A User object injected by the cloud endpoints.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return Boolean true when the user has left the waitlist.
+     * @throws UnauthorizedException       when the User object is null.
+     * @throws NotFoundException           when there is no Conference with the given key or the user is not
+     *                                     waiting for it.
+     * @throws ServiceUnavailableException when the transaction kept losing against concurrent writes.
+     * @throws TooManyRequestsException    when the user has used up the limit of this method.
+     */
+    @ApiMethod(name = "leaveWaitlist",
+            path = "conference/{websafeConferenceKey}/waitlist",
+            httpMethod = HttpMethod.DELETE)
+    public WrappedBoolean leaveWaitlist(final User user,
+                                        @Named("websafeConferenceKey") final String websafeConferenceKey)
+            throws UnauthorizedException, NotFoundException, ServiceUnavailableException, TooManyRequestsException {
+        if (user == null) {
+            throw new UnauthorizedException(AUTHORIZATION_REQUIRED_MESSAGE);
+        }
+        admit(user, "leaveWaitlist");
+        Conference conference = loadConference(websafeConferenceKey);
+        boolean left;
+        try {
+            left = WaitlistService.leave(conference.getKey(), user.getUserId());
+        } catch (ConcurrentModificationException e) {
+            throw new ServiceUnavailableException("Too many users are joining the waitlist, please try again.");
+        }
+        if (!left) {
+            throw new NotFoundException("You are not on the waitlist of conference " + websafeConferenceKey);
+        }
+        return new WrappedBoolean(true);
+    }
+
+    /**
+     * Returns the conferences the user has registered for, hydrated through the {@link ConferenceCache}.
+     *
+     * @param user A User object injected by the cloud endpoints.
+     * @return the conferences the user has registered for, in the order of registration.
+     * @throws UnauthorizedException when the User object is null.
+     */
+    @ApiMethod(name = "getConferencesToAttend",
+            path = "getConferencesToAttend",
+            httpMethod = HttpMethod.GET)
+    public CollectionResponse<ConferenceSummary> getConferencesToAttend(final User user)
+            throws UnauthorizedException {
+        if (user == null) {
+            throw new UnauthorizedException(AUTHORIZATION_REQUIRED_MESSAGE);
+        }
+        Profile profile = ofy().load().key(Key.create(Profile.class, user.getUserId())).now();
+        List<Key<Conference>> conferenceKeys = new ArrayList<>();
+        if (profile != null) {
+            for (String websafeConferenceKey : profile.getConferenceKeysToAttend()) {
+                conferenceKeys.add(Key.<Conference>create(websafeConferenceKey));
+            }
+        }
+        return CollectionResponse.<ConferenceSummary>builder().setItems(summarize(hydrate(conferenceKeys))).build();
+    }
+
+    /**
+     * Returns the number of conferences per city, month and topic, for the filters of the conference list.
+     * The counts are maintained by {@link FacetService} and served from memcache; they follow conference
+     * writes within seconds.
+     *
+     * @return the facet counts.
+     */
+    @ApiMethod(name = "getConferenceFacets",
+            path = "conferenceFacets",
+            httpMethod = HttpMethod.GET)
+    public ConferenceFacets getConferenceFacets() {
+        return FacetService.getFacets();
+    }
+
+    /**
+     * Returns the announcement put in memcache by the SetAnnouncementServlet cron job. Only reads memcache,
+     * never the datastore.
+     *
+     * @return the announcement, or null when there is none.
+     */
+    @ApiMethod(name = "getAnnouncement",
+            path = "announcement",
+            httpMethod = HttpMethod.GET)
+    public Announcement getAnnouncement() {
+        Object message = MemcacheServiceFactory.getMemcacheService().get(Constants.MEMCACHE_ANNOUNCEMENTS_KEY);
+        return message == null ? null : new Announcement(message.toString());
     }
 }
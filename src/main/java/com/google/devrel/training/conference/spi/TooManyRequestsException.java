@@ -0,0 +1,14 @@
+package com.google.devrel.training.conference.spi;
+
+import com.google.api.server.spi.ServiceException;
+
+/**
+ * 429 Too Many Requests, for a user who has used up the limit of an API method. Endpoints has no exception
+ * class of its own for it.
+ */
+public class TooManyRequestsException extends ServiceException {
+
+    public TooManyRequestsException(String message) {
+        super(429, message);
+    }
+}
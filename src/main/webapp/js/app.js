@@ -130,3 +130,54 @@ app.factory('oauth2Provider', function ($modal) {
 
     return oauth2Provider;
 });
+
+
+/**
+ * @ngdoc service
+ * @name conferenceCache
+ *
+ * @description
+ * Keeps the conferences the detail page has fetched with their ETags, and fetches them again with
+ * If-None-Match, so a conference that has not changed comes back as 304 without a body.
+ *
+ */
+app.factory('conferenceCache', function () {
+    var conferences = {};
+    var conferenceCache = {};
+
+    /**
+     * Invokes the conference.getConference method, revalidating the conference fetched before.
+     *
+     * @param websafeConferenceKey the websafe key of the conference.
+     * @param callback called with a response like the one of gapi.client.conference.getConference.
+     */
+    conferenceCache.getConference = function (websafeConferenceKey, callback) {
+        var cached = conferences[websafeConferenceKey];
+        var headers = {};
+        if (cached) {
+            headers['If-None-Match'] = cached.etag;
+        }
+        gapi.client.request({
+            root: '//' + window.location.host + '/_ah/api',
+            path: 'conference/v1/conference/' + encodeURIComponent(websafeConferenceKey),
+            method: 'GET',
+            headers: headers
+        }).execute(function (jsonResp, rawResp) {
+            var data = JSON.parse(rawResp).gapiRequest.data;
+            if (data.status == 304 && cached) {
+                callback({result: angular.copy(cached.conference)});
+            } else if (!jsonResp || jsonResp.error || data.status != 200) {
+                callback({error: (jsonResp && jsonResp.error) || {code: data.status, message: data.statusText}});
+            } else {
+                var etag = data.headers && (data.headers.etag || data.headers.ETag);
+                if (etag) {
+                    // the page changes the seats it shows, the cached copy stays as it was served
+                    conferences[websafeConferenceKey] = {etag: etag, conference: angular.copy(jsonResp)};
+                }
+                callback({result: jsonResp});
+            }
+        });
+    };
+
+    return conferenceCache;
+});
@@ -264,7 +264,8 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
         {enumValue: 'CITY', displayName: 'City'},
         {enumValue: 'TOPIC', displayName: 'Topic'},
         {enumValue: 'MONTH', displayName: 'Start month'},
-        {enumValue: 'MAX_ATTENDEES', displayName: 'Max Attendees'}
+        {enumValue: 'MAX_ATTENDEES', displayName: 'Max Attendees'},
+        {enumValue: 'SEATS_AVAILABLE', displayName: 'Seats Available'}
     ]
 
     /**
@@ -340,6 +341,12 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
     $scope.pagination = $scope.pagination || {};
     $scope.pagination.currentPage = 0;
     $scope.pagination.pageSize = 20;
+
+    /**
+     * Holds the token of the next server side page, empty when there are no more conferences.
+     * @type {string}
+     */
+    $scope.pagination.nextPageToken = null;
     /**
      * Returns the number of the pages in the pagination.
      *
@@ -406,8 +413,12 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
      * Query the conferences depending on the tab currently selected.
      *
      */
-    $scope.queryConferences = function () {
+    $scope.queryConferences = function (cursor) {
         $scope.submitted = false;
+        $scope.pagination.cursor = cursor;
+        if (!cursor) {
+            $scope.pagination.currentPage = 0;
+        }
         if ($scope.selectedTab == 'ALL') {
             $scope.queryConferencesAll();
         } else if ($scope.selectedTab == 'YOU_HAVE_CREATED') {
@@ -417,13 +428,41 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
         }
     };
 
+    /**
+     * Fetches the next server side page and appends it to the conferences.
+     */
+    $scope.loadMoreConferences = function () {
+        if ($scope.pagination.nextPageToken) {
+            $scope.queryConferences($scope.pagination.nextPageToken);
+        }
+    };
+
+    /**
+     * Replaces the conferences with the given page, or appends it when a cursor was sent.
+     *
+     * @param resp the response of a paged conference query.
+     */
+    var showPage = function (resp) {
+        if (!$scope.pagination.cursor) {
+            $scope.conferences = [];
+        }
+        angular.forEach(resp.items, function (conference) {
+            $scope.conferences.push(conference);
+        });
+        $scope.pagination.nextPageToken = resp.nextPageToken || null;
+    };
+
     /**
      * Invokes the conference.queryConferences API.
      */
     $scope.queryConferencesAll = function () {
         var sendFilters = {
+            pageSize: $scope.pagination.pageSize,
             filters: []
         }
+        if ($scope.pagination.cursor) {
+            sendFilters.cursor = $scope.pagination.cursor;
+        }
         for (var i = 0; i < $scope.filters.length; i++) {
             var filter = $scope.filters[i];
             if (filter.field && filter.operator && filter.value) {
@@ -452,10 +491,7 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
                         $scope.alertStatus = 'success';
                         $log.info($scope.messages);
 
-                        $scope.conferences = [];
-                        angular.forEach(resp.items, function (conference) {
-                            $scope.conferences.push(conference);
-                        });
+                        showPage(resp);
                     }
                     $scope.submitted = true;
                 });
@@ -467,7 +503,13 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
      */
     $scope.getConferencesCreated = function () {
         $scope.loading = true;
-        gapi.client.conference.getConferencesCreated().
+        var page = {
+            pageSize: $scope.pagination.pageSize
+        };
+        if ($scope.pagination.cursor) {
+            page.cursor = $scope.pagination.cursor;
+        }
+        gapi.client.conference.getConferencesCreated(page).
             execute(function (resp) {
                 $scope.$apply(function () {
                     $scope.loading = false;
@@ -489,10 +531,7 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
                         $scope.alertStatus = 'success';
                         $log.info($scope.messages);
 
-                        $scope.conferences = [];
-                        angular.forEach(resp.items, function (conference) {
-                            $scope.conferences.push(conference);
-                        });
+                        showPage(resp);
                     }
                     $scope.submitted = true;
                 });
@@ -500,8 +539,8 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
     };
 
     /**
-     * Retrieves the conferences to attend by calling the conference.getProfile method and
-     * invokes the conference.getConference method n times where n == the number of the conferences to attend.
+     * Retrieves the conferences to attend with the conference.getConferencesToAttend method, which loads
+     * all of them in one batch on the server.
      */
     $scope.getConferencesAttend = function () {
         $scope.loading = true;
@@ -522,6 +561,7 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
                     } else {
                         // The request has succeeded.
                         $scope.conferences = resp.result.items;
+                        $scope.pagination.nextPageToken = null;
                         $scope.loading = false;
                         $scope.messages = 'Query succeeded : Conferences you will attend (or you have attended)';
                         $scope.alertStatus = 'success';
@@ -541,21 +581,20 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
  * @description
  * A controller used for the conference detail page.
  */
-conferenceApp.controllers.controller('ConferenceDetailCtrl', function ($scope, $log, $routeParams, HTTP_ERRORS) {
+conferenceApp.controllers.controller('ConferenceDetailCtrl', function ($scope, $log, $routeParams, conferenceCache, HTTP_ERRORS) {
     $scope.conference = {};
 
     $scope.isUserAttending = false;
 
     /**
      * Initializes the conference detail page.
-     * Invokes the conference.getConference method and sets the returned conference in the $scope.
+     * Invokes the conference.getConference method through the conferenceCache and sets the returned conference
+     * in the $scope.
      *
      */
     $scope.init = function () {
         $scope.loading = true;
-        gapi.client.conference.getConference({
-            websafeConferenceKey: $routeParams.websafeConferenceKey
-        }).execute(function (resp) {
+        conferenceCache.getConference($routeParams.websafeConferenceKey, function (resp) {
             $scope.$apply(function () {
                 $scope.loading = false;
                 if (resp.error) {
@@ -753,6 +792,19 @@ conferenceApp.controllers.controller('RootCtrl', function ($scope, $location, oa
         $scope.rootMessages = 'Logged out';
     };
 
+    /**
+     * Invokes the conference.getAnnouncement method, which is served from memcache.
+     */
+    $scope.getAnnouncement = function () {
+        gapi.client.conference.getAnnouncement().execute(function (resp) {
+            $scope.$apply(function () {
+                if (!resp.error && resp.message) {
+                    $scope.announcement = resp.message;
+                }
+            });
+        });
+    };
+
     /**
      * Collapses the navbar on mobile devices.
      */
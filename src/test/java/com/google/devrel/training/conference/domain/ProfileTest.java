@@ -63,7 +63,6 @@ public class ProfileTest {
         assertEquals(newTeeShirtSize, profile.getTeeShirtSize());
     }
 
-    /*
     @Test
     public void testListValues() throws Exception {
         List<String> conferenceKeys = new ArrayList<>();
@@ -73,5 +72,17 @@ public class ProfileTest {
         conferenceKeys.add(conferenceKey.getString());
         assertEquals(conferenceKeys, profile.getConferenceKeysToAttend());
     }
-    */
+
+    @Test
+    public void testUnregisterFromConference() throws Exception {
+        Key<Conference> conferenceKey = Key.create(Conference.class, 123L);
+        profile.addToConferenceKeysToAttend(conferenceKey.getString());
+        profile.unregisterFromConference(conferenceKey.getString());
+        assertTrue(profile.getConferenceKeysToAttend().isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnregisterFromConferenceNotAttended() throws Exception {
+        profile.unregisterFromConference(Key.create(Conference.class, 123L).getString());
+    }
 }
@@ -0,0 +1,116 @@
+package com.google.devrel.training.conference.form;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.Iterables;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.QueryForm.Field;
+import com.google.devrel.training.conference.form.QueryForm.Filter;
+import com.google.devrel.training.conference.form.QueryForm.Operator;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.util.Closeable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for the query planning of QueryForm.
+ */
+public class QueryFormTest {
+
+    private static final String USER_ID = "123456789";
+
+    // Global queries have to see the saved conferences, so all jobs are applied right away.
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(0));
+    private Closeable session;
+
+    @Before
+    public void setUp() throws Exception {
+        session = ObjectifyService.begin();
+        helper.setUp();
+        ofy().save().entities(
+                conference(1, "Alpha", "London", "03/25/2014", 100, "Cloud"),
+                conference(2, "Bravo", "London", "06/01/2014", 50, "Mobile"),
+                conference(3, "Charlie", "Paris", "04/10/2014", 500, "Cloud"),
+                conference(4, "Delta", "London", "05/15/2014", 200, "Cloud")).now();
+        ofy().clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+        session.close();
+    }
+
+    private static Conference conference(long id, String name, String city, String startDate, int maxAttendees,
+                                         String topic) throws Exception {
+        DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+        return new Conference(id, USER_ID, new ConferenceForm(name, null, Arrays.asList(topic), city,
+                dateFormat.parse(startDate), null, maxAttendees));
+    }
+
+    private static List<String> names(QueryForm queryForm) {
+        List<String> names = new ArrayList<>();
+        for (Conference conference : Iterables.filter(queryForm.buildQuery().list(),
+                queryForm.buildResidualFilter())) {
+            names.add(conference.getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void testNoFiltersOrdersByName() throws Exception {
+        QueryForm queryForm = new QueryForm();
+        assertFalse(queryForm.hasResidualFilter());
+        assertEquals(Arrays.asList("Alpha", "Bravo", "Charlie", "Delta"), names(queryForm));
+    }
+
+    @Test
+    public void testEqualityAndRangeRunInDatastore() throws Exception {
+        QueryForm queryForm = new QueryForm()
+                .filter(new Filter(Field.CITY, Operator.EQ, "London"))
+                .filter(new Filter(Field.MAX_ATTENDEES, Operator.GTEQ, "100"));
+        assertFalse(queryForm.hasResidualFilter());
+        // ordered by the inequality property first
+        assertEquals(Arrays.asList("Alpha", "Delta"), names(queryForm));
+    }
+
+    @Test
+    public void testSecondInequalityIsResidual() throws Exception {
+        QueryForm queryForm = new QueryForm()
+                .filter(new Filter(Field.MAX_ATTENDEES, Operator.GT, "60"))
+                .filter(new Filter(Field.MONTH, Operator.GT, "3"))
+                .filter(new Filter(Field.MONTH, Operator.LT, "6"));
+        assertTrue(queryForm.hasResidualFilter());
+        // month has the bounded range, so it is the datastore inequality and maxAttendees is residual
+        assertEquals(Arrays.asList("Charlie", "Delta"), names(queryForm));
+    }
+
+    @Test
+    public void testNotEqualAndSecondEqualityAreResidual() throws Exception {
+        QueryForm queryForm = new QueryForm()
+                .filter(new Filter(Field.TOPIC, Operator.EQ, "Cloud"))
+                .filter(new Filter(Field.CITY, Operator.EQ, "London"))
+                .filter(new Filter(Field.MONTH, Operator.NE, "3"));
+        assertTrue(queryForm.hasResidualFilter());
+        assertEquals(Arrays.asList("Delta"), names(queryForm));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonNumericValueForIntegerField() throws Exception {
+        new QueryForm().filter(new Filter(Field.MONTH, Operator.EQ, "March")).buildQuery();
+    }
+}
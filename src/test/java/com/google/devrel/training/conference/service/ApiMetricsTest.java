@@ -0,0 +1,48 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the per API method counters.
+ */
+public class ApiMetricsTest {
+
+    @Before
+    public void setUp() throws Exception {
+        ApiMetrics.resetMetrics();
+    }
+
+    @Test
+    public void testLatencyBuckets() throws Exception {
+        ApiMetrics.record("getConference", 5, 200, null);
+        ApiMetrics.record("getConference", 6, 200, null);
+        ApiMetrics.record("getConference", 60000, 200, null);
+        ApiMetrics.MethodMetrics metrics = ApiMetrics.getMetrics().get("getConference");
+        long[] buckets = metrics.getBuckets();
+        assertEquals(1, buckets[0]);
+        assertEquals(1, buckets[1]);
+        assertEquals(1, buckets[ApiMetrics.BUCKET_MILLIS.length]);
+        assertEquals(3, metrics.getRequests());
+        assertEquals(60011, metrics.getTotalMillis());
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        ApiMetrics.record("registerForConference", 1, 409, null);
+        ApiMetrics.record("registerForConference", 1, 503, null);
+        ApiMetrics.MethodMetrics metrics = ApiMetrics.getMetrics().get("registerForConference");
+        assertEquals(1, metrics.getClientErrors());
+        assertEquals(1, metrics.getErrors());
+    }
+
+    @Test
+    public void testMethodsAreSeparate() throws Exception {
+        ApiMetrics.record("queryConferences", 1, 200, null);
+        ApiMetrics.record("createConference", 1, 200, null);
+        assertEquals(2, ApiMetrics.getMetrics().size());
+        assertEquals(1, ApiMetrics.getMetrics().get("queryConferences").getRequests());
+    }
+}
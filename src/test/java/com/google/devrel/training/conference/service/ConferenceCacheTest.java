@@ -0,0 +1,134 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.util.Closeable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Tests for the two tiers of ConferenceCache.
+ */
+public class ConferenceCacheTest {
+
+    private static final String USER_ID = "123456789";
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(100),
+                    new LocalMemcacheServiceTestConfig());
+    private Closeable session;
+
+    private Conference conference;
+
+    @Before
+    public void setUp() throws Exception {
+        session = ObjectifyService.begin();
+        helper.setUp();
+        ConferenceCache.clearLocal();
+        conference = new Conference(1L, USER_ID, new ConferenceForm("GCP Live", null, null, null, null, null, 10));
+        ofy().save().entity(conference).now();
+        ofy().clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+        session.close();
+    }
+
+    @Test
+    public void testLoadIsServedFromMemcache() throws Exception {
+        // the first load seeds the version, the second fills the entity
+        assertEquals("GCP Live", ConferenceCache.load(conference.getKey()).getName());
+        ofy().clear();
+        assertEquals("GCP Live", ConferenceCache.load(conference.getKey()).getName());
+        ofy().delete().key(conference.getKey()).now();
+        ofy().clear();
+        // still in memcache, the delete did not go through the cache
+        assertEquals("GCP Live", ConferenceCache.load(conference.getKey()).getName());
+    }
+
+    @Test
+    public void testWriteMovesToNewVersion() throws Exception {
+        ConferenceCache.load(conference.getKey());
+        conference.updateWithConferenceForm(new ConferenceForm("Renamed", null, null, null, null, null, 10));
+        ofy().save().entity(conference).now();
+        ConferenceCache.written(conference);
+        ofy().clear();
+        assertEquals("Renamed", ConferenceCache.load(conference.getKey()).getName());
+    }
+
+    @Test
+    public void testInvalidateRereadsDatastore() throws Exception {
+        ConferenceCache.load(conference.getKey());
+        ofy().delete().key(conference.getKey()).now();
+        ConferenceCache.invalidate(conference.getKey());
+        ofy().clear();
+        assertNull(ConferenceCache.load(conference.getKey()));
+    }
+
+    @Test
+    public void testLoadAllFillsMemcache() throws Exception {
+        Conference other = new Conference(2L, USER_ID, new ConferenceForm("Other", null, null, null, null, null, 10));
+        ofy().save().entity(other).now();
+        ofy().clear();
+        Key<Conference> missing = Key.create(conference.getKey().getParent(), Conference.class, 3L);
+        Map<Key<Conference>, Conference> loaded =
+                ConferenceCache.loadAll(Arrays.asList(conference.getKey(), other.getKey(), missing));
+        assertEquals(2, loaded.size());
+        assertEquals("Other", loaded.get(other.getKey()).getName());
+        // the first call seeded the versions, this one fills the entities
+        ofy().clear();
+        assertEquals(2, ConferenceCache.loadAll(Arrays.asList(conference.getKey(), other.getKey())).size());
+        ofy().delete().keys(conference.getKey(), other.getKey()).now();
+        ofy().clear();
+        // both are served from memcache now
+        assertEquals(2, ConferenceCache.loadAll(Arrays.asList(conference.getKey(), other.getKey())).size());
+    }
+
+    @Test
+    public void testLostVersionBypassesMemcache() throws Exception {
+        ConferenceCache.load(conference.getKey());
+        ConferenceCache.load(conference.getKey());
+        conference.updateWithConferenceForm(new ConferenceForm("Renamed", null, null, null, null, null, 10));
+        ofy().save().entity(conference).now();
+        ConferenceCache.written(conference);
+        ofy().clear();
+        // memcache evicts the version, an entity cached before any write is still around
+        MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+        memcache.delete("CONFERENCE_VERSION_" + conference.getWebsafeKey());
+        memcache.put("CONFERENCE_" + conference.getWebsafeKey() + "_v0", ofy().save().toEntity(
+                new Conference(1L, USER_ID, new ConferenceForm("GCP Live", null, null, null, null, null, 10))));
+        assertEquals("Renamed", ConferenceCache.load(conference.getKey()).getName());
+        assertEquals("Renamed", ConferenceCache.loadAll(Arrays.asList(conference.getKey()))
+                .get(conference.getKey()).getName());
+        // the seeded version is far past the versions handed out before
+        assertTrue(((Number) memcache.get("CONFERENCE_VERSION_" + conference.getWebsafeKey())).longValue() > 1);
+    }
+
+    @Test
+    public void testResolvedTier() throws Exception {
+        assertNull(ConferenceCache.getResolved(conference.getWebsafeKey()));
+        ConferenceCache.putResolved(conference);
+        assertSame(conference, ConferenceCache.getResolved(conference.getWebsafeKey()));
+        ConferenceCache.evictLocal(conference.getWebsafeKey());
+        assertNull(ConferenceCache.getResolved(conference.getWebsafeKey()));
+    }
+}
@@ -0,0 +1,106 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.apphosting.api.ApiProxy;
+import com.googlecode.objectify.Key;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests for the pre-allocated conference ids.
+ */
+public class ConferenceIdPoolTest {
+
+    private static final int BLOCK_SIZE = 10;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        helper.tearDown();
+    }
+
+    @Test
+    public void testIdsAreUniqueAcrossBlocks() throws Exception {
+        ConferenceIdPool pool = new ConferenceIdPool(BLOCK_SIZE, 2);
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < BLOCK_SIZE * 5; i++) {
+            long id = pool.next();
+            assertTrue(id + " is not a pool id", (id & ConferenceIdPool.POOL_ID_BIT) != 0);
+            assertTrue(id + " was handed out twice", ids.add(id));
+        }
+    }
+
+    @Test
+    public void testIdsAreUniqueAcrossThreads() throws Exception {
+        final ConferenceIdPool pool = new ConferenceIdPool(BLOCK_SIZE, 2);
+        final int perThread = BLOCK_SIZE * 3;
+        final ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<Long>>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                results.add(executor.submit(new Callable<List<Long>>() {
+                    @Override
+                    public List<Long> call() throws Exception {
+                        // the API proxy environment is per thread
+                        ApiProxy.setEnvironmentForCurrentThread(environment);
+                        try {
+                            List<Long> ids = new ArrayList<>();
+                            for (int i = 0; i < perThread; i++) {
+                                ids.add(pool.next());
+                            }
+                            return ids;
+                        } finally {
+                            ApiProxy.clearEnvironmentForCurrentThread();
+                        }
+                    }
+                }));
+            }
+            Set<Long> ids = new HashSet<>();
+            for (Future<List<Long>> result : results) {
+                for (Long id : result.get()) {
+                    assertTrue(id + " was handed out twice", ids.add(id));
+                }
+            }
+            assertEquals(8 * perThread, ids.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testNextKeyIsUnderTheOrganizer() throws Exception {
+        Key<Profile> organizerKey = Key.create(Profile.class, "123456789");
+        Key<Conference> first = ConferenceIdPool.nextKey(organizerKey);
+        Key<Conference> second = ConferenceIdPool.nextKey(organizerKey);
+        assertEquals(organizerKey, first.getParent());
+        assertNotEquals(first, second);
+        // ids allocated under the profile, as they were before the pool, stay clear of the pooled ones
+        long allocated = OfyService.factory().allocateId(organizerKey, Conference.class).getId();
+        assertTrue(first.getId() > allocated);
+        assertTrue(second.getId() > allocated);
+    }
+}
@@ -0,0 +1,134 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalSearchServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.util.Closeable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests for the conference search index, against the local search stub.
+ */
+public class ConferenceSearchTest {
+
+    private static final String USER_ID = "123456789";
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(0),
+                    new LocalMemcacheServiceTestConfig(),
+                    new LocalSearchServiceTestConfig());
+    private Closeable session;
+
+    @Before
+    public void setUp() throws Exception {
+        session = ObjectifyService.begin();
+        helper.setUp();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+        session.close();
+    }
+
+    private static Conference conference(final long id, final String name, final String description,
+                                         final String city, final String... topics) {
+        return new Conference(id, USER_ID,
+                new ConferenceForm(name, description, Arrays.asList(topics), city, null, null, 10));
+    }
+
+    private static Set<Key<Conference>> search(final String query) {
+        return new HashSet<>(ConferenceSearch.search(query, 100, null).getConferenceKeys());
+    }
+
+    @Test
+    public void testSearchesNameDescriptionAndTopics() throws Exception {
+        Conference live = conference(1, "GCP Live", "All about the cloud", "London", "Platform");
+        Conference summit = conference(2, "Android Summit", "Phones and tablets", "Tokyo", "Mobile", "Cloud");
+        Conference meetup = conference(3, "Java Meetup", null, "London");
+        assertTrue(ConferenceSearch.index(Arrays.asList(live, summit, meetup)).complete());
+
+        assertEquals(Collections.singleton(live.getKey()), search("live"));
+        assertEquals(Collections.singleton(summit.getKey()), search("tablets"));
+        assertEquals(Collections.singleton(live.getKey()), search("platform"));
+        assertEquals(new HashSet<>(Arrays.asList(live.getKey(), summit.getKey())), search("cloud"));
+        assertEquals(Collections.singleton(summit.getKey()), search("topic:cloud"));
+        assertEquals(new HashSet<>(Arrays.asList(live.getKey(), meetup.getKey())), search("city:London"));
+        assertTrue(search("Paris").isEmpty());
+    }
+
+    @Test
+    public void testPagesWithCursor() throws Exception {
+        List<Conference> conferences = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            conferences.add(conference(i + 1, "Cloud Day " + i, null, "London"));
+        }
+        assertTrue(ConferenceSearch.index(conferences).complete());
+
+        Set<Key<Conference>> found = new HashSet<>();
+        ConferenceSearch.Hits hits = ConferenceSearch.search("cloud", 2, null);
+        assertEquals(2, hits.getConferenceKeys().size());
+        found.addAll(hits.getConferenceKeys());
+        hits = ConferenceSearch.search("cloud", 2, hits.getNextCursor());
+        assertEquals(2, hits.getConferenceKeys().size());
+        found.addAll(hits.getConferenceKeys());
+        hits = ConferenceSearch.search("cloud", 2, hits.getNextCursor());
+        assertEquals(1, hits.getConferenceKeys().size());
+        found.addAll(hits.getConferenceKeys());
+        assertNull(hits.getNextCursor());
+        assertEquals(5, found.size());
+    }
+
+    @Test
+    public void testIndexReplacesTheDocument() throws Exception {
+        Conference conference = conference(1, "GCP Live", null, "London");
+        assertTrue(ConferenceSearch.index(Collections.singletonList(conference)).complete());
+        Conference renamed = conference(1, "Cloud Summit", null, "London");
+        assertTrue(ConferenceSearch.index(Collections.singletonList(renamed)).complete());
+
+        assertTrue(search("live").isEmpty());
+        assertEquals(Collections.singleton(conference.getKey()), search("summit"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsInvalidCursor() throws Exception {
+        ConferenceSearch.search("cloud", 10, "not a cursor");
+    }
+
+    @Test
+    public void testReindexesInBatches() throws Exception {
+        int count = ConferenceSearch.MAX_BATCH + 10;
+        List<Conference> conferences = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            conferences.add(conference(i + 1, "Cloud Day " + i, null, "London"));
+        }
+        // saved without going through ConferenceApi, so not indexed yet
+        ofy().save().entities(conferences).now();
+        assertTrue(search("cloud").isEmpty());
+
+        String cursor = ConferenceSearch.reindexBatch(null);
+        assertNotNull(cursor);
+        assertNull(ConferenceSearch.reindexBatch(cursor));
+        assertEquals(count, ConferenceSearch.search("city:London", 1000, null).getConferenceKeys().size());
+    }
+}
@@ -0,0 +1,231 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.api.taskqueue.dev.LocalTaskQueue;
+import com.google.appengine.api.taskqueue.dev.QueueStateInfo;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalSearchServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.spi.ConferenceApiBudgetTest;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.util.Closeable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests for the NDJSON import and export of conferences.
+ */
+public class ConferenceTransferTest {
+
+    private static final String USER_ID = "123456789";
+
+    private static final int ORGANIZERS = 3;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setAlternateHighRepJobPolicyClass(ConferenceApiBudgetTest.ApplyAllJobsPolicy.class),
+                    new LocalMemcacheServiceTestConfig(),
+                    new LocalTaskQueueTestConfig().setQueueXmlPath("src/main/webapp/WEB-INF/queue.xml"),
+                    new LocalSearchServiceTestConfig());
+    private Closeable session;
+
+    @Before
+    public void setUp() throws Exception {
+        session = ObjectifyService.begin();
+        helper.setUp();
+        ofy().save().entity(new Profile("organizer0", "Organizer 0", "o@example.com", TeeShirtSize.M)).now();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+        session.close();
+    }
+
+    private static String lines(final int from, final int to) {
+        StringBuilder lines = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            lines.append("{\"organizerUserId\":\"organizer").append(i % ORGANIZERS)
+                    .append("\",\"name\":\"Conference ").append(i)
+                    .append("\",\"city\":\"London\",\"topics\":[\"Cloud\"],\"maxAttendees\":10}\n");
+        }
+        return lines.toString();
+    }
+
+    /**
+     * Runs the queued import tasks the way ImportBatchServlet does.
+     *
+     * @return the number of conferences saved.
+     */
+    private static int runImportTasks() throws Exception {
+        LocalTaskQueue taskQueue = LocalTaskQueueTestConfig.getLocalTaskQueue();
+        int saved = 0;
+        for (QueueStateInfo.TaskStateInfo task
+                : taskQueue.getQueueStateInfo().get(ConferenceTransfer.QUEUE_NAME).getTaskInfo()) {
+            saved += ConferenceTransfer.importBatch(new BufferedReader(new StringReader(task.getBody())));
+        }
+        taskQueue.flushQueue(ConferenceTransfer.QUEUE_NAME);
+        return saved;
+    }
+
+    private static int queuedImports() {
+        return LocalTaskQueueTestConfig.getLocalTaskQueue().getQueueStateInfo()
+                .get(ConferenceTransfer.QUEUE_NAME).getCountTasks();
+    }
+
+    private static List<Conference> allConferences() {
+        ofy().clear();
+        return ofy().load().type(Conference.class).list();
+    }
+
+    @Test
+    public void testJsonRoundTrip() throws Exception {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+        Conference conference = new Conference(42, USER_ID, new ConferenceForm("GCP \"Live\"", null,
+                Arrays.asList("Cloud", "Web"), "London", dateFormat.parse("03/25/2014"),
+                dateFormat.parse("03/26/2014"), 500));
+        String json = ConferenceTransfer.toJson(conference);
+        assertFalse(json.contains("\n"));
+
+        Conference parsed = ConferenceTransfer.parse(json).toConference(42);
+        assertEquals(conference.getKey(), parsed.getKey());
+        assertEquals(conference.getName(), parsed.getName());
+        assertNull(parsed.getDescription());
+        assertEquals(conference.getTopics(), parsed.getTopics());
+        assertEquals(conference.getCity(), parsed.getCity());
+        assertEquals(conference.getStartDate(), parsed.getStartDate());
+        assertEquals(conference.getEndDate(), parsed.getEndDate());
+        assertEquals(conference.getMonth(), parsed.getMonth());
+        assertEquals(conference.getMaxAttendees(), parsed.getMaxAttendees());
+    }
+
+    @Test
+    public void testParseRejectsInvalidLines() throws Exception {
+        for (String line : Arrays.asList("not json", "{\"name\":\"No organizer\"}",
+                "{\"organizerUserId\":\"1\"}", "{\"organizerUserId\":\"1\",\"name\":\"x\",\"maxAttendees\":-1}",
+                "{\"organizerUserId\":\"1\",\"name\":\"x\",\"startDate\":\"yesterday\"}",
+                "{\"organizerUserId\":\"1\",\"name\":\"x\"} {}")) {
+            try {
+                ConferenceTransfer.parse(line);
+                fail("Accepted " + line);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testImportsInBatches() throws Exception {
+        int count = 2 * ConferenceTransfer.BATCH_SIZE + 50;
+        ConferenceTransfer.Upload upload = new ConferenceTransfer.Upload(0);
+        assertTrue(upload.readAll(new BufferedReader(new StringReader(lines(0, count)))));
+        assertEquals(count, upload.getConferences());
+        assertEquals(3, upload.getBatches());
+        assertEquals(count, upload.getLinesDone());
+        assertEquals(3, queuedImports());
+
+        assertEquals(count, runImportTasks());
+        List<Conference> conferences = allConferences();
+        assertEquals(count, conferences.size());
+        Set<Key<Conference>> keys = new HashSet<>();
+        for (Conference conference : conferences) {
+            keys.add(conference.getKey());
+            assertEquals(10, conference.getSeatsAvailable());
+            if (conference.getOrganizerUserId().equals("organizer0")) {
+                assertEquals("Organizer 0", conference.getOrganizerDisplayName());
+            }
+        }
+        assertEquals(count, keys.size());
+        assertEquals(count, ConferenceSearch.search("cloud", 1000, null).getConferenceKeys().size());
+    }
+
+    @Test
+    public void testRetriedTaskSavesNothing() throws Exception {
+        ConferenceTransfer.Upload upload = new ConferenceTransfer.Upload(0);
+        upload.readAll(new BufferedReader(new StringReader(lines(0, 10))));
+        String payload = LocalTaskQueueTestConfig.getLocalTaskQueue().getQueueStateInfo()
+                .get(ConferenceTransfer.QUEUE_NAME).getTaskInfo().get(0).getBody();
+        assertEquals(10, ConferenceTransfer.importBatch(new BufferedReader(new StringReader(payload))));
+        assertEquals(0, ConferenceTransfer.importBatch(new BufferedReader(new StringReader(payload))));
+        assertEquals(10, allConferences().size());
+    }
+
+    @Test
+    public void testResumesAfterInvalidLine() throws Exception {
+        int good = ConferenceTransfer.BATCH_SIZE + 50;
+        String file = lines(0, good) + "{\"name\":\"No organizer\"}\n" + lines(good + 1, good + 11);
+        ConferenceTransfer.Upload upload = new ConferenceTransfer.Upload(0);
+        try {
+            upload.readAll(new BufferedReader(new StringReader(file)));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Line " + (good + 1) + ":"));
+        }
+        // the lines before the invalid one have been enqueued
+        assertEquals(good, upload.getLinesDone());
+        assertEquals(good, upload.getConferences());
+
+        // the fixed file is uploaded again from the invalid line on
+        String fixed = lines(0, good + 11);
+        ConferenceTransfer.Upload resumed = new ConferenceTransfer.Upload(upload.getLinesDone());
+        assertTrue(resumed.readAll(new BufferedReader(new StringReader(fixed))));
+        assertEquals(11, resumed.getConferences());
+        assertEquals(good + 11, resumed.getLinesDone());
+
+        assertEquals(good + 11, runImportTasks());
+        assertEquals(good + 11, allConferences().size());
+    }
+
+    @Test
+    public void testExportsBetweenCursors() throws Exception {
+        List<Conference> conferences = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            conferences.add(new Conference(i + 1, "organizer" + (i % ORGANIZERS),
+                    new ConferenceForm("Conference " + i, null, null, "London", null, null, 10)));
+        }
+        ofy().save().entities(conferences).now();
+        ofy().clear();
+
+        String end = ConferenceTransfer.exportEnd(null, 20);
+        assertNotNull(end);
+        StringWriter first = new StringWriter();
+        assertEquals(20, ConferenceTransfer.export(first, null, end));
+
+        assertNull(ConferenceTransfer.exportEnd(end, 20));
+        StringWriter second = new StringWriter();
+        assertEquals(10, ConferenceTransfer.export(second, end, null));
+
+        Set<Key<Conference>> exported = new HashSet<>();
+        for (String line : (first.toString() + second.toString()).split("\n")) {
+            ConferenceTransfer.Line parsed = ConferenceTransfer.parse(line);
+            exported.add(parsed.toConference(parsed.getId()).getKey());
+        }
+        Set<Key<Conference>> saved = new HashSet<>();
+        for (Conference conference : conferences) {
+            saved.add(conference.getKey());
+        }
+        assertEquals(saved, exported);
+    }
+}
@@ -0,0 +1,208 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceFacets;
+import com.google.devrel.training.conference.domain.FacetCount;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.spi.ConferenceApiBudgetTest;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.util.Closeable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for maintaining and reconciling the conference facet counts.
+ */
+public class FacetServiceTest {
+
+    private static final String USER_ID = "123456789";
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setAlternateHighRepJobPolicyClass(ConferenceApiBudgetTest.ApplyAllJobsPolicy.class),
+                    new LocalMemcacheServiceTestConfig());
+    private Closeable session;
+
+    @Before
+    public void setUp() throws Exception {
+        session = ObjectifyService.begin();
+        helper.setUp();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+        session.close();
+    }
+
+    private static Map<String, Integer> counts(final List<FacetCount> facetCounts) {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (FacetCount facetCount : facetCounts) {
+            counts.put(facetCount.getValue(), facetCount.getCount());
+        }
+        return counts;
+    }
+
+    private static Map<String, Integer> counts(final Object... valuesAndCounts) {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (int i = 0; i < valuesAndCounts.length; i += 2) {
+            counts.put((String) valuesAndCounts[i], (Integer) valuesAndCounts[i + 1]);
+        }
+        return counts;
+    }
+
+    @Test
+    public void testValuesOfConference() throws Exception {
+        Conference conference = new Conference(1, USER_ID, new ConferenceForm("GCP Live", null,
+                Arrays.asList("Cloud", "Cloud", "Web"), "London", new SimpleDateFormat("MM/dd/yyyy").parse("03/25/2014"), null, 10));
+        assertEquals(Arrays.asList("city:London", "month:3", "topic:Cloud", "topic:Web"),
+                new ArrayList<>(ConferenceFacets.valuesOf(conference)));
+        Conference undated = new Conference(2, USER_ID,
+                new ConferenceForm("GCP Live", null, Arrays.asList("Cloud"), "London", null, null, 10));
+        assertEquals(Arrays.asList("city:London", "topic:Cloud"),
+                new ArrayList<>(ConferenceFacets.valuesOf(undated)));
+    }
+
+    @Test
+    public void testAppliesChanges() throws Exception {
+        FacetService.applyChange(null, new String[]{"city:London", "topic:Cloud"});
+        FacetService.applyChange(null, new String[]{"city:Paris", "topic:Cloud"});
+        FacetService.applyChange(null, new String[]{"city:London", "month:3"});
+        ofy().clear();
+        ConferenceFacets facets = FacetService.getFacets();
+        assertEquals(counts("London", 2, "Paris", 1), counts(facets.getCities()));
+        assertEquals(counts("3", 1), counts(facets.getMonths()));
+        assertEquals(counts("Cloud", 2), counts(facets.getTopics()));
+
+        // a conference moved from Paris to London
+        FacetService.applyChange(new String[]{"city:Paris"}, new String[]{"city:London"});
+        ofy().clear();
+        assertEquals(counts("London", 3), counts(FacetService.getFacets().getCities()));
+    }
+
+    @Test
+    public void testServedFromCache() throws Exception {
+        FacetService.applyChange(null, new String[]{"city:London"});
+        ofy().clear();
+        FacetService.getFacets();
+        ofy().clear();
+        RpcCounter.install();
+        try {
+            RpcCounter.Counts rpcs = RpcCounter.start();
+            assertEquals(counts("London", 1), counts(FacetService.getFacets().getCities()));
+            RpcCounter.stop();
+            assertEquals(rpcs.toString(), 0, rpcs.getDatastoreRpcs());
+        } finally {
+            RpcCounter.uninstall();
+        }
+    }
+
+    @Test
+    public void testReconcilesInBatches() throws Exception {
+        int count = FacetService.RECONCILE_BATCH + 10;
+        List<Conference> conferences = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            conferences.add(new Conference(i + 1, USER_ID, new ConferenceForm("Conference " + i, null,
+                    Arrays.asList("Cloud"), i % 2 == 0 ? "London" : "Paris", null, null, 10)));
+        }
+        ofy().save().entities(conferences).now();
+        // drifted counts
+        FacetService.applyChange(null, new String[]{"city:Tokyo", "city:London"});
+
+        String cursor = FacetService.reconcileBatch(null);
+        assertNotNull(cursor);
+        ofy().clear();
+        assertEquals("the counts are only replaced by the last batch",
+                counts("London", 1, "Tokyo", 1), counts(FacetService.getFacets().getCities()));
+
+        assertNull(FacetService.reconcileBatch(cursor));
+        ofy().clear();
+        ConferenceFacets facets = FacetService.getFacets();
+        assertEquals(counts("London", count / 2, "Paris", count / 2), counts(facets.getCities()));
+        assertEquals(counts("Cloud", count), counts(facets.getTopics()));
+        assertTrue(facets.getMonths().isEmpty());
+
+        // a retried task of the last batch does not count its conferences again
+        assertNull(FacetService.reconcileBatch(cursor));
+        ofy().clear();
+        assertEquals(counts("London", count / 2, "Paris", count / 2),
+                counts(FacetService.getFacets().getCities()));
+    }
+
+    private static Map<String, String[]> changeTask(final Conference conference, final long writtenAt,
+                                                    final String removed, final String added) {
+        Map<String, String[]> params = new LinkedHashMap<>();
+        params.put(FacetService.CONFERENCE_PARAM, new String[]{conference.getWebsafeKey()});
+        params.put(FacetService.WRITTEN_AT_PARAM, new String[]{String.valueOf(writtenAt)});
+        params.put(FacetService.REMOVED_PARAM + 0, new String[]{removed});
+        params.put(FacetService.ADDED_PARAM + 0, new String[]{added});
+        return params;
+    }
+
+    @Test
+    public void testChangesDuringReconciliationAreKept() throws Exception {
+        int count = FacetService.RECONCILE_BATCH + 10;
+        List<Conference> conferences = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            conferences.add(new Conference(i + 1, USER_ID, new ConferenceForm("Conference " + i, null,
+                    Arrays.asList("Cloud"), i % 2 == 0 ? "London" : "Paris", null, null, 10)));
+        }
+        ofy().save().entities(conferences).now();
+
+        String cursor = FacetService.reconcileBatch(null);
+        assertNotNull(cursor);
+        // one conference the scan has passed and one it has still to come to move to Tokyo
+        for (int i : new int[]{0, count - 2}) {
+            Conference moved = new Conference(i + 1, USER_ID, new ConferenceForm("Conference " + i, null,
+                    Arrays.asList("Cloud"), "Tokyo", null, null, 10));
+            ofy().save().entity(moved).now();
+            FacetService.applyChanges(changeTask(moved, System.currentTimeMillis(), "city:London", "city:Tokyo"));
+        }
+        assertNull(FacetService.reconcileBatch(cursor));
+        ofy().clear();
+        assertEquals(counts("Paris", count / 2, "London", count / 2 - 2, "Tokyo", 2),
+                counts(FacetService.getFacets().getCities()));
+    }
+
+    @Test
+    public void testChangeScannedBeforeItsTaskRanIsCountedOnce() throws Exception {
+        List<Conference> conferences = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            conferences.add(new Conference(i + 1, USER_ID, new ConferenceForm("Conference " + i, null,
+                    Arrays.asList("Cloud"), "London", null, null, 10)));
+        }
+        ofy().save().entities(conferences).now();
+        FacetService.applyChange(null, new String[]{"city:London", "city:London"});
+
+        // the move is written, but its task is still queued when the reconciliation scans the conference
+        long writtenAt = System.currentTimeMillis();
+        Conference moved = new Conference(1, USER_ID, new ConferenceForm("Conference 0", null,
+                Arrays.asList("Cloud"), "Tokyo", null, null, 10));
+        ofy().save().entity(moved).now();
+        Thread.sleep(5);
+        assertNull(FacetService.reconcileBatch(null));
+        ofy().clear();
+        assertEquals(counts("London", 1, "Tokyo", 1), counts(FacetService.getFacets().getCities()));
+
+        FacetService.applyChanges(changeTask(moved, writtenAt, "city:London", "city:Tokyo"));
+        ofy().clear();
+        assertEquals("the change is in the rebuilt counts already",
+                counts("London", 1, "Tokyo", 1), counts(FacetService.getFacets().getCities()));
+    }
+}
@@ -0,0 +1,130 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.util.Closeable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for tracing the Objectify operations of a thread.
+ */
+public class OfyTraceTest {
+
+    private static final String USER_ID = "123456789";
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(100),
+                    new LocalMemcacheServiceTestConfig());
+    private Closeable session;
+
+    @Before
+    public void setUp() throws Exception {
+        session = ObjectifyService.begin();
+        helper.setUp();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        OfyTrace.stop();
+        ofy().clear();
+        helper.tearDown();
+        session.close();
+    }
+
+    private Conference conference(final long id) {
+        return new Conference(id, USER_ID, new ConferenceForm("GCP Live " + id, null, null, null, null, null, 10));
+    }
+
+    @Test
+    public void testNotTracedByDefault() throws Exception {
+        assertNull(OfyTrace.current());
+        assertFalse(Proxy.isProxyClass(ofy().getClass()));
+        OfyTrace.start();
+        assertTrue(Proxy.isProxyClass(ofy().getClass()));
+    }
+
+    @Test
+    public void testTracesLoadsAndSessionCache() throws Exception {
+        Key<Profile> key = Key.create(Profile.class, USER_ID);
+        ofy().save().entity(new Profile(USER_ID, "Name", "name@example.com", TeeShirtSize.M)).now();
+        ofy().clear();
+        OfyTrace trace = OfyTrace.start();
+        assertNotNull(ofy().load().key(key).now());
+        assertNotNull(ofy().load().key(key).now());
+        Map<Key<Profile>, Profile> profiles = ofy().load().keys(Arrays.asList(key, Key.create(Profile.class, "1")));
+        assertEquals(1, profiles.size());
+
+        List<OfyTrace.Op> ops = trace.getOps();
+        assertEquals(3, ops.size());
+        assertEquals(OfyTrace.Type.LOAD, ops.get(0).getType());
+        assertEquals("Profile", ops.get(0).getKind());
+        assertEquals(1, ops.get(0).getKeys());
+        assertFalse(ops.get(0).isCached());
+        assertTrue(ops.get(1).isCached());
+        assertEquals(2, ops.get(2).getKeys());
+        assertEquals(1, ops.get(2).getCached());
+        assertEquals(2, trace.count(OfyTrace.Type.LOAD, "Profile"));
+    }
+
+    @Test
+    public void testTracesQueries() throws Exception {
+        ofy().save().entities(conference(1), conference(2), conference(3)).now();
+        Key<Profile> organizer = Key.create(Profile.class, USER_ID);
+        OfyTrace trace = OfyTrace.start();
+        assertEquals(3, ofy().load().type(Conference.class).ancestor(organizer).list().size());
+        int iterated = 0;
+        for (Conference conference : ofy().load().type(Conference.class).ancestor(organizer).limit(2)) {
+            iterated++;
+        }
+        assertEquals(2, iterated);
+        assertEquals(3, ofy().load().type(Conference.class).ancestor(organizer).keys().list().size());
+
+        List<OfyTrace.Op> ops = trace.getOps();
+        assertEquals(3, ops.size());
+        for (OfyTrace.Op op : ops) {
+            assertEquals(OfyTrace.Type.QUERY, op.getType());
+            assertEquals("Conference", op.getKind());
+        }
+        assertEquals(3, ops.get(0).getKeys());
+        assertEquals(2, ops.get(1).getKeys());
+        assertEquals(3, ops.get(2).getKeys());
+    }
+
+    @Test
+    public void testTracesSavesDeletesAndTransactions() throws Exception {
+        final Conference conference = conference(1);
+        OfyTrace trace = OfyTrace.start();
+        ofy().transact(new VoidWork() {
+            @Override
+            public void vrun() {
+                ofy().save().entity(conference);
+            }
+        });
+        ofy().delete().key(conference.getKey()).now();
+
+        assertEquals("ops=3; transaction " + trace.getOps().get(0).getMillis() + "ms; save Conference keys=1 "
+                + trace.getOps().get(1).getMillis() + "ms; delete Conference keys=1 "
+                + trace.getOps().get(2).getMillis() + "ms", trace.toString());
+        assertNull(ofy().load().key(conference.getKey()).now());
+    }
+}
@@ -0,0 +1,128 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.util.Closeable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for copying a renamed organizer's display name to the organizer's conferences.
+ */
+public class OrganizerNameServiceTest {
+
+    private static final String USER_ID = "123456789";
+
+    private static final int CONFERENCES = OrganizerNameService.BATCH_SIZE + 10;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(100),
+                    new LocalMemcacheServiceTestConfig(),
+                    new LocalTaskQueueTestConfig().setQueueXmlPath("src/main/webapp/WEB-INF/queue.xml"));
+    private Closeable session;
+
+    private Profile profile;
+
+    private final List<Key<Conference>> conferenceKeys = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        session = ObjectifyService.begin();
+        helper.setUp();
+        ConferenceCache.clearLocal();
+        profile = new Profile(USER_ID, "Old Name", "example@gmail.com", TeeShirtSize.NOT_SPECIFIED);
+        List<Object> entities = new ArrayList<>();
+        entities.add(profile);
+        for (int i = 0; i < CONFERENCES; i++) {
+            Conference conference = new Conference(i + 1, USER_ID,
+                    new ConferenceForm("GCP Live " + i, null, null, null, null, null, 10));
+            conference.resolveOrganizer(profile);
+            conferenceKeys.add(conference.getKey());
+            entities.add(conference);
+        }
+        ofy().save().entities(entities).now();
+        profile.update("New Name", null);
+        ofy().save().entity(profile).now();
+        ofy().clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+        session.close();
+    }
+
+    private int countNamed(final String displayName) {
+        ofy().clear();
+        int count = 0;
+        for (Conference conference : ofy().load().keys(conferenceKeys).values()) {
+            if (displayName.equals(conference.getOrganizerDisplayName())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testRenamesInBatches() throws Exception {
+        String cursor = OrganizerNameService.renameBatch(USER_ID, null);
+        assertNotNull(cursor);
+        assertEquals(OrganizerNameService.BATCH_SIZE, countNamed("New Name"));
+
+        assertNull(OrganizerNameService.renameBatch(USER_ID, cursor));
+        assertEquals(CONFERENCES, countNamed("New Name"));
+    }
+
+    @Test
+    public void testRerunWritesNothing() throws Exception {
+        String cursor = OrganizerNameService.renameBatch(USER_ID, null);
+        OfyTrace trace = OfyTrace.start();
+        try {
+            assertEquals(cursor, OrganizerNameService.renameBatch(USER_ID, null));
+        } finally {
+            OfyTrace.stop();
+        }
+        assertEquals(trace.toString(), 0, trace.count(OfyTrace.Type.SAVE, "Conference"));
+    }
+
+    @Test
+    public void testCopiesTheCurrentName() throws Exception {
+        String cursor = OrganizerNameService.renameBatch(USER_ID, null);
+        // renamed again while the first task is still running
+        profile.update("Newest Name", null);
+        ofy().save().entity(profile).now();
+        OrganizerNameService.renameBatch(USER_ID, cursor);
+        assertEquals(CONFERENCES - OrganizerNameService.BATCH_SIZE, countNamed("Newest Name"));
+
+        // the task of the second rename catches up with the first batch
+        assertNotNull(OrganizerNameService.renameBatch(USER_ID, null));
+        assertEquals(CONFERENCES, countNamed("Newest Name"));
+    }
+
+    @Test
+    public void testRefreshesTheCache() throws Exception {
+        Key<Conference> conferenceKey = conferenceKeys.get(0);
+        assertEquals("Old Name", ConferenceCache.load(conferenceKey).getOrganizerDisplayName());
+        OrganizerNameService.renameBatch(USER_ID, null);
+        ofy().clear();
+        assertEquals("New Name", ConferenceCache.load(conferenceKey).getOrganizerDisplayName());
+    }
+}
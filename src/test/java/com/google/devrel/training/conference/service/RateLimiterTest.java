@@ -0,0 +1,75 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the per user limits of the write API methods.
+ */
+public class RateLimiterTest {
+
+    private static final String METHOD = "registerForConference";
+
+    private final LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalMemcacheServiceTestConfig());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        RateLimiter.reset();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        helper.tearDown();
+    }
+
+    @Test
+    public void testTokenBucketRefills() throws Exception {
+        RateLimiter.TokenBucket bucket = new RateLimiter.TokenBucket(new RateLimiter.Limit(2, 1000), 0);
+        assertEquals(0, bucket.take(0));
+        assertEquals(0, bucket.take(0));
+        assertEquals(1000, bucket.take(0));
+        assertEquals(500, bucket.take(500));
+        assertEquals(0, bucket.take(1000));
+        // an idle bucket fills up to the burst and no further
+        assertEquals(0, bucket.take(60000));
+        assertEquals(0, bucket.take(60000));
+        assertTrue(bucket.take(60000) > 0);
+    }
+
+    @Test
+    public void testLimitIsPerUserAndMethod() throws Exception {
+        int burst = RateLimiter.LIMITS.get(METHOD).getBurst();
+        for (int i = 0; i < burst; i++) {
+            assertEquals(0, RateLimiter.acquire("user0", METHOD));
+        }
+        assertTrue(RateLimiter.acquire("user0", METHOD) > 0);
+        assertEquals(0, RateLimiter.acquire("user1", METHOD));
+        assertEquals(0, RateLimiter.acquire("user0", "joinWaitlist"));
+        assertEquals(0, RateLimiter.acquire("user0", "getConference"));
+        assertEquals(Long.valueOf(1), RateLimiter.getThrottled().get(METHOD));
+    }
+
+    @Test
+    public void testLimitIsSharedByInstances() throws Exception {
+        int burst = RateLimiter.LIMITS.get(METHOD).getBurst();
+        for (int i = 0; i < burst; i++) {
+            assertEquals(0, RateLimiter.acquire("user0", METHOD));
+        }
+        // another instance has a full local bucket, memcache still counts the requests made
+        RateLimiter.reset();
+        long retryAfterMillis = RateLimiter.acquire("user0", METHOD);
+        // unless the requests happened to straddle the end of the shared window
+        if (retryAfterMillis == 0) {
+            return;
+        }
+        assertTrue(retryAfterMillis <= RateLimiter.LIMITS.get(METHOD).windowMillis());
+        assertEquals(Long.valueOf(1), RateLimiter.getThrottled().get(METHOD));
+    }
+}
@@ -0,0 +1,86 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.util.Closeable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for counting the API calls of a thread.
+ */
+public class RpcCounterTest {
+
+    private static final String USER_ID = "123456789";
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(100),
+                    new LocalMemcacheServiceTestConfig());
+    private Closeable session;
+
+    @Before
+    public void setUp() throws Exception {
+        session = ObjectifyService.begin();
+        helper.setUp();
+        RpcCounter.install();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        RpcCounter.stop();
+        RpcCounter.uninstall();
+        ofy().clear();
+        helper.tearDown();
+        session.close();
+    }
+
+    @Test
+    public void testCountsDatastoreAndMemcacheCalls() throws Exception {
+        RpcCounter.Counts counts = RpcCounter.start();
+        Conference conference = new Conference(1L, USER_ID, new ConferenceForm("GCP Live", null, null, null, null, null, 10));
+        ofy().save().entity(conference).now();
+        ofy().clear();
+        ofy().load().key(conference.getKey()).now();
+        ofy().load().type(Conference.class).ancestor(conference.getProfileKey()).list().size();
+        int cacheCalls = counts.getMemcacheRpcs();
+        MemcacheServiceFactory.getMemcacheService().get("key");
+        assertSame(counts, RpcCounter.stop());
+
+        assertEquals(1, counts.getDatastorePuts());
+        assertEquals(1, counts.getDatastoreGets());
+        assertTrue(counts.getDatastoreQueries() >= 1);
+        assertEquals(counts.getDatastorePuts() + counts.getDatastoreGets() + counts.getDatastoreQueries(),
+                counts.getDatastoreRpcs());
+        assertEquals(cacheCalls + 1, counts.getMemcacheRpcs());
+    }
+
+    @Test
+    public void testOnlyCountsBetweenStartAndStop() throws Exception {
+        ofy().load().key(new Conference(1L, USER_ID,
+                new ConferenceForm("GCP Live", null, null, null, null, null, 10)).getKey()).now();
+        assertNull(RpcCounter.stop());
+        RpcCounter.Counts counts = RpcCounter.start();
+        RpcCounter.stop();
+        MemcacheServiceFactory.getMemcacheService().get("key");
+        assertEquals(0, counts.getMemcacheRpcs());
+    }
+
+    @Test
+    public void testInstallIsIdempotent() throws Exception {
+        RpcCounter.install();
+        RpcCounter.Counts counts = RpcCounter.start();
+        MemcacheServiceFactory.getMemcacheService().get("key");
+        assertEquals(1, counts.getMemcacheRpcs());
+    }
+}
@@ -0,0 +1,153 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.SeatShard;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.util.Closeable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for the sharded seat counters.
+ */
+public class SeatServiceTest {
+
+    private static final String USER_ID = "123456789";
+
+    private static final int CAP = 25;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(100),
+                    new LocalMemcacheServiceTestConfig(),
+                    new LocalTaskQueueTestConfig().setQueueXmlPath("src/main/webapp/WEB-INF/queue.xml"));
+    private Closeable session;
+
+    private Conference conference;
+
+    @Before
+    public void setUp() throws Exception {
+        session = ObjectifyService.begin();
+        helper.setUp();
+        conference = new Conference(1L, USER_ID, new ConferenceForm("GCP Live", null, null, null, null, null, CAP));
+        List<Object> entities = new ArrayList<>();
+        entities.add(conference);
+        entities.addAll(SeatService.createShards(conference));
+        ofy().save().entities(entities).now();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+        session.close();
+    }
+
+    private int seatsAvailable() {
+        ofy().clear();
+        Conference loaded = ofy().load().key(conference.getKey()).now();
+        SeatService.resolveSeatsAvailable(Collections.singletonList(loaded));
+        return loaded.getSeatsAvailable();
+    }
+
+    @Test
+    public void testShardsSplitCapacity() throws Exception {
+        int maxSeats = 0;
+        for (SeatShard shard : ofy().load().keys(
+                SeatShard.keys(conference.getKey(), SeatService.SHARD_COUNT)).values()) {
+            maxSeats += shard.getMaxSeats();
+            assertEquals(shard.getMaxSeats(), shard.getSeatsAvailable());
+        }
+        assertEquals(CAP, maxSeats);
+        assertEquals(SeatService.SHARD_COUNT, conference.getSeatShardCount());
+    }
+
+    @Test
+    public void testBookAndGiveBack() throws Exception {
+        SeatService.bookSeats(conference, 1);
+        assertEquals(CAP - 1, seatsAvailable());
+        SeatService.bookSeats(conference, 2);
+        SeatService.giveBackSeats(conference, 1);
+        // the cached aggregate follows the bookings
+        assertEquals(CAP - 2, seatsAvailable());
+    }
+
+    @Test
+    public void testNoOverbooking() throws Exception {
+        for (int i = 0; i < CAP; i++) {
+            SeatService.bookSeats(conference, 1);
+        }
+        assertEquals(0, seatsAvailable());
+        try {
+            SeatService.bookSeats(conference, 1);
+            fail("A sold out conference must not be booked.");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(0, seatsAvailable());
+    }
+
+    @Test
+    public void testBookingSpreadsOverShards() throws Exception {
+        // no single shard has CAP - 1 seats
+        SeatService.bookSeats(conference, CAP - 1);
+        assertEquals(1, seatsAvailable());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGiveBackBeyondCapacity() throws Exception {
+        SeatService.giveBackSeats(conference, 1);
+    }
+
+    @Test
+    public void testUnshardedConferenceIsShardedOnFirstBooking() throws Exception {
+        Conference legacy = new Conference(2L, USER_ID, new ConferenceForm("Legacy", null, null, null, null, null, CAP));
+        ofy().save().entity(legacy).now();
+        assertEquals(0, legacy.getSeatShardCount());
+        SeatService.bookSeats(legacy, 2);
+        ofy().clear();
+        Conference loaded = ofy().load().key(legacy.getKey()).now();
+        assertEquals(SeatService.SHARD_COUNT, loaded.getSeatShardCount());
+        SeatService.resolveSeatsAvailable(Collections.singletonList(loaded));
+        assertEquals(CAP - 2, loaded.getSeatsAvailable());
+    }
+
+    private static int queuedRefreshes() {
+        return LocalTaskQueueTestConfig.getLocalTaskQueue().getQueueStateInfo()
+                .get(SeatService.QUEUE_NAME).getCountTasks();
+    }
+
+    private int snapshot() {
+        ofy().clear();
+        return ofy().load().key(conference.getKey()).now().getSeatsAvailable();
+    }
+
+    @Test
+    public void testSnapshotIsWrittenBehind() throws Exception {
+        SeatService.bookSeats(conference, 1);
+        SeatService.bookSeats(conference, 1);
+        // one pending refresh per conference
+        assertEquals(1, queuedRefreshes());
+        // reading the conference does not write it
+        assertEquals(CAP - 2, seatsAvailable());
+        assertEquals(CAP, snapshot());
+
+        SeatService.refreshSnapshot(conference.getKey());
+        assertEquals(CAP - 2, snapshot());
+        SeatService.bookSeats(conference, 1);
+        assertEquals(2, queuedRefreshes());
+    }
+}
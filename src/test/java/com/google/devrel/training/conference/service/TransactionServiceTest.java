@@ -0,0 +1,79 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.util.Closeable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ConcurrentModificationException;
+
+/**
+ * Tests for the retries of TransactionService.
+ */
+public class TransactionServiceTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(100));
+    private Closeable session;
+
+    @Before
+    public void setUp() throws Exception {
+        session = ObjectifyService.begin();
+        helper.setUp();
+        TransactionService.resetStats();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        helper.tearDown();
+        session.close();
+    }
+
+    /**
+     * Work that loses against a concurrent transaction the given number of times.
+     */
+    private static Work<String> contended(final int failures) {
+        return new Work<String>() {
+            private int attempts;
+
+            @Override
+            public String run() {
+                if (attempts++ < failures) {
+                    throw new ConcurrentModificationException("contended");
+                }
+                return "done after " + attempts;
+            }
+        };
+    }
+
+    @Test
+    public void testRetriesContention() throws Exception {
+        assertEquals("done after 3", TransactionService.transact("test", contended(2)));
+        TransactionService.TransactionStats stats = TransactionService.getStats().get("test");
+        assertEquals(1, stats.getCommitted());
+        assertEquals(2, stats.getRetries());
+        assertEquals(2, stats.getContentionFailures());
+        assertEquals(0, stats.getExhausted());
+    }
+
+    @Test
+    public void testGivesUpAfterMaxAttempts() throws Exception {
+        try {
+            TransactionService.transact("test", contended(TransactionService.MAX_ATTEMPTS));
+            fail("The contention should be reported.");
+        } catch (ConcurrentModificationException expected) {
+        }
+        TransactionService.TransactionStats stats = TransactionService.getStats().get("test");
+        assertEquals(0, stats.getCommitted());
+        assertEquals(TransactionService.MAX_ATTEMPTS, stats.getContentionFailures());
+        assertEquals(1, stats.getExhausted());
+    }
+}
@@ -0,0 +1,208 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.WaitlistPosition;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.spi.ConferenceApiBudgetTest;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.util.Closeable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for the conference waitlists.
+ */
+public class WaitlistServiceTest {
+
+    private static final String USER_ID = "123456789";
+
+    private static final int CAP = 1;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setAlternateHighRepJobPolicyClass(ConferenceApiBudgetTest.ApplyAllJobsPolicy.class),
+                    new LocalMemcacheServiceTestConfig(),
+                    new LocalTaskQueueTestConfig().setQueueXmlPath("src/main/webapp/WEB-INF/queue.xml"));
+    private Closeable session;
+
+    private Conference conference;
+
+    @Before
+    public void setUp() throws Exception {
+        session = ObjectifyService.begin();
+        helper.setUp();
+        conference = new Conference(1L, USER_ID, new ConferenceForm("GCP Live", null, null, null, null, null, CAP));
+        List<Object> entities = new ArrayList<>();
+        entities.add(conference);
+        entities.addAll(SeatService.createShards(conference));
+        for (int i = 0; i < 3; i++) {
+            entities.add(new Profile("user" + i, "User " + i, "user" + i + "@example.com", TeeShirtSize.M));
+        }
+        ofy().save().entities(entities).now();
+        SeatService.bookSeats(conference, CAP);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+        session.close();
+    }
+
+    private static int queuedPromotions() {
+        return LocalTaskQueueTestConfig.getLocalTaskQueue().getQueueStateInfo()
+                .get(WaitlistService.QUEUE_NAME).getCountTasks();
+    }
+
+    private boolean attends(final String userId) {
+        ofy().clear();
+        Profile profile = ofy().load().key(Key.create(Profile.class, userId)).now();
+        return profile.getConferenceKeysToAttend().contains(conference.getWebsafeKey());
+    }
+
+    @Test
+    public void testJoinHandsOutTicketsInOrder() throws Exception {
+        assertFalse(WaitlistService.hasWaiting(conference.getKey()));
+        WaitlistPosition first = WaitlistService.join(conference.getKey(), "user0");
+        WaitlistPosition second = WaitlistService.join(conference.getKey(), "user1");
+        assertEquals(1, first.getPosition());
+        assertEquals(2, second.getPosition());
+        assertEquals(2, second.getWaiting());
+        assertEquals(2, queuedPromotions());
+        assertTrue(WaitlistService.hasWaiting(conference.getKey()));
+    }
+
+    @Test
+    public void testJoinTwiceKeepsThePlace() throws Exception {
+        WaitlistService.join(conference.getKey(), "user0");
+        WaitlistService.join(conference.getKey(), "user1");
+        WaitlistPosition again = WaitlistService.join(conference.getKey(), "user0");
+        assertEquals(1, again.getTicket());
+        assertEquals(1, again.getPosition());
+        assertEquals(2, again.getWaiting());
+    }
+
+    @Test
+    public void testGetPosition() throws Exception {
+        assertNull(WaitlistService.getPosition(conference.getKey(), "user0"));
+        WaitlistService.join(conference.getKey(), "user0");
+        WaitlistService.join(conference.getKey(), "user1");
+        MemcacheServiceFactory.getMemcacheService().clearAll();
+        assertEquals(2, WaitlistService.getPosition(conference.getKey(), "user1").getPosition());
+    }
+
+    @Test
+    public void testPromoteInOrderOfJoining() throws Exception {
+        WaitlistService.join(conference.getKey(), "user1");
+        WaitlistService.join(conference.getKey(), "user0");
+        WaitlistService.join(conference.getKey(), "user2");
+        // sold out, nobody is promoted
+        assertFalse(WaitlistService.promoteBatch(conference.getKey()));
+        assertEquals(1, WaitlistService.getPosition(conference.getKey(), "user1").getPosition());
+
+        SeatService.giveBackSeats(conference, 1);
+        assertFalse(WaitlistService.promoteBatch(conference.getKey()));
+        assertTrue(attends("user1"));
+        assertFalse(attends("user0"));
+        assertEquals(0, WaitlistService.getPosition(conference.getKey(), "user1").getPosition());
+        assertEquals(1, WaitlistService.getPosition(conference.getKey(), "user0").getPosition());
+
+        // a retried task promotes nobody twice
+        SeatService.giveBackSeats(conference, 1);
+        assertFalse(WaitlistService.promoteBatch(conference.getKey()));
+        assertTrue(attends("user0"));
+        assertFalse(attends("user2"));
+        assertEquals(1, WaitlistService.getPosition(conference.getKey(), "user2").getWaiting());
+    }
+
+    @Test
+    public void testRegisteredUsersAreSkipped() throws Exception {
+        WaitlistService.join(conference.getKey(), "user0");
+        WaitlistService.join(conference.getKey(), "user1");
+        Profile profile = ofy().load().key(Key.create(Profile.class, "user0")).now();
+        profile.addToConferenceKeysToAttend(conference.getWebsafeKey());
+        ofy().save().entity(profile).now();
+
+        SeatService.giveBackSeats(conference, 1);
+        assertFalse(WaitlistService.promoteBatch(conference.getKey()));
+        assertTrue(attends("user1"));
+        assertFalse(WaitlistService.hasWaiting(conference.getKey()));
+    }
+
+    @Test
+    public void testConsumedEntriesAreSkipped() throws Exception {
+        WaitlistService.join(conference.getKey(), "user0");
+        WaitlistService.join(conference.getKey(), "user1");
+        assertTrue(WaitlistService.isWaiting(conference.getKey(), "user0"));
+        ofy().transact(new VoidWork() {
+            @Override
+            public void vrun() {
+                WaitlistService.consumeInTransaction(conference.getKey(), "user0");
+            }
+        });
+        assertFalse(WaitlistService.isWaiting(conference.getKey(), "user0"));
+        assertEquals(0, WaitlistService.getPosition(conference.getKey(), "user0").getPosition());
+
+        SeatService.giveBackSeats(conference, 1);
+        assertFalse(WaitlistService.promoteBatch(conference.getKey()));
+        assertFalse(attends("user0"));
+        assertTrue(attends("user1"));
+        assertFalse(WaitlistService.hasWaiting(conference.getKey()));
+    }
+
+    @Test
+    public void testLeaveAndJoinAgain() throws Exception {
+        WaitlistService.join(conference.getKey(), "user0");
+        WaitlistService.join(conference.getKey(), "user1");
+        assertTrue(WaitlistService.leave(conference.getKey(), "user0"));
+        assertFalse(WaitlistService.leave(conference.getKey(), "user0"));
+        assertFalse(WaitlistService.leave(conference.getKey(), "user2"));
+        assertEquals(3, queuedPromotions());
+
+        // sold out, the promotion only moves past the entry that has left
+        assertFalse(WaitlistService.promoteBatch(conference.getKey()));
+        assertEquals(1, WaitlistService.getPosition(conference.getKey(), "user1").getPosition());
+
+        WaitlistPosition again = WaitlistService.join(conference.getKey(), "user0");
+        assertEquals(3, again.getTicket());
+        assertEquals(2, again.getPosition());
+    }
+
+    @Test
+    public void testRejoinWhileOthersAreWaiting() throws Exception {
+        WaitlistService.join(conference.getKey(), "user0");
+        WaitlistService.join(conference.getKey(), "user1");
+        WaitlistService.join(conference.getKey(), "user2");
+        // user1 gives up ticket 2 for ticket 4 while user0 is still waiting
+        assertTrue(WaitlistService.leave(conference.getKey(), "user1"));
+        assertEquals(4, WaitlistService.join(conference.getKey(), "user1").getTicket());
+
+        SeatService.giveBackSeats(conference, 1);
+        assertFalse(WaitlistService.promoteBatch(conference.getKey()));
+        assertTrue(attends("user0"));
+
+        // the promotion steps over the gap ticket 2 has left
+        SeatService.giveBackSeats(conference, 1);
+        assertFalse(WaitlistService.promoteBatch(conference.getKey()));
+        assertTrue(attends("user2"));
+        assertFalse(attends("user1"));
+        assertEquals(1, WaitlistService.getPosition(conference.getKey(), "user1").getPosition());
+    }
+}
@@ -0,0 +1,88 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.util.Closeable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tests for estimating the write operations of the API methods.
+ */
+public class WriteOpsTest {
+
+    private final LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+    private final Logger log = Logger.getLogger(WriteOps.class.getName());
+
+    private Closeable session;
+
+    private final Profile profile = new Profile("123456789", "Name", "example@gmail.com", TeeShirtSize.M);
+
+    @Before
+    public void setUp() throws Exception {
+        session = ObjectifyService.begin();
+        helper.setUp();
+        log.setLevel(Level.FINE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        log.setLevel(null);
+        ofy().clear();
+        helper.tearDown();
+        session.close();
+    }
+
+    @Test
+    public void testNotCountedUnlessFineIsLogged() throws Exception {
+        log.setLevel(Level.INFO);
+        assertFalse(WriteOps.isEnabled());
+        assertEquals(0, new WriteOps("saveProfile").add(profile, true).getEntities());
+    }
+
+    @Test
+    public void testCountsNewEntities() throws Exception {
+        WriteOps writeOps = new WriteOps("saveProfile").add(profile, true);
+        assertEquals(1, writeOps.getEntities());
+        assertEquals(2 + 2 * writeOps.getIndexedValues(), writeOps.getOperations());
+    }
+
+    @Test
+    public void testRolledBackAttemptIsNotCounted() throws Exception {
+        final WriteOps writeOps = new WriteOps("saveProfile");
+        try {
+            ofy().transact(new VoidWork() {
+                @Override
+                public void vrun() {
+                    writeOps.add(profile, true);
+                    ofy().save().entity(profile);
+                    throw new IllegalStateException("rolled back");
+                }
+            });
+            fail("The transaction must be rolled back.");
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(0, writeOps.getEntities());
+        ofy().transact(new VoidWork() {
+            @Override
+            public void vrun() {
+                writeOps.add(profile, true);
+                ofy().save().entity(profile);
+            }
+        });
+        assertEquals(1, writeOps.getEntities());
+    }
+}
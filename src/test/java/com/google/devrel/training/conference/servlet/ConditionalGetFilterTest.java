@@ -0,0 +1,228 @@
+package com.google.devrel.training.conference.servlet;
+
+import static org.junit.Assert.*;
+
+import com.google.api.server.spi.config.ApiMethod;
+import com.google.api.server.spi.config.ApiMethod.HttpMethod;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.service.ConferenceCache;
+import com.google.devrel.training.conference.spi.ConferenceApi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests for answering conditional requests of the conference read endpoints.
+ */
+public class ConditionalGetFilterTest {
+
+    private static final String GET_URI =
+            "/_ah/spi/com.google.devrel.training.conference.spi.ConferenceApi.getConference";
+
+    private static final String BODY = "{\"websafeConferenceKey\":\"abc\"}";
+
+    private final LocalServiceTestHelper helper = new LocalServiceTestHelper(
+            new LocalDatastoreServiceTestConfig(), new LocalMemcacheServiceTestConfig());
+
+    private final ConditionalGetFilter filter = new ConditionalGetFilter();
+
+    private final Map<String, Object> headers = new HashMap<>();
+
+    private int status;
+
+    private final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+
+    private int endpointCalls;
+
+    /**
+     * The conference as it is in the datastore.
+     */
+    private Conference current;
+
+    /**
+     * A response that keeps its status, headers and body and is never committed.
+     */
+    private final HttpServletResponse response = (HttpServletResponse) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[]{HttpServletResponse.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if (method.getName().equals("setHeader")) {
+                        headers.put((String) args[0], args[1]);
+                    } else if (method.getName().equals("setStatus")) {
+                        status = (Integer) args[0];
+                    } else if (method.getName().equals("getOutputStream")) {
+                        return new ServletOutputStream() {
+                            @Override
+                            public void write(int b) {
+                                sent.write(b);
+                            }
+                        };
+                    } else if (method.getName().equals("getWriter")) {
+                        return new PrintWriter(sent, true);
+                    }
+                    return method.getReturnType() == boolean.class ? false : null;
+                }
+            });
+
+    /**
+     * An endpoint that serves the conference through the in-process tier, like getConference does.
+     */
+    private final FilterChain endpoint = new FilterChain() {
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response) throws IOException {
+            endpointCalls++;
+            Conference conference = ConferenceCache.getResolved(current.getWebsafeKey());
+            if (conference == null) {
+                conference = current;
+                ConferenceCache.putResolved(conference);
+            }
+            ((HttpServletResponse) response).setStatus(HttpServletResponse.SC_OK);
+            PrintWriter writer = response.getWriter();
+            writer.print("{\"seatsAvailable\":" + conference.getSeatsAvailable() + "}");
+            writer.flush();
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        ConferenceCache.clearLocal();
+        current = conference(10);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ConferenceCache.clearLocal();
+        helper.tearDown();
+    }
+
+    private static Conference conference(final int seatsAvailable) {
+        Conference conference = new Conference(1L, "organizer", new ConferenceForm(
+                "Conference", null, null, null, null, null, seatsAvailable));
+        conference.syncSeatsAvailable(seatsAvailable);
+        return conference;
+    }
+
+    private static HttpServletRequest request(final String requestUri, final String ifNoneMatch) {
+        return (HttpServletRequest) Proxy.newProxyInstance(ConditionalGetFilterTest.class.getClassLoader(),
+                new Class<?>[]{HttpServletRequest.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        switch (method.getName()) {
+                            case "getRequestURI":
+                                return requestUri;
+                            case "getHeader":
+                                return ConditionalGetFilter.IF_NONE_MATCH_HEADER.equals(args[0]) ? ifNoneMatch : null;
+                            default:
+                                return null;
+                        }
+                    }
+                });
+    }
+
+    private String get(final String ifNoneMatch) throws Exception {
+        headers.clear();
+        status = 0;
+        sent.reset();
+        filter.doFilter(request(GET_URI, ifNoneMatch), response, endpoint);
+        return (String) headers.get(ConditionalGetFilter.ETAG_HEADER);
+    }
+
+    @Test
+    public void testNotModifiedWhenTheBodyIsUnchanged() throws Exception {
+        String etag = get(null);
+        assertNotNull(etag);
+        assertEquals(HttpServletResponse.SC_OK, status);
+        assertEquals(etag, get(etag));
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, status);
+        assertEquals(0, sent.size());
+        assertEquals(2, endpointCalls);
+    }
+
+    @Test
+    public void testChangedConferenceMovesTheETag() throws Exception {
+        String etag = get(null);
+        current = conference(9);
+        ConferenceCache.evictLocal(current.getWebsafeKey());
+        String changed = get(etag);
+        assertEquals(HttpServletResponse.SC_OK, status);
+        assertNotEquals(etag, changed);
+    }
+
+    @Test
+    public void testStaleLocalTierIsNotServedUnderTheNewETag() throws Exception {
+        // another instance has served the conference after a booking
+        current = conference(9);
+        String fresh = get(null);
+        // this instance still holds the conference from before the booking
+        ConferenceCache.putResolved(conference(10));
+        String stale = get(fresh);
+        assertEquals(HttpServletResponse.SC_OK, status);
+        assertEquals("{\"seatsAvailable\":10}", sent.toString("UTF-8"));
+        assertNotEquals(fresh, stale);
+        // once the stale copy has expired the client revalidating with it gets the fresh conference
+        ConferenceCache.clearLocal();
+        assertEquals(fresh, get(stale));
+        assertEquals(HttpServletResponse.SC_OK, status);
+        assertEquals(fresh, get(fresh));
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, status);
+    }
+
+    @Test
+    public void testETagDependsOnTheBody() throws Exception {
+        assertEquals(ConditionalGetFilter.etag(BODY.getBytes(StandardCharsets.UTF_8)),
+                ConditionalGetFilter.etag(BODY.getBytes(StandardCharsets.UTF_8)));
+        assertNotEquals(ConditionalGetFilter.etag(BODY.getBytes(StandardCharsets.UTF_8)),
+                ConditionalGetFilter.etag("{}".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testMatches() throws Exception {
+        assertTrue(ConditionalGetFilter.matches("W/\"a\", W/\"b\"", "W/\"b\""));
+        assertTrue(ConditionalGetFilter.matches("*", "W/\"b\""));
+        assertFalse(ConditionalGetFilter.matches("W/\"a\"", "W/\"b\""));
+        assertFalse(ConditionalGetFilter.matches(null, "W/\"b\""));
+    }
+
+    @Test
+    public void testOnlyGetMethods() throws Exception {
+        for (Method method : ConferenceApi.class.getMethods()) {
+            ApiMethod apiMethod = method.getAnnotation(ApiMethod.class);
+            if (apiMethod != null && ConditionalGetFilter.METHODS.contains(apiMethod.name())) {
+                assertEquals(apiMethod.name(), HttpMethod.GET, apiMethod.httpMethod());
+            }
+        }
+        filter.doFilter(request("/_ah/spi/com.google.devrel.training.conference.spi.ConferenceApi.queryConferences",
+                "*"), response, endpoint);
+        assertTrue(headers.isEmpty());
+    }
+
+    @Test
+    public void testOtherMethodsPassThrough() throws Exception {
+        filter.doFilter(request("/_ah/spi/com.google.devrel.training.conference.spi.ConferenceApi.getProfile",
+                "*"), response, endpoint);
+        assertEquals(1, endpointCalls);
+        assertTrue(headers.isEmpty());
+    }
+}
@@ -0,0 +1,103 @@
+package com.google.devrel.training.conference.servlet;
+
+import static org.junit.Assert.*;
+
+import com.google.devrel.training.conference.service.ApiMetrics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Tests for recording requests by API method.
+ */
+public class MetricsFilterTest {
+
+    private static final String QUERY_URI =
+            "/_ah/spi/com.google.devrel.training.conference.spi.ConferenceApi.queryConferences";
+
+    private final MetricsFilter filter = new MetricsFilter();
+
+    @Before
+    public void setUp() throws Exception {
+        ApiMetrics.resetMetrics();
+    }
+
+    /**
+     * @return a stub of the servlet API type, answering getRequestURI and ignoring everything else.
+     */
+    private static <T> T stub(final Class<T> type, final String requestUri) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return method.getName().equals("getRequestURI") ? requestUri : null;
+                    }
+                }));
+    }
+
+    private static FilterChain respondWith(final int status) {
+        return new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) {
+                ((HttpServletResponse) response).setStatus(status);
+            }
+        };
+    }
+
+    @Test
+    public void testMethodName() throws Exception {
+        assertEquals("queryConferences", MetricsFilter.methodName(QUERY_URI));
+        assertEquals("/crons/set_announcement", MetricsFilter.methodName("/crons/set_announcement"));
+    }
+
+    @Test
+    public void testUnknownMethodsShareOneKey() throws Exception {
+        assertEquals(MetricsFilter.OTHER, MetricsFilter.methodName(
+                "/_ah/spi/com.google.devrel.training.conference.spi.ConferenceApi.probe123"));
+        assertEquals(MetricsFilter.OTHER, MetricsFilter.methodName("/_ah/spi/anything"));
+        filter.doFilter(stub(HttpServletRequest.class, "/tasks/probe123"), stub(HttpServletResponse.class, null),
+                respondWith(HttpServletResponse.SC_NOT_FOUND));
+        assertEquals(1, ApiMetrics.getMetrics().get(MetricsFilter.OTHER).getRequests());
+        assertNull(ApiMetrics.getMetrics().get("/tasks/probe123"));
+    }
+
+    @Test
+    public void testRecordsStatusByMethod() throws Exception {
+        filter.doFilter(stub(HttpServletRequest.class, QUERY_URI), stub(HttpServletResponse.class, null),
+                respondWith(HttpServletResponse.SC_OK));
+        filter.doFilter(stub(HttpServletRequest.class, QUERY_URI), stub(HttpServletResponse.class, null),
+                respondWith(HttpServletResponse.SC_CONFLICT));
+        ApiMetrics.MethodMetrics metrics = ApiMetrics.getMetrics().get("queryConferences");
+        assertEquals(2, metrics.getRequests());
+        assertEquals(1, metrics.getClientErrors());
+        assertEquals(0, metrics.getErrors());
+    }
+
+    @Test
+    public void testExceptionCountsAsError() throws Exception {
+        try {
+            filter.doFilter(stub(HttpServletRequest.class, QUERY_URI), stub(HttpServletResponse.class, null),
+                    new FilterChain() {
+                        @Override
+                        public void doFilter(ServletRequest request, ServletResponse response)
+                                throws IOException, ServletException {
+                            throw new ServletException("failed");
+                        }
+                    });
+            fail("The exception should be passed on.");
+        } catch (ServletException expected) {
+        }
+        assertEquals(1, ApiMetrics.getMetrics().get("queryConferences").getErrors());
+    }
+}
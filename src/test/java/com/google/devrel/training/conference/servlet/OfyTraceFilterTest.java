@@ -0,0 +1,77 @@
+package com.google.devrel.training.conference.servlet;
+
+import static org.junit.Assert.*;
+
+import com.google.devrel.training.conference.service.OfyTrace;
+
+import org.junit.Test;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests for returning the Objectify trace in a response header.
+ */
+public class OfyTraceFilterTest {
+
+    private final Map<String, Object> headers = new HashMap<>();
+
+    private final HttpServletRequest request = (HttpServletRequest) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[]{HttpServletRequest.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return null;
+                }
+            });
+
+    /**
+     * A response that keeps its headers and is never committed.
+     */
+    private final HttpServletResponse response = (HttpServletResponse) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[]{HttpServletResponse.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if (method.getName().equals("setHeader")) {
+                        headers.put((String) args[0], args[1]);
+                    }
+                    return method.getReturnType() == boolean.class ? false : null;
+                }
+            });
+
+    private static final FilterChain WRITE_BODY = new FilterChain() {
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response) throws IOException {
+            assertNotNull(OfyTrace.current());
+            response.getWriter();
+        }
+    };
+
+    @Test
+    public void testAddsTraceBeforeTheBody() throws Exception {
+        new OfyTraceFilter(true).doFilter(request, response, WRITE_BODY);
+        assertEquals("ops=0", headers.get(OfyTraceFilter.HEADER));
+        assertNull(OfyTrace.current());
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        new OfyTraceFilter(false).doFilter(request, response, new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response)
+                    throws IOException, ServletException {
+                assertNull(OfyTrace.current());
+            }
+        });
+        assertTrue(headers.isEmpty());
+    }
+}
@@ -0,0 +1,77 @@
+package com.google.devrel.training.conference.servlet;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.spi.ConferenceApi;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.util.Closeable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the announcement cron job and getAnnouncement.
+ */
+public class SetAnnouncementServletTest {
+
+    private static final String USER_ID = "123456789";
+
+    // The cron job runs a global query, so all jobs are applied right away.
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(0),
+                    new LocalMemcacheServiceTestConfig());
+    private Closeable session;
+
+    @Before
+    public void setUp() throws Exception {
+        session = ObjectifyService.begin();
+        helper.setUp();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+        session.close();
+    }
+
+    private static Conference conference(long id, String name, int maxAttendees) {
+        return new Conference(id, USER_ID, new ConferenceForm(name, null, null, null, null, null, maxAttendees));
+    }
+
+    @Test
+    public void testNoAnnouncement() throws Exception {
+        ofy().save().entities(conference(1, "Roomy", 100)).now();
+        assertNull(SetAnnouncementServlet.updateAnnouncement());
+        assertNull(new ConferenceApi().getAnnouncement());
+    }
+
+    private static Conference booked(long id, String name, int maxAttendees, int seatsAvailable) {
+        Conference conference = conference(id, name, maxAttendees);
+        conference.syncSeatsAvailable(seatsAvailable);
+        return conference;
+    }
+
+    @Test
+    public void testNearlySoldOut() throws Exception {
+        ofy().save().entities(conference(1, "Roomy", 100), booked(2, "Cosy", 10, 3),
+                booked(3, "Sold Out", 10, 0)).now();
+        String announcement = SetAnnouncementServlet.updateAnnouncement();
+        assertTrue(announcement.endsWith(": Cosy"));
+        assertEquals(announcement, new ConferenceApi().getAnnouncement().getMessage());
+    }
+
+    @Test
+    public void testSmallConferenceWithoutBookingsIsNotAnnounced() throws Exception {
+        ofy().save().entities(conference(1, "Small", 3), booked(2, "Small Booked", 3, 2)).now();
+        assertTrue(SetAnnouncementServlet.updateAnnouncement().endsWith(": Small Booked"));
+    }
+}
@@ -0,0 +1,71 @@
+package com.google.devrel.training.conference.servlet;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.service.ColdStart;
+import com.google.devrel.training.conference.service.ConferenceCache;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.util.Closeable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+/**
+ * Tests for the warmup request and the cold start phases.
+ */
+public class WarmupServletTest {
+
+    private static final String USER_ID = "123456789";
+
+    // The warmup runs a global query, so all jobs are applied right away.
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(0),
+                    new LocalMemcacheServiceTestConfig());
+    private Closeable session;
+
+    @Before
+    public void setUp() throws Exception {
+        session = ObjectifyService.begin();
+        helper.setUp();
+        ColdStart.reset();
+        ConferenceCache.clearLocal();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+        session.close();
+    }
+
+    @Test
+    public void testWarmupPrimesTheConferenceCache() throws Exception {
+        Conference conference = new Conference(1L, USER_ID,
+                new ConferenceForm("GCP Live", null, null, null, null, null, 10));
+        ofy().save().entity(conference).now();
+        WarmupServlet.warmup();
+        assertNotNull(ConferenceCache.getResolved(conference.getWebsafeKey()));
+        Map<String, Long> phases = ColdStart.getPhases();
+        assertTrue(phases.containsKey("warmup_objectify"));
+        assertTrue(phases.containsKey("warmup_hot_conferences"));
+        assertTrue(phases.containsKey("warmup_announcement"));
+        assertTrue(phases.containsKey("warmup_facets"));
+    }
+
+    @Test
+    public void testOnlyTheFirstRequestIsRecorded() throws Exception {
+        ColdStart.firstRequest("getConference", 1500);
+        ColdStart.firstRequest("getConference", 20);
+        assertEquals(Long.valueOf(1500), ColdStart.getPhases().get("first_request"));
+    }
+}
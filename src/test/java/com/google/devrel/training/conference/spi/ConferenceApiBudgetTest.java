@@ -0,0 +1,268 @@
+package com.google.devrel.training.conference.spi;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.dev.HighRepJobPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.users.User;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalSearchServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ProfileForm;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.form.QueryForm;
+import com.google.devrel.training.conference.service.ConferenceCache;
+import com.google.devrel.training.conference.service.OfyTrace;
+import com.google.devrel.training.conference.service.RateLimiter;
+import com.google.devrel.training.conference.service.RpcCounter;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.util.Closeable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Runs the ConferenceApi methods against data sets of different sizes and fails when one of them makes more
+ * datastore calls, or reads more entities, than its budget. The budgets do not depend on the number of
+ * conferences, so a query that starts to load every conference, or a page that loads its organizers one by
+ * one, fails here even though the functional tests in ConferenceApiTest still pass.
+ *
+ * <p>Every call is measured with cold caches: an empty session, local cache and memcache. When a change
+ * legitimately costs more, raise the budget in the same change so that the reviewer sees it.
+ */
+@RunWith(Parameterized.class)
+public class ConferenceApiBudgetTest {
+
+    private static final String USER_ID = "123456789";
+
+    private static final String EMAIL = "example@gmail.com";
+
+    private static final int ORGANIZERS = 10;
+
+    private static final int CONFERENCES_TO_ATTEND = 5;
+
+    private static final int CAP = 500;
+
+    private static final String[] CITIES = {"London", "Paris", "Tokyo", "Chicago"};
+
+    /**
+     * Applies every write at once, so that queries see the seeded conferences while the stub still runs
+     * cross-group transactions like the high replication datastore.
+     */
+    public static class ApplyAllJobsPolicy implements HighRepJobPolicy {
+        @Override
+        public boolean shouldApplyNewJob(Key entityGroup) {
+            return true;
+        }
+
+        @Override
+        public boolean shouldRollForwardExistingJob(Key entityGroup) {
+            return true;
+        }
+    }
+
+    @Parameters(name = "{0} conferences")
+    public static Collection<Object[]> sizes() {
+        return Arrays.asList(new Object[][]{{10}, {1000}, {10000}});
+    }
+
+    private final int conferenceCount;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setAlternateHighRepJobPolicyClass(ApplyAllJobsPolicy.class),
+                    new LocalMemcacheServiceTestConfig(),
+                    new LocalTaskQueueTestConfig().setQueueXmlPath("src/main/webapp/WEB-INF/queue.xml"),
+                    new LocalSearchServiceTestConfig());
+    private Closeable session;
+
+    private final ConferenceApi conferenceApi = new ConferenceApi();
+
+    private final User user = new User(EMAIL, "gmail.com", USER_ID);
+
+    private final List<Conference> conferences = new ArrayList<>();
+
+    private RpcCounter.Counts counts;
+
+    private OfyTrace trace;
+
+    public ConferenceApiBudgetTest(final int conferenceCount) {
+        this.conferenceCount = conferenceCount;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        session = ObjectifyService.begin();
+        helper.setUp();
+        RpcCounter.install();
+        RateLimiter.reset();
+        seed();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        RpcCounter.stop();
+        OfyTrace.stop();
+        RpcCounter.uninstall();
+        ofy().clear();
+        helper.tearDown();
+        session.close();
+    }
+
+    /**
+     * Saves the organizers, the conferences spread over them and the cities, and the profile of the user who
+     * attends the first conferences.
+     */
+    private void seed() {
+        List<Object> batch = new ArrayList<>();
+        List<Profile> organizers = new ArrayList<>();
+        for (int i = 0; i < ORGANIZERS; i++) {
+            organizers.add(new Profile("organizer" + i, "Organizer " + i, i + EMAIL, TeeShirtSize.NOT_SPECIFIED));
+        }
+        batch.addAll(organizers);
+        for (int i = 0; i < conferenceCount; i++) {
+            Conference conference = new Conference(i + 1, "organizer" + (i % ORGANIZERS), new ConferenceForm(
+                    "Conference " + i, null, null, CITIES[i % CITIES.length], null, null, CAP));
+            conference.resolveOrganizer(organizers.get(i % ORGANIZERS));
+            conferences.add(conference);
+            batch.add(conference);
+            if (batch.size() == 500) {
+                ofy().save().entities(batch).now();
+                batch.clear();
+            }
+        }
+        Profile profile = new Profile(USER_ID, "Attendee", EMAIL, TeeShirtSize.NOT_SPECIFIED);
+        for (int i = 0; i < CONFERENCES_TO_ATTEND; i++) {
+            profile.addToConferenceKeysToAttend(conferences.get(i).getWebsafeKey());
+        }
+        batch.add(profile);
+        ofy().save().entities(batch).now();
+    }
+
+    /**
+     * Empties the caches and starts counting.
+     */
+    private void measure() {
+        ofy().clear();
+        ConferenceCache.clearLocal();
+        MemcacheServiceFactory.getMemcacheService().clearAll();
+        counts = RpcCounter.start();
+        trace = OfyTrace.start();
+    }
+
+    private void assertBudget(final String method, final int datastoreRpcs, final int entitiesRead) {
+        RpcCounter.stop();
+        OfyTrace.stop();
+        String measured = method + " with " + conferenceCount + " conferences: " + counts + ", entities_read="
+                + trace.getEntitiesRead() + ", " + trace;
+        assertTrue(measured + " exceeds " + datastoreRpcs + " datastore calls",
+                counts.getDatastoreRpcs() <= datastoreRpcs);
+        assertTrue(measured + " exceeds " + entitiesRead + " entities read",
+                trace.getEntitiesRead() <= entitiesRead);
+    }
+
+    @Test
+    public void testQueryConferences() throws Exception {
+        measure();
+        assertEquals(Math.min(conferenceCount, ConferenceApi.DEFAULT_PAGE_SIZE),
+                conferenceApi.queryConferences(null, null, null).getItems().size());
+        // a keys-only query and one batch get of the page, the organizer names are stored with the conferences
+        assertBudget("queryConferences", 2, 40);
+    }
+
+    @Test
+    public void testQueryConferencesByCity() throws Exception {
+        QueryForm queryForm = new QueryForm().filter(
+                new QueryForm.Filter(QueryForm.Field.CITY, QueryForm.Operator.EQ, CITIES[0]));
+        measure();
+        conferenceApi.queryConferences(queryForm, null, null);
+        assertBudget("queryConferences(city)", 2, 40);
+    }
+
+    @Test
+    public void testQueryConferencesWithResidualFilter() throws Exception {
+        QueryForm queryForm = new QueryForm().filter(
+                new QueryForm.Filter(QueryForm.Field.CITY, QueryForm.Operator.NE, CITIES[0]));
+        measure();
+        conferenceApi.queryConferences(queryForm, null, null);
+        // the streamed query fetches batches of a page until the page is full
+        assertBudget("queryConferences(residual)", 4, 28);
+    }
+
+    @Test
+    public void testGetConferencesCreated() throws Exception {
+        User organizer = new User(EMAIL, "gmail.com", "organizer0");
+        measure();
+        conferenceApi.getConferencesCreated(organizer, null, null);
+        assertBudget("getConferencesCreated", 2, 40);
+    }
+
+    @Test
+    public void testGetConferencesToAttend() throws Exception {
+        measure();
+        assertEquals(CONFERENCES_TO_ATTEND, conferenceApi.getConferencesToAttend(user).getItems().size());
+        assertBudget("getConferencesToAttend", 2, 6);
+    }
+
+    @Test
+    public void testGetConference() throws Exception {
+        measure();
+        conferenceApi.getConference(conferences.get(conferenceCount - 1).getWebsafeKey());
+        assertBudget("getConference", 1, 1);
+    }
+
+    @Test
+    public void testGetProfile() throws Exception {
+        measure();
+        assertNotNull(conferenceApi.getProfile(user));
+        assertBudget("getProfile", 1, 1);
+    }
+
+    @Test
+    public void testSaveProfile() throws Exception {
+        measure();
+        conferenceApi.saveProfile(user, new ProfileForm("Renamed", TeeShirtSize.M));
+        assertBudget("saveProfile", 4, 1);
+    }
+
+    @Test
+    public void testCreateConference() throws Exception {
+        measure();
+        conferenceApi.createConference(user, new ConferenceForm("New", null, null, CITIES[0], null, null, CAP));
+        // the profile get and the put in one transaction, which adds its begin and commit calls, plus an
+        // allocateIds call when the instance's id pool needs a block
+        assertBudget("createConference", 5, 1);
+    }
+
+    @Test
+    public void testRegisterForConference() throws Exception {
+        measure();
+        conferenceApi.registerForConference(user, conferences.get(conferenceCount - 1).getWebsafeKey());
+        assertBudget("registerForConference", 12, 4);
+    }
+
+    @Test
+    public void testUnregisterFromConference() throws Exception {
+        String websafeKey = conferences.get(conferenceCount - 1).getWebsafeKey();
+        conferenceApi.registerForConference(user, websafeKey);
+        measure();
+        conferenceApi.unregisterFromConference(user, websafeKey);
+        assertBudget("unregisterFromConference", 8, 13);
+    }
+}
@@ -3,17 +3,39 @@ package com.google.devrel.training.conference.spi;
 import static com.google.devrel.training.conference.service.OfyService.ofy;
 import static org.junit.Assert.*;
 
+import com.google.api.server.spi.response.BadRequestException;
+import com.google.api.server.spi.response.CollectionResponse;
+import com.google.api.server.spi.response.ConflictException;
+import com.google.api.server.spi.response.ForbiddenException;
+import com.google.api.server.spi.response.NotFoundException;
 import com.google.api.server.spi.response.UnauthorizedException;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.dev.LocalTaskQueue;
+import com.google.appengine.api.taskqueue.dev.QueueStateInfo;
 import com.google.appengine.api.users.User;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalSearchServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
 // import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceSummary;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceFacets;
+import com.google.devrel.training.conference.domain.FacetCount;
 import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.WaitlistPosition;
 // import com.google.devrel.training.conference.form.ConferenceForm;
 import com.google.devrel.training.conference.form.ConferenceForm;
 import com.google.devrel.training.conference.form.ProfileForm;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.service.ConferenceCache;
+import com.google.devrel.training.conference.service.FacetService;
+import com.google.devrel.training.conference.service.OfyTrace;
+import com.google.devrel.training.conference.service.OrganizerNameService;
+import com.google.devrel.training.conference.service.RateLimiter;
+import com.google.devrel.training.conference.service.WaitlistService;
+import com.google.devrel.training.conference.service.WriteOps;
 import com.googlecode.objectify.Key;
 
 import com.googlecode.objectify.ObjectifyService;
@@ -22,11 +44,19 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.net.URLDecoder;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 
 /**
  * Tests for ConferenceApi API methods.
@@ -57,19 +87,50 @@ public class ConferenceApiTest {
 
     private final LocalServiceTestHelper helper =
             new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
-                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(100));
+                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(100),
+                    new LocalMemcacheServiceTestConfig(),
+                    new LocalTaskQueueTestConfig().setQueueXmlPath("src/main/webapp/WEB-INF/queue.xml"),
+                    new LocalSearchServiceTestConfig());
     private Closeable session;
 
+    private final Logger writeOpsLog = Logger.getLogger(WriteOps.class.getName());
+
+    /**
+     * The WriteOps the API methods have logged.
+     */
+    private final List<WriteOps> writeOps = new ArrayList<>();
+
+    private final Handler writeOpsHandler = new Handler() {
+        @Override
+        public void publish(LogRecord record) {
+            writeOps.add((WriteOps) record.getParameters()[0]);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
     @Before
     public void setUp() throws Exception {
         session = ObjectifyService.begin();
         helper.setUp();
+        ConferenceCache.clearLocal();
+        RateLimiter.reset();
+        writeOpsLog.setLevel(Level.FINE);
+        writeOpsLog.addHandler(writeOpsHandler);
         user = new User(EMAIL, "gmail.com", USER_ID);
         conferenceApi = new ConferenceApi();
     }
 
     @After
     public void tearDown() throws Exception {
+        writeOpsLog.removeHandler(writeOpsHandler);
+        writeOpsLog.setLevel(null);
         ofy().clear();
         helper.tearDown();
         session.close();
@@ -155,6 +216,85 @@ public class ConferenceApiTest {
         assertEquals(newDisplayName, profile.getDisplayName());
     }
 
+    @Test
+    public void testRenameReachesTheOrganizersConferences() throws Exception {
+        conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        assertEquals(DISPLAY_NAME, conference.getOrganizerDisplayName());
+        // an update that keeps the name does not touch the conferences
+        conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TeeShirtSize.L));
+        assertEquals(0, queuedRenames());
+
+        conferenceApi.saveProfile(user, new ProfileForm("New Name", null));
+        assertEquals(1, queuedRenames());
+        assertNull(OrganizerNameService.renameBatch(USER_ID, null));
+        ofy().clear();
+        assertEquals("New Name", conferenceApi.getConference(conference.getWebsafeKey()).getOrganizerDisplayName());
+        assertEquals("New Name", conferenceApi.getConferencesCreated(user, null, null).getItems().iterator().next()
+                .getOrganizerDisplayName());
+    }
+
+    @Test
+    public void testConferenceFacetsFollowWrites() throws Exception {
+        Date startDate = new SimpleDateFormat("MM/dd/yyyy").parse("03/25/2014");
+        Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, Arrays.asList("Cloud"), CITY, startDate, null, CAP));
+        conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, Arrays.asList("Cloud", "Web"), CITY, null, null, CAP));
+        // only the capacity changes, so there is nothing to count
+        conferenceApi.updateConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, Arrays.asList("Cloud"), CITY, startDate, null, 10), conference.getWebsafeKey());
+        assertEquals(2, runFacetTasks());
+
+        conferenceApi.updateConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, Arrays.asList("Cloud"), "London", startDate, null, 10), conference.getWebsafeKey());
+        assertEquals(1, runFacetTasks());
+
+        ConferenceFacets facets = conferenceApi.getConferenceFacets();
+        assertEquals(2, facets.getCities().size());
+        for (FacetCount city : facets.getCities()) {
+            assertEquals(1, city.getCount());
+        }
+        assertEquals("3", facets.getMonths().get(0).getValue());
+        assertEquals("Cloud", facets.getTopics().get(0).getValue());
+        assertEquals(2, facets.getTopics().get(0).getCount());
+        assertEquals("Web", facets.getTopics().get(1).getValue());
+    }
+
+    /**
+     * Runs the queued facet changes the way FacetCountsServlet does.
+     *
+     * @return the number of tasks run.
+     */
+    private static int runFacetTasks() throws Exception {
+        LocalTaskQueue taskQueue = LocalTaskQueueTestConfig.getLocalTaskQueue();
+        List<QueueStateInfo.TaskStateInfo> tasks =
+                taskQueue.getQueueStateInfo().get(FacetService.QUEUE_NAME).getTaskInfo();
+        for (QueueStateInfo.TaskStateInfo task : tasks) {
+            Map<String, List<String>> values = new HashMap<>();
+            for (String param : task.getBody().split("&")) {
+                String[] nameAndValue = param.split("=", 2);
+                if (!values.containsKey(nameAndValue[0])) {
+                    values.put(nameAndValue[0], new ArrayList<String>());
+                }
+                values.get(nameAndValue[0]).add(URLDecoder.decode(nameAndValue[1], "UTF-8"));
+            }
+            Map<String, String[]> params = new HashMap<>();
+            for (Map.Entry<String, List<String>> entry : values.entrySet()) {
+                params.put(entry.getKey(), entry.getValue().toArray(new String[0]));
+            }
+            FacetService.applyChanges(params);
+        }
+        taskQueue.flushQueue(FacetService.QUEUE_NAME);
+        return tasks.size();
+    }
+
+    private static int queuedRenames() {
+        return LocalTaskQueueTestConfig.getLocalTaskQueue().getQueueStateInfo()
+                .get(OrganizerNameService.QUEUE_NAME).getCountTasks();
+    }
+
     @Test
     public void testUpdateProfileWithNulls() throws Exception {
         conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
@@ -177,6 +317,17 @@ public class ConferenceApiTest {
 
 
 
+    @Test
+    public void testSaveProfileWithoutChangesDoesNotWrite() throws Exception {
+        conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, null));
+        conferenceApi.saveProfile(user, new ProfileForm(null, TeeShirtSize.L));
+        assertEquals(3, writeOps.size());
+        assertEquals(1, writeOps.get(0).getEntities());
+        assertEquals(0, writeOps.get(1).getEntities());
+        assertEquals(1, writeOps.get(2).getEntities());
+    }
+
     @Test
     public void testCreateConference() throws Exception {
         DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
@@ -209,8 +360,21 @@ public class ConferenceApiTest {
         assertEquals(displayName, profile.getDisplayName());
     }
 
+    @Test
+    public void testCreateConferenceOnlyWritesConference() throws Exception {
+        conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        Conference conference = conferenceApi.createConference(user,
+                new ConferenceForm(NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        WriteOps created = writeOps.get(writeOps.size() - 1);
+        assertEquals("createConference", created.getMethod());
+        assertEquals(1, created.getEntities());
+        // the seats are sharded on the first booking
+        assertEquals(0, conference.getSeatShardCount());
+        conferenceApi.registerForConference(user, conference.getWebsafeKey());
+        ofy().clear();
+        assertEquals(CAP - 1, conferenceApi.getConference(conference.getWebsafeKey()).getSeatsAvailable());
+    }
 
-    /*
     @Test
     public void testGetConferencesCreated() throws Exception {
         DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
@@ -224,14 +388,142 @@ public class ConferenceApiTest {
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
         Conference conference = conferenceApi.createConference(user, conferenceForm);
 
-        List<Conference> conferencesCreated = conferenceApi.getConferencesCreated(user);
+        List<ConferenceSummary> conferencesCreated = new ArrayList<>(
+                conferenceApi.getConferencesCreated(user, null, null).getItems());
         assertEquals(1, conferencesCreated.size());
-        assertTrue("The result should contain a conference",
-                conferencesCreated.contains(conference));
+        assertEquals("The result should contain the conference",
+                conference.getWebsafeKey(), conferencesCreated.get(0).getWebsafeKey());
+        assertEquals(EMAIL.substring(0, EMAIL.indexOf("@")), conferencesCreated.get(0).getOrganizerDisplayName());
+    }
+
+    @Test
+    public void testGetConferencesCreatedPaging() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            conferenceApi.createConference(user, new ConferenceForm(
+                    NAME + i, DESCRIPTION, null, CITY, null, null, CAP));
+        }
+        CollectionResponse<ConferenceSummary> firstPage = conferenceApi.getConferencesCreated(user, 3, null);
+        assertEquals(3, firstPage.getItems().size());
+        assertNotNull(firstPage.getNextPageToken());
+
+        CollectionResponse<ConferenceSummary> secondPage =
+                conferenceApi.getConferencesCreated(user, 3, firstPage.getNextPageToken());
+        List<ConferenceSummary> conferences = new ArrayList<>(secondPage.getItems());
+        assertEquals(2, conferences.size());
+        assertEquals(NAME + 3, conferences.get(0).getName());
+        assertNull(secondPage.getNextPageToken());
+    }
+
+    @Test
+    public void testListsReturnSummaries() throws Exception {
+        Date startDate = new SimpleDateFormat("MM/dd/yyyy").parse("03/25/2014");
+        Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, startDate, null, CAP));
+        conferenceApi.registerForConference(user, conference.getWebsafeKey());
+        ofy().clear();
+        ConferenceSummary created = conferenceApi.getConferencesCreated(user, null, null).getItems().iterator().next();
+        ConferenceSummary toAttend = conferenceApi.getConferencesToAttend(user).getItems().iterator().next();
+        for (ConferenceSummary summary : Arrays.asList(created, toAttend)) {
+            assertEquals(conference.getWebsafeKey(), summary.getWebsafeKey());
+            assertEquals(NAME, summary.getName());
+            assertEquals(CITY, summary.getCity());
+            assertEquals(startDate, summary.getStartDate());
+            assertEquals(EMAIL.substring(0, EMAIL.indexOf("@")), summary.getOrganizerDisplayName());
+            assertEquals(CAP, summary.getMaxAttendees());
+            assertEquals(CAP - 1, summary.getSeatsAvailable());
+        }
+    }
+
+    @Test
+    public void testGetConferencesToAttendDoesNotLoadOrganizers() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            User organizer = new User(i + EMAIL, "gmail.com", USER_ID + i);
+            conferenceApi.saveProfile(organizer, new ProfileForm(DISPLAY_NAME + i, TEE_SHIRT_SIZE));
+            Conference conference = conferenceApi.createConference(organizer, new ConferenceForm(
+                    NAME + i, DESCRIPTION, null, CITY, null, null, CAP));
+            conferenceApi.registerForConference(user, conference.getWebsafeKey());
+        }
+        ofy().clear();
+        ConferenceCache.clearLocal();
+        OfyTrace trace = OfyTrace.start();
+        try {
+            assertEquals(3, conferenceApi.getConferencesToAttend(user).getItems().size());
+        } finally {
+            OfyTrace.stop();
+        }
+        // Only the attendee's profile, the conferences store their organizer's name.
+        assertEquals(trace.toString(), 1, trace.count(OfyTrace.Type.LOAD, "Profile"));
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testGetConferencesCreatedWithInvalidCursor() throws Exception {
+        conferenceApi.getConferencesCreated(user, null, "not a cursor");
+    }
+
+    @Test
+    public void testSearchConferences() throws Exception {
+        Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, Arrays.asList("Mobile"), CITY, null, null, CAP));
+        conferenceApi.createConference(user, new ConferenceForm(
+                "Android Summit", "Phones and tablets", null, CITY, null, null, CAP));
+
+        List<ConferenceSummary> hits = new ArrayList<>(
+                conferenceApi.searchConferences("announcements", null, null).getItems());
+        assertEquals(1, hits.size());
+        assertEquals(conference.getWebsafeKey(), hits.get(0).getWebsafeKey());
+        assertEquals(NAME, hits.get(0).getName());
+        assertEquals(EMAIL.substring(0, EMAIL.indexOf("@")), hits.get(0).getOrganizerDisplayName());
+        assertEquals(1, conferenceApi.searchConferences("topic:mobile", null, null).getItems().size());
+        assertTrue(conferenceApi.searchConferences("Paris", null, null).getItems().isEmpty());
+    }
+
+    @Test
+    public void testSearchConferencesPaging() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            conferenceApi.createConference(user, new ConferenceForm(
+                    NAME + " " + i, DESCRIPTION, null, CITY, null, null, CAP));
+        }
+        CollectionResponse<ConferenceSummary> firstPage = conferenceApi.searchConferences("cloud", 3, null);
+        assertEquals(3, firstPage.getItems().size());
+        assertNotNull(firstPage.getNextPageToken());
+
+        CollectionResponse<ConferenceSummary> secondPage =
+                conferenceApi.searchConferences("cloud", 3, firstPage.getNextPageToken());
+        assertEquals(2, secondPage.getItems().size());
+        assertNull(secondPage.getNextPageToken());
+    }
+
+    @Test
+    public void testSearchFindsUpdatedConference() throws Exception {
+        Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        conferenceApi.updateConference(user, new ConferenceForm(
+                "Kubernetes Day", DESCRIPTION, null, CITY, null, null, CAP), conference.getWebsafeKey());
+
+        assertTrue(conferenceApi.searchConferences("live", null, null).getItems().isEmpty());
+        assertEquals("Kubernetes Day",
+                conferenceApi.searchConferences("kubernetes", null, null).getItems().iterator().next().getName());
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testSearchConferencesWithInvalidQuery() throws Exception {
+        conferenceApi.searchConferences("name:(", null, null);
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testSearchConferencesWithInvalidCursor() throws Exception {
+        conferenceApi.searchConferences("cloud", null, "not a cursor");
+    }
+
+    @Test
+    public void testOrganizerDisplayNameFallsBackToUserId() throws Exception {
+        Conference conference = new Conference(1L, USER_ID, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        assertEquals(USER_ID, conference.getOrganizerDisplayName());
+        conference.resolveOrganizer(new Profile(USER_ID, DISPLAY_NAME, EMAIL, TEE_SHIRT_SIZE));
+        assertEquals(DISPLAY_NAME, conference.getOrganizerDisplayName());
     }
-    */
 
-    /*
     @Test
     public void testGetConference() throws Exception {
         DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
@@ -249,7 +541,7 @@ public class ConferenceApiTest {
         assertEquals(NAME, conference.getName());
         assertEquals(DESCRIPTION, conference.getDescription());
         assertEquals(topics, conference.getTopics());
-        assertEquals(USER_ID, conference.getOrganizerGplusId());
+        assertEquals(USER_ID, conference.getOrganizerUserId());
         assertEquals(CITY, conference.getCity());
         assertEquals(startDate, conference.getStartDate());
         assertEquals(endDate, conference.getEndDate());
@@ -257,9 +549,7 @@ public class ConferenceApiTest {
         assertEquals(CAP, conference.getSeatsAvailable());
         assertEquals(MONTH, conference.getMonth());
     }
-    */
 
-    /*
     @Test
     public void testRegistrations() throws Exception {
         DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
@@ -294,5 +584,222 @@ public class ConferenceApiTest {
         assertFalse("Profile shouldn't have the conferenceId in conferenceIdsToAttend.",
                 profile.getConferenceKeysToAttend().contains(conference.getWebsafeKey()));
     }
-    */
+
+    @Test(expected = NotFoundException.class)
+    public void testGetConferenceWithInvalidKey() throws Exception {
+        conferenceApi.getConference("not a key");
+    }
+
+    @Test
+    public void testRegisterTwice() throws Exception {
+        Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        conferenceApi.registerForConference(user, conference.getWebsafeKey());
+        try {
+            conferenceApi.registerForConference(user, conference.getWebsafeKey());
+            fail("Registering twice must fail.");
+        } catch (ConflictException expected) {
+        }
+        assertEquals(CAP - 1, conferenceApi.getConference(conference.getWebsafeKey()).getSeatsAvailable());
+    }
+
+    @Test
+    public void testRegisterForSoldOutConference() throws Exception {
+        Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 1));
+        conferenceApi.registerForConference(user, conference.getWebsafeKey());
+        User otherUser = new User("other@gmail.com", "gmail.com", "987654321");
+        try {
+            conferenceApi.registerForConference(otherUser, conference.getWebsafeKey());
+            fail("A sold out conference must not be booked.");
+        } catch (ConflictException expected) {
+        }
+        Profile otherProfile = ofy().load().key(Key.create(Profile.class, otherUser.getUserId())).now();
+        assertNull(otherProfile);
+        assertEquals(0, conferenceApi.getConference(conference.getWebsafeKey()).getSeatsAvailable());
+    }
+
+    @Test
+    public void testWaitlistGetsReleasedSeats() throws Exception {
+        Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 1));
+        conferenceApi.registerForConference(user, conference.getWebsafeKey());
+        User waiting = new User("waiting@gmail.com", "gmail.com", "987654321");
+        WaitlistPosition position = conferenceApi.joinWaitlist(waiting, conference.getWebsafeKey());
+        assertEquals(1, position.getPosition());
+        assertEquals(1, conferenceApi.getWaitlistPosition(waiting, conference.getWebsafeKey()).getPosition());
+
+        conferenceApi.unregisterFromConference(user, conference.getWebsafeKey());
+        assertEquals(2, LocalTaskQueueTestConfig.getLocalTaskQueue().getQueueStateInfo()
+                .get(WaitlistService.QUEUE_NAME).getCountTasks());
+        User other = new User("other@gmail.com", "gmail.com", "555555555");
+        try {
+            conferenceApi.registerForConference(other, conference.getWebsafeKey());
+            fail("Released seats must go to the waitlist first.");
+        } catch (ConflictException expected) {
+        }
+
+        WaitlistService.promoteBatch(conference.getKey());
+        ofy().clear();
+        Profile profile = ofy().load().key(Key.create(Profile.class, waiting.getUserId())).now();
+        assertTrue(profile.getConferenceKeysToAttend().contains(conference.getWebsafeKey()));
+        assertEquals(0, conferenceApi.getWaitlistPosition(waiting, conference.getWebsafeKey()).getPosition());
+    }
+
+    @Test
+    public void testDirectRegistrationConsumesTheWaitlistEntry() throws Exception {
+        Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 1));
+        conferenceApi.registerForConference(user, conference.getWebsafeKey());
+        User waiting = new User("waiting@gmail.com", "gmail.com", "987654321");
+        conferenceApi.joinWaitlist(waiting, conference.getWebsafeKey());
+
+        // memcache has lost the counters, so the waiting user gets the released seat directly
+        MemcacheServiceFactory.getMemcacheService().clearAll();
+        conferenceApi.unregisterFromConference(user, conference.getWebsafeKey());
+        conferenceApi.registerForConference(waiting, conference.getWebsafeKey());
+        assertEquals(0, conferenceApi.getWaitlistPosition(waiting, conference.getWebsafeKey()).getPosition());
+        conferenceApi.unregisterFromConference(waiting, conference.getWebsafeKey());
+
+        // the promotion must not register the user again
+        assertFalse(WaitlistService.promoteBatch(conference.getKey()));
+        ofy().clear();
+        Profile profile = ofy().load().key(Key.create(Profile.class, waiting.getUserId())).now();
+        assertFalse(profile.getConferenceKeysToAttend().contains(conference.getWebsafeKey()));
+        assertEquals(1, conferenceApi.getConference(conference.getWebsafeKey()).getSeatsAvailable());
+    }
+
+    @Test
+    public void testLeaveWaitlist() throws Exception {
+        Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 1));
+        conferenceApi.registerForConference(user, conference.getWebsafeKey());
+        User waiting = new User("waiting@gmail.com", "gmail.com", "987654321");
+        conferenceApi.joinWaitlist(waiting, conference.getWebsafeKey());
+        assertTrue(conferenceApi.leaveWaitlist(waiting, conference.getWebsafeKey()).getResult());
+        assertEquals(0, conferenceApi.getWaitlistPosition(waiting, conference.getWebsafeKey()).getPosition());
+        try {
+            conferenceApi.leaveWaitlist(waiting, conference.getWebsafeKey());
+            fail("A user who has left the waitlist is not on it.");
+        } catch (NotFoundException expected) {
+        }
+
+        conferenceApi.unregisterFromConference(user, conference.getWebsafeKey());
+        WaitlistService.promoteBatch(conference.getKey());
+        ofy().clear();
+        Profile profile = ofy().load().key(Key.create(Profile.class, waiting.getUserId())).now();
+        assertFalse(profile.getConferenceKeysToAttend().contains(conference.getWebsafeKey()));
+        // the waitlist has moved past the entry, registrations are let through again
+        conferenceApi.registerForConference(waiting, conference.getWebsafeKey());
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void testWaitlistPositionWithoutJoining() throws Exception {
+        Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        conferenceApi.getWaitlistPosition(user, conference.getWebsafeKey());
+    }
+
+    @Test
+    public void testSaveProfileIsRateLimited() throws Exception {
+        int burst = RateLimiter.LIMITS.get("saveProfile").getBurst();
+        for (int i = 0; i < burst; i++) {
+            conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        }
+        try {
+            conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+            fail("The user has used up the limit of saveProfile.");
+        } catch (TooManyRequestsException expected) {
+            assertEquals(429, expected.getStatusCode());
+        }
+        // other users and other methods have limits of their own
+        conferenceApi.saveProfile(new User("other@gmail.com", "gmail.com", "987654321"),
+                new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        conferenceApi.createConference(user, new ConferenceForm(NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        assertEquals(Long.valueOf(1), RateLimiter.getThrottled().get("saveProfile"));
+    }
+
+    @Test(expected = ConflictException.class)
+    public void testUnregisterWithoutRegistration() throws Exception {
+        Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        conferenceApi.unregisterFromConference(user, conference.getWebsafeKey());
+    }
+
+    @Test
+    public void testGetConferencesToAttend() throws Exception {
+        User organizer = new User("organizer@gmail.com", "gmail.com", "987654321");
+        conferenceApi.saveProfile(organizer, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        Conference first = conferenceApi.createConference(organizer, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        Conference second = conferenceApi.createConference(organizer, new ConferenceForm(
+                NAME + " 2", DESCRIPTION, null, CITY, null, null, CAP));
+        conferenceApi.createConference(organizer, new ConferenceForm(
+                NAME + " 3", DESCRIPTION, null, CITY, null, null, CAP));
+        conferenceApi.registerForConference(user, second.getWebsafeKey());
+        conferenceApi.registerForConference(user, first.getWebsafeKey());
+        ofy().clear();
+
+        List<ConferenceSummary> conferences =
+                new ArrayList<>(conferenceApi.getConferencesToAttend(user).getItems());
+        assertEquals(2, conferences.size());
+        assertEquals(second.getWebsafeKey(), conferences.get(0).getWebsafeKey());
+        assertEquals(first.getWebsafeKey(), conferences.get(1).getWebsafeKey());
+        assertEquals(DISPLAY_NAME, conferences.get(0).getOrganizerDisplayName());
+        assertEquals(CAP - 1, conferences.get(0).getSeatsAvailable());
+    }
+
+    @Test
+    public void testGetConferencesToAttendWithoutProfile() throws Exception {
+        assertTrue(conferenceApi.getConferencesToAttend(user).getItems().isEmpty());
+    }
+
+    @Test
+    public void testUpdateConference() throws Exception {
+        Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        conferenceApi.registerForConference(user, conference.getWebsafeKey());
+        // served from the cache from now on
+        assertEquals(NAME, conferenceApi.getConference(conference.getWebsafeKey()).getName());
+
+        conferenceApi.updateConference(user, new ConferenceForm(
+                "New Name", DESCRIPTION, null, CITY, null, null, 10), conference.getWebsafeKey());
+        ofy().clear();
+        Conference updated = conferenceApi.getConference(conference.getWebsafeKey());
+        assertEquals("New Name", updated.getName());
+        assertEquals(10, updated.getMaxAttendees());
+        assertEquals(9, updated.getSeatsAvailable());
+    }
+
+    @Test(expected = ConflictException.class)
+    public void testUpdateConferenceBelowAllocatedSeats() throws Exception {
+        Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 2));
+        conferenceApi.registerForConference(user, conference.getWebsafeKey());
+        conferenceApi.registerForConference(new User("other@gmail.com", "gmail.com", "987654321"),
+                conference.getWebsafeKey());
+        conferenceApi.updateConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 1), conference.getWebsafeKey());
+    }
+
+    @Test(expected = ForbiddenException.class)
+    public void testUpdateConferenceOfOtherOrganizer() throws Exception {
+        Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        conferenceApi.updateConference(new User("other@gmail.com", "gmail.com", "987654321"),
+                new ConferenceForm(NAME, DESCRIPTION, null, CITY, null, null, CAP), conference.getWebsafeKey());
+    }
+
+    @Test
+    public void testUpdateMissingConference() throws Exception {
+        ConferenceForm form = new ConferenceForm(NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        String missing = Key.create(Key.create(Profile.class, USER_ID), Conference.class, 42L).getString();
+        for (String websafeKey : Arrays.asList(missing, "not a key", Key.create(Profile.class, USER_ID).getString())) {
+            try {
+                conferenceApi.updateConference(user, form, websafeKey);
+                fail("There is no conference with the key " + websafeKey);
+            } catch (NotFoundException expected) {
+            }
+        }
+    }
 }